@@ -401,26 +401,10 @@ public class CenterController implements EngineInjector {
     private int calculateMaxDegreeForFunction(system.core.model.Program function) {
         return system.core.exec.FunctionEnv.with(
                 new system.core.exec.FunctionEnv(((system.core.EmulatorEngineImpl) engine).getFunctions()),
-                () -> {
-                    final int CAP = 1000; // safety cap (same as main engine)
-                    int d = 0;
-                    system.core.model.Program cur = function;
-                    while (d < CAP && containsSynthetic(cur)) {
-                        cur = new system.core.expand.ExpanderImpl().expandToDegree(cur, 1);
-                        d++;
-                    }
-                    return d;
-                }
+                () -> new system.core.expand.ExpanderImpl().maxDegree(function) // same as the main getMaxDegree()
         );
     }
 
-    private static boolean containsSynthetic(system.core.model.Program p) {
-        for (system.core.model.Instruction ins : p.instructions()) {
-            if (!ins.isBasic()) return true;
-        }
-        return false;
-    }
-
 
 
     public void onActionExpansion() {
@@ -173,6 +173,8 @@ public class ApiClient {
             String lbl = jStr(obj, "label");
             int cyc    = jInt(obj, "cycles", 0);
             String originChain = jStr(obj, "originChain");
+            long repeat = jLong(obj, "repeat", 0L);   // a line the server sent once for a repeat block
+            if (op != null && repeat > 1) op = op + "   (x" + repeat + ")";
 
             if (bs == null || bs.isBlank()) bs = ("I".equals(lvl) ? "B" : "S");
             if (idx >= 0 && op != null)
@@ -217,6 +219,8 @@ public class ApiClient {
             String lbl = jStr(obj, "label");
             int cyc    = jInt(obj, "cycles", 0);
             String originChain = jStr(obj, "originChain");
+            long repeat = jLong(obj, "repeat", 0L);   // a line the server sent once for a repeat block
+            if (op != null && repeat > 1) op = op + "   (x" + repeat + ")";
 
             if (bs == null || bs.isBlank()) bs = ("I".equals(lvl) ? "B" : "S");
             if (idx >= 0 && op != null) out.add(new ProgramInstruction(idx, op, (lvl == null ? "" : lvl), bs, (lbl == null ? "" : lbl), Math.max(0, cyc),originChain));
@@ -592,17 +596,43 @@ public class ApiClient {
         public final Map<String, Long> vars;
         public final long creditsLeft;
         public final String error;
+        public final List<LineProfile> profile;    // empty unless the run was profiled
 
         public RunResult(long cycles, long y, Map<String, Long> vars, long creditsLeft, String error) {
+            this(cycles, y, vars, creditsLeft, error, List.of());
+        }
+
+        public RunResult(long cycles, long y, Map<String, Long> vars, long creditsLeft, String error, List<LineProfile> profile) {
             this.cycles = cycles;
             this.y = y;
             this.vars = vars;
             this.creditsLeft = creditsLeft;
             this.error = error;
+            this.profile = profile;
+        }
+    }
+
+    /** Counters of one line of a profiled run; number is the ProgramInstruction index. */
+    public static final class LineProfile {
+        public final int number;
+        public final long hits;
+        public final long cycles;       // charged by the line itself
+        public final long callCycles;   // of the functions it called
+
+        public LineProfile(int number, long hits, long cycles, long callCycles) {
+            this.number = number;
+            this.hits = hits;
+            this.cycles = cycles;
+            this.callCycles = callCycles;
         }
     }
 
     public RunResult runStart(String program, int degree, List<Long> inputs, boolean isMainProgram,String arch,String functionName) throws IOException, InterruptedException {
+        return runStart(program, degree, inputs, isMainProgram, arch, functionName, false);
+    }
+
+    /** profiled: run through /api/run/profile, the result then has the per line counters as well. */
+    public RunResult runStart(String program, int degree, List<Long> inputs, boolean isMainProgram, String arch, String functionName, boolean profiled) throws IOException, InterruptedException {
         StringBuilder sb = new StringBuilder();
         sb.append("{\"program\":\"").append(jsonEsc(program)).append("\"");
         if (functionName != null && !functionName.isBlank()) {
@@ -613,7 +643,7 @@ public class ApiClient {
         sb.append(",\"inputs\":[").append(inputs == null ? "" : inputs.stream().map(String::valueOf).collect(java.util.stream.Collectors.joining(","))).append("]");
         sb.append(",\"isMainProgram\":").append(isMainProgram);
         sb.append("}");
-        HttpRequest req = HttpRequest.newBuilder(url("/api/run/start"))
+        HttpRequest req = HttpRequest.newBuilder(url(profiled ? "/api/run/profile" : "/api/run/start"))
                 .timeout(Duration.ofSeconds(10))
                 .header("Content-Type", "application/json")
                 .POST(HttpRequest.BodyPublishers.ofString(sb.toString()))
@@ -655,7 +685,33 @@ public class ApiClient {
                 }
             }
         }
-        return new RunResult(cycles, y, vars, creditsLeft, null);
+        return new RunResult(cycles, y, vars, creditsLeft, null, profiled ? parseProfileLines(s) : List.of());
+    }
+
+    // "lines":[[number,hits,cycles,callCycles],..] of the "profile" (the run program's, not its functions')
+    private static List<LineProfile> parseProfileLines(String s) {
+        List<LineProfile> out = new ArrayList<>();
+        int p = s.indexOf("\"profile\"");
+        int i = (p < 0) ? -1 : s.indexOf("\"lines\"", p);
+        if (i < 0) return out;
+        int a1 = s.indexOf('[', i); if (a1 < 0) return out;
+        int a2 = matchBracket(s, a1); if (a2 < 0) return out;
+        String arr = s.substring(a1 + 1, a2);
+
+        int pos = 0;
+        while (pos < arr.length()) {
+            int o1 = arr.indexOf('[', pos); if (o1 < 0) break;
+            int o2 = arr.indexOf(']', o1); if (o2 < 0) break;
+            String[] f = arr.substring(o1 + 1, o2).split(",");
+            if (f.length == 4) {
+                try {
+                    out.add(new LineProfile(Integer.parseInt(f[0].trim()), Long.parseLong(f[1].trim()),
+                            Long.parseLong(f[2].trim()), Long.parseLong(f[3].trim())));
+                } catch (NumberFormatException ignore) {}
+            }
+            pos = o2 + 1;
+        }
+        return out;
     }
 
     //---- fetching the users history ----
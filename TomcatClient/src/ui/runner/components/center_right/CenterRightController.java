@@ -25,6 +25,7 @@ public class CenterRightController {
     @FXML private Button dashboardBtn;
     @FXML private VarTableController varTableController;
     @FXML private ChoiceBox<String> architectureChoiceBox;
+    @FXML private CheckBox profileChk;
 
 
     private boolean newRunPressed = false;
@@ -124,10 +125,11 @@ public class CenterRightController {
 
         final String runProgram = program;
         final String runFunction = functionName;
+        final boolean profiled = profileChk.isSelected();
 
         new Thread(() -> {
             try {
-                ApiClient.RunResult result = ApiClient.get().runStart(runProgram, degree, inputs, isMainProgram,selectedArch,runFunction);
+                ApiClient.RunResult result = ApiClient.get().runStart(runProgram, degree, inputs, isMainProgram,selectedArch,runFunction, profiled);
                 if ("insufficient_credits".equals(result.error)) {
                     Platform.runLater(this::showChargeCreditsPopup);
                     return;
@@ -139,6 +141,7 @@ public class CenterRightController {
                 Platform.runLater(() -> {
                     cyclesLbl.setText("Cycles: " + result.cycles);
                     varTableController.setVars(result.vars);
+                    instructionTable().setProfile(result.profile); // heat column, empty when not profiled
                     if (ctx != null) ctx.setCredits(result.creditsLeft); // Update credits in context
                 });
             } catch (Exception ex) {
@@ -188,6 +191,12 @@ public class CenterRightController {
         });
     }
 
+    private ui.runner.components.instruction_table.InstructionTableController instructionTable() {
+        var centerController = ((ui.runner.MainRunScreenController)
+                ui.ClientApp.get().getRunScreenController()).getCenterController();
+        return centerController.getCenterLeftController().getInstructionTableController();
+    }
+
     private void highlightByArch(String selectedArch) {
         int selectedTier = archTier(selectedArch);
 
@@ -4,6 +4,8 @@ package ui.runner.components.instruction_table;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
 import javafx.scene.control.TableView;
 import javafx.scene.control.cell.PropertyValueFactory;
@@ -11,7 +13,9 @@ import ui.net.ApiClient;
 import ui.net.ApiClient.ProgramInstruction;
 import ui.runner.SelectedProgram;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class InstructionTableController {
@@ -22,8 +26,12 @@ public class InstructionTableController {
     @FXML private TableColumn<ProgramInstruction, Integer> cyclesCol;
     @FXML private TableColumn<ProgramInstruction, String>  bsCol;
     @FXML private TableColumn<ProgramInstruction, String>  archCol;
+    @FXML private TableColumn<ProgramInstruction, ApiClient.LineProfile> heatCol;
 
     private final ObservableList<ProgramInstruction> items = FXCollections.observableArrayList();
+    // last profiled run, by line number (empty = no heat shown)
+    private final Map<Integer, ApiClient.LineProfile> profile = new HashMap<>();
+    private long hottest = 0;
     private static final AtomicBoolean AUTOLOAD_ONCE = new AtomicBoolean(true);
 
 
@@ -36,6 +44,23 @@ public class InstructionTableController {
         cyclesCol.setCellValueFactory(new PropertyValueFactory<>("cycles"));
         bsCol.setCellValueFactory(new PropertyValueFactory<>("bs"));
         archCol.setCellValueFactory(new PropertyValueFactory<>("level"));
+        heatCol.setCellValueFactory(c -> new SimpleObjectProperty<>(profile.get(c.getValue().getIndex())));
+        heatCol.setCellFactory(col -> new TableCell<>() {
+            @Override
+            protected void updateItem(ApiClient.LineProfile lp, boolean empty) {
+                super.updateItem(lp, empty);
+                if (empty || lp == null || lp.hits == 0) {
+                    setText(empty || lp == null ? null : "-");
+                    setStyle("");
+                    return;
+                }
+                long total = lp.cycles + lp.callCycles;
+                setText(lp.hits + "x / " + total + (lp.callCycles > 0 ? " (" + lp.callCycles + " in calls)" : ""));
+                // white to red by the share of the hottest line's cycles
+                int g = (int) Math.round(255 * (1 - (double) total / Math.max(1, hottest)));
+                setStyle("-fx-background-color: rgb(255," + g + "," + g + ");");
+            }
+        });
 
         table.setItems(items);
 
@@ -51,6 +76,7 @@ public class InstructionTableController {
     public void loadInstructions(String programName) {
         try {
             items.clear();
+            profile.clear();
             List<ProgramInstruction> list = ApiClient.get().programBody(programName);
             if (list != null) items.addAll(list);
         } catch (Exception e) {
@@ -61,6 +87,7 @@ public class InstructionTableController {
     public void loadInstructions(String programName, int degree) {
         try {
             items.clear();
+            profile.clear();
             List<ProgramInstruction> list = ApiClient.get().programBody(programName, Math.max(0, degree));
             if (list != null) items.addAll(list);
         } catch (Exception e) {
@@ -71,7 +98,21 @@ public class InstructionTableController {
     // New: UI-thread update helper, used by CenterLeftController after background fetch
     public void setInstructions(List<ProgramInstruction> list) {
         items.clear();
+        profile.clear();
         if (list != null) items.addAll(list);
     }
 
+    /** Heat of a profiled run of the shown program and degree; an empty list clears it. UI thread. */
+    public void setProfile(List<ApiClient.LineProfile> lines) {
+        profile.clear();
+        hottest = 0;
+        if (lines != null) {
+            for (ApiClient.LineProfile lp : lines) {
+                profile.put(lp.number, lp);
+                hottest = Math.max(hottest, lp.cycles + lp.callCycles);
+            }
+        }
+        table.refresh();
+    }
+
 }
@@ -2,6 +2,7 @@
 package system.api;
 
 import system.api.view.ProgramView;
+import system.core.exec.RunBudget;
 import system.core.exec.debugg.Debugger;
 import system.core.model.Program;
 
@@ -19,6 +20,14 @@ public interface EmulatorEngine {
 
     ProgramView getProgramView();
     RunResult run(int degree, List<Long> inputs);
+    /** Run with fuel: stops at the budget's cycles / deadline and returns a partial result. */
+    RunResult run(int degree, List<Long> inputs, RunBudget budget);
+    /** One program over many input vectors: expanded and compiled once, run in parallel, results in input order. */
+    List<RunResult> runBatch(int degree, List<List<Long>> inputs);
+    /** Same as run with a budget, on the interpreter, counting hits and cycles per line of the executed program. */
+    ProfiledRun profile(int degree, List<Long> inputs, RunBudget budget);
+    /** Same as profile, recording every step into a binary trace file instead (read it with TraceReader). */
+    RunResult trace(int degree, List<Long> inputs, RunBudget budget, Path traceFile);
     List<HistoryEntry> getRunHistory();
     ProgramView getExpandedProgramView(int degree);
     int getMaxDegree();
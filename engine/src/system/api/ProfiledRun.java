@@ -0,0 +1,6 @@
+package system.api;
+
+import system.api.view.ProfileView;
+
+/** A run and where it spent its cycles, line by line (see EmulatorEngine#profile). */
+public record ProfiledRun(RunResult result, ProfileView profile) {}
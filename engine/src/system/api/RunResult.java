@@ -3,7 +3,16 @@ package system.api;
 import system.api.view.ProgramView;
 import java.util.*;
 
-public record RunResult(long y, long cycles, ProgramView executedProgram, Map<String,Long> variables) {
+public record RunResult(long y, long cycles, ProgramView executedProgram, Map<String,Long> variables, Status status) {
+
+    /** COMPLETED: ran to the end. The other two are partial results of a budgeted run. */
+    public enum Status { COMPLETED, BUDGET_EXHAUSTED, DEADLINE_EXCEEDED }
+
+    public RunResult(long y, long cycles, ProgramView executedProgram, Map<String,Long> variables) {
+        this(y, cycles, executedProgram, variables, Status.COMPLETED);
+    }
+
+    public boolean isPartial() { return status != Status.COMPLETED; }
 
     /** Spec order: y, then x1..xn, then z1..zm  as Aviad wanted or god ? */
     public Map<String,Long> variablesOrdered() {
@@ -0,0 +1,8 @@
+package system.api.view;
+
+public record LineProfile(
+        int number,            // 1-based, same as CommandView.number
+        long hits,             // times the instruction ran
+        long cycles,           // cycles it charged itself
+        long callCycles        // cycles of the functions it called (counted in their own profiles)
+) {}
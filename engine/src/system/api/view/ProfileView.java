@@ -0,0 +1,12 @@
+package system.api.view;
+
+import java.util.List;
+
+public record ProfileView(
+        String name,                   // program or function name
+        long calls,                    // 1 for the program that was run
+        long memoHits,                 // calls answered by the function memo (none of their lines ran)
+        long cycles,                   // everything, calls included
+        List<LineProfile> lines,       // per instruction, joins with ProgramView.commands by number
+        List<ProfileView> functions    // every function called during the run (empty for a function)
+) {}
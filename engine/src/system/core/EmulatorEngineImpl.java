@@ -2,14 +2,19 @@ package system.core;
 
 import system.api.EmulatorEngine;
 import system.api.HistoryEntry;
+import system.api.ProfiledRun;
 import system.api.RunResult;
 import system.api.view.ProgramView;
 import system.api.view.ArchSummary;
 import system.api.view.IngestReport;
 import system.core.exec.*;
 import system.core.exec.debugg.Debugger;
-import system.core.expand.Expander;
+import system.core.exec.trace.TraceRecorder;
+import system.core.expand.ExpandedProgramResult;
+import system.core.expand.ExpansionCost;
+import system.core.expand.Origin;
 import system.core.expand.ExpanderImpl;
+import system.core.expand.LazyExpansion;
 import system.core.io.ProgramLoaderJaxb;
 import system.core.io.ProgramMapper;
 import system.core.io.ArchTierMap;
@@ -17,24 +22,36 @@ import system.core.model.Instruction;
 import system.core.model.Program;
 
 
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.TreeMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.IntFunction;
 
 public final class EmulatorEngineImpl implements EmulatorEngine {
     private int version = 0;
     private Program current = null;
     private final List<HistoryEntry> history = new ArrayList<>();
     private Map<String,Program> functions = Map.of();
-    private final Expander expander = new ExpanderImpl();
+    private final ExpanderImpl expander = new ExpanderImpl();
 
+    // expansions of the current version, degree d at index d (each one built from the one before)
+    private final List<ExpandedProgramResult> expansions = new ArrayList<>();
+    private int maxDegree = -1;           // -1 = not known yet for this version
 
 
     @Override
@@ -46,6 +63,8 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
         this.current = outcome.program();
         this.functions = outcome.functions();
         this.version++;
+        ExecutionManager.shared().forget(this);
+        dropExpansions();
         this.history.clear(); // reset on new load
         return new LoadOutcome(true, List.of());
     }
@@ -63,23 +82,18 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
 
     @Override
     public RunResult run(int degree, List<Long> inputs) {
+        return run(degree, inputs, null);
+    }
+
+    @Override
+    public RunResult run(int degree, List<Long> inputs, RunBudget budget) {
         if (current == null) return null;
 
         return FunctionEnv.with(new FunctionEnv(functions), () -> {
-            int max = getMaxDegree();
-            int use = Math.max(0, Math.min(degree, max));
-
-            Program toRun;
-            ProgramView executedView;
-
-            if (use == 0) {
-                toRun = current;
-                executedView = ProgramMapper.toView(current);
-            } else {
-                var res = new ExpanderImpl().expandToDegreeWithOrigins(current, use);
-                toRun = res.program();
-                executedView = ProgramMapper.toView(res.program(), res.origins());
-            }
+            Prepared prep = prepare(degree);
+            int use = prep.degree();
+            Program toRun = prep.program();
+            ProgramView executedView = prep.view();
             System.out.println("Starting program run. Degree: " + use);
             System.out.println("Instructions to execute: " + toRun.instructions().size());
 
@@ -89,29 +103,148 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
                 System.out.println("Instruction " + (i + 1) + ": " + ins.asText());
             }
 
-            var exec = new Executor();
-            var st = exec.run(toRun, inputs);
+            var st = ExecutionManager.shared().run(runKey(use), toRun, inputs, budget);
             System.out.println("Run finished. Total cycles: " + st.cycles());
             System.out.println("Final y value: " + st.y());
 
 
-            var vars = new LinkedHashMap<String, Long>();
-            vars.put("y", st.y());
-            var xs = new TreeMap<>(st.snapshotX());
-            var zs = new TreeMap<>(st.snapshotZ());
-            xs.forEach((i, v) -> vars.put("x" + i, v));
-            zs.forEach((i, v) -> vars.put("z" + i, v));
+            RunResult rr = toResult(st, executedView);
+            addHistory(use, inputs, rr);
+            return rr;
+        });
+    }
+
+    @Override
+    public ProfiledRun profile(int degree, List<Long> inputs, RunBudget budget) {
+        if (current == null) return null;
+
+        return FunctionEnv.with(new FunctionEnv(functions), () -> {
+            Prepared prep = prepare(degree);
+            RunProfile profile = new RunProfile(prep.program());
+            var st = ExecutionManager.shared().runProfiled(prep.program(), inputs, budget, profile);
+            RunResult rr = toResult(st, prep.view());
+            addHistory(prep.degree(), inputs, rr);
+            return new ProfiledRun(rr, profile.view());
+        });
+    }
+
+    @Override
+    public RunResult trace(int degree, List<Long> inputs, RunBudget budget, Path traceFile) {
+        if (current == null) return null;
+
+        return FunctionEnv.with(new FunctionEnv(functions), () -> {
+            Prepared prep = prepare(degree);
+            MachineState st;
+            try (TraceRecorder trace = TraceRecorder.create(traceFile, inputs)) {
+                st = ExecutionManager.shared().runTraced(prep.program(), inputs, budget, trace);
+            } catch (IOException e) {
+                throw new UncheckedIOException("trace " + traceFile + ": " + e.getMessage(), e);
+            }
+            RunResult rr = toResult(st, prep.view());
+            addHistory(prep.degree(), inputs, rr);
+            return rr;
+        });
+    }
 
-            history.add(new HistoryEntry(
-                    history.size() + 1, use,
-                    (inputs == null) ? List.of() : List.copyOf(inputs),
-                    st.y(), st.cycles(),vars
-            ));
+    /**
+     * Same y, cycles and variables as run(degree, ...) gives, from the degree-0 program charged as
+     * its expansion would run (see {@link DegreeExecutor}): nothing is expanded, so it also works at
+     * degrees whose expansion is too big to build. The view is the degree-0 program's, and the
+     * expansion's scratch z's are not among the variables.
+     */
+    public RunResult runUnexpanded(int degree, List<Long> inputs, RunBudget budget) {
+        if (current == null) return null;
 
-            return new RunResult(st.y(), st.cycles(), executedView, vars);
+        return FunctionEnv.with(new FunctionEnv(functions), () -> {
+            int use = clampDegree(degree);
+            MachineState st = new DegreeExecutor().run(current, use, inputs, budget);
+            RunResult rr = toResult(st, ProgramMapper.toView(current));
+            addHistory(use, inputs, rr);
+            return rr;
         });
     }
 
+    @Override
+    public List<RunResult> runBatch(int degree, List<List<Long>> inputs) {
+        return runBatch(degree, inputs, i -> null, (i, rr) -> {});
+    }
+
+    /**
+     * Batch run: the program is expanded and compiled once, then every input vector runs as its own
+     * task on the common fork-join pool (runs share nothing but the read-only program).
+     *
+     * If a run fails the runs that have not started yet are dropped, and the failure is thrown once
+     * the ones under way are done: after this returns or throws, budgetFor and onResult are not called again.
+     *
+     * @param budgetFor asked for input i right before it starts (null = no limit)
+     * @param onResult  called from the pool threads as soon as a run is done, in completion order
+     * @return the results in input order (also added to the history in that order)
+     */
+    public List<RunResult> runBatch(int degree, List<List<Long>> inputs,
+                                    IntFunction<RunBudget> budgetFor,
+                                    BiConsumer<Integer, RunResult> onResult) {
+        if (current == null) return null;
+        FunctionEnv env = new FunctionEnv(functions);
+        Prepared prep = FunctionEnv.with(env, () -> prepare(degree));
+        ExecutionManager.Key key = runKey(prep.degree());
+        ExecutionManager.shared().compileNow(key, prep.program());
+
+        AtomicBoolean failed = new AtomicBoolean();
+        List<CompletableFuture<RunResult>> runs = new ArrayList<>(inputs.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            final int idx = i;
+            final List<Long> in = inputs.get(i);
+            runs.add(CompletableFuture.supplyAsync(() -> failed.get() ? null : FunctionEnv.with(env, () -> {
+                var st = ExecutionManager.shared().run(key, prep.program(), in, budgetFor.apply(idx));
+                RunResult rr = toResult(st, prep.view());
+                onResult.accept(idx, rr);
+                return rr;
+            }), ForkJoinPool.commonPool()).whenComplete((rr, e) -> { if (e != null) failed.set(true); }));
+        }
+
+        // every run is waited for, even after one failed: none is still going when this returns
+        List<RunResult> out = new ArrayList<>(runs.size());
+        RuntimeException failure = null;
+        for (var f : runs) {
+            try {
+                out.add(f.join());
+            } catch (CompletionException e) {
+                if (failure == null) failure = (e.getCause() instanceof RuntimeException re) ? re : e;
+            }
+        }
+        if (failure != null) throw failure;
+        for (int i = 0; i < out.size(); i++) addHistory(prep.degree(), inputs.get(i), out.get(i));
+        return out;
+    }
+
+    /** The program to run at a degree (clamped to the max degree) and its view. Call inside the FunctionEnv. */
+    private record Prepared(int degree, Program program, ProgramView view) {}
+
+    private Prepared prepare(int degree) {
+        int use = clampDegree(degree);
+        if (use == 0) return new Prepared(0, current, ProgramMapper.toView(current));
+        var res = expansion(use);
+        return new Prepared(use, res.program(), ProgramMapper.toView(res.program(), res.origins()));
+    }
+
+    private static RunResult toResult(MachineState st, ProgramView executedView) {
+        var vars = new LinkedHashMap<String, Long>();
+        vars.put("y", st.y());
+        var xs = new TreeMap<>(st.snapshotX());
+        var zs = new TreeMap<>(st.snapshotZ());
+        xs.forEach((i, v) -> vars.put("x" + i, v));
+        zs.forEach((i, v) -> vars.put("z" + i, v));
+        return new RunResult(st.y(), st.cycles(), executedView, vars, statusOf(st));
+    }
+
+    private void addHistory(int degree, List<Long> inputs, RunResult rr) {
+        history.add(new HistoryEntry(
+                history.size() + 1, degree,
+                (inputs == null) ? List.of() : List.copyOf(inputs),
+                rr.y(), rr.cycles(), rr.variables()
+        ));
+    }
+
     @Override
     public List<HistoryEntry> getRunHistory() {
         return List.copyOf(history);
@@ -121,27 +254,64 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
     public int getMaxDegree() {
         if (current == null) return 0;
         return FunctionEnv.with(new FunctionEnv(functions), () -> {
-            final int CAP = 1000; // safety cap
-            int d = 0;
-            Program cur = current;
-            while (d < CAP && containsSynthetic(cur)) {
-                cur = expander.expandToDegree(cur, 1); // may expand QUOTE
-                d++;
+            synchronized (expansions) {
+                if (maxDegree < 0) maxDegree = expander.maxDegree(current);
+                return maxDegree;
             }
-            return d;
         });
     }
 
+    /**
+     * How big the current program is at a degree (clamped to the max degree), worked out without
+     * expanding it: see {@link ExpansionCost}.
+     */
+    public ExpansionCost.Estimate estimateExpansion(int degree) {
+        if (current == null) return null;
+        return FunctionEnv.with(new FunctionEnv(functions), () -> new ExpansionCost().estimate(current, clampDegree(degree)));
+    }
+
+    /** The current program expanded to a degree (at most the max degree). Call inside the FunctionEnv. */
+    private ExpandedProgramResult expansion(int degree) {
+        synchronized (expansions) {
+            int d = levelsBuilt() - 1;
+            while (d < degree) {
+                expansions.add(expander.expandNext(expansions.get(d)));
+                d++;
+            }
+            return expansions.get(degree);
+        }
+    }
+
+    /** Number of cached degrees, starting the cache with degree 0 if it is empty. */
+    private int levelsBuilt() {
+        if (expansions.isEmpty()) {
+            List<Origin> none = Collections.nCopies(current.instructions().size(), null);
+            expansions.add(new ExpandedProgramResult(current, none));
+        }
+        return expansions.size();
+    }
+
+    private int clampDegree(int degree) {
+        return Math.max(0, Math.min(degree, getMaxDegree()));
+    }
+
+    /** The program or its functions changed: every cached expansion is stale. */
+    private void dropExpansions() {
+        synchronized (expansions) {
+            expansions.clear();
+            maxDegree = -1;
+        }
+    }
+
     @Override
     public ProgramView getExpandedProgramView(int degree) {
         if (current == null) return null;
 
         return FunctionEnv.with(new FunctionEnv(functions), () -> {
-            int max = getMaxDegree();
-            int use = Math.max(0, Math.min(degree, max));
+            int use = clampDegree(degree);
             if (use == 0) return ProgramMapper.toView(current);
 
-            var res = new ExpanderImpl().expandToDegreeWithOrigins(current, use);
+            var res = expansion(use);
             return ProgramMapper.toView(res.program(), res.origins());
         });
     }
@@ -169,6 +339,9 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
                 var snap = (EngineSnapshot) in.readObject();
                 this.version = snap.version();
                 this.current = snap.current();
+                // the restored version may be one this engine already ran a different program as
+                ExecutionManager.shared().forget(this);
+                dropExpansions();
                 this.history.clear();
                 this.history.addAll(snap.history());
             }
@@ -186,6 +359,8 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
         this.current = outcome.program();
         this.functions = outcome.functions();
         this.version++;
+        ExecutionManager.shared().forget(this);
+        dropExpansions();
         this.history.clear();
         return new LoadOutcome(true, List.of());
     }
@@ -199,15 +374,23 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
     public void setFunctions(Map<String,Program> fns) {
         this.functions = Map.copyOf(fns);
         this.version++;
+        ExecutionManager.shared().forget(this);
+        dropExpansions();
     }
 
 
     // ---- helper ----
-    private static boolean containsSynthetic(Program p) {
-        for (Instruction ins : p.instructions()) {
-            if (!ins.isBasic()) return true;
-        }
-        return false;
+    /** RunResult status of a finished or budget stopped run. */
+    public static RunResult.Status statusOf(MachineState st) {
+        if (st.exhaustedBy() == null) return RunResult.Status.COMPLETED;
+        return st.exhaustedBy() == RunBudget.Reason.TIME
+                ? RunResult.Status.DEADLINE_EXCEEDED
+                : RunResult.Status.BUDGET_EXHAUSTED;
+    }
+
+    /** Key of the current program version at a degree, for the tiered {@link ExecutionManager}. */
+    private ExecutionManager.Key runKey(int degree) {
+        return new ExecutionManager.Key(this, current.name(), version, degree);
     }
 
     // Public API: compute cumulative coverage for the requested degree
@@ -215,11 +398,7 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
         if (current == null) return new ArchSummary(0, 0, 0, 0, 0);
 
         return FunctionEnv.with(new FunctionEnv(functions), () -> {
-            int max = getMaxDegree();
-            int use = Math.max(0, Math.min(degree, max));
-            final system.core.model.Program p = (use == 0)
-                    ? current
-                    : new ExpanderImpl().expandToDegree(current, use);
+            final system.core.model.Program p = expansion(clampDegree(degree)).program();
 
             int total = p.instructions().size();
             int cI = 0, cII = 0, cIII = 0, cIV = 0;
@@ -238,8 +417,8 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
     /**
      * Parse + wire functions + validate resolvability + compute degrees,
      * and return a summary report. No duplication of expansion logic:
-     * uses getMaxDegree() for main and per-function by temporarily
-     * switching 'current'.
+     * uses getMaxDegree() for main and ExpanderImpl.maxDegree for
+     * every function body (computed, not expanded).
      */
     public IngestReport ingestFromXml(String xml, Map<String, Program> globalFunctions) {
         // 1) Parse the XML into current + provided map
@@ -259,22 +438,19 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
         int mainInstr0 = current.instructions().size();
         int mainMaxDeg = getMaxDegree();
 
-        // 4) Compute per-function stats by temporarily swapping 'current'
+        // 4) Compute per-function stats
         var fnInstr0 = new LinkedHashMap<String, Integer>();
         var fnMaxDeg = new LinkedHashMap<String, Integer>();
 
-        Program prev = this.current;
-        try {
+        FunctionEnv.with(new FunctionEnv(functions), () -> {   // one env: callee depths are shared
             for (var e : provided.entrySet()) {
                 String fn = e.getKey();
                 Program body = e.getValue();
-                this.current = body;                 // reuse same getMaxDegree() logic
                 fnInstr0.put(fn, body.instructions().size());
-                fnMaxDeg.put(fn, getMaxDegree());
+                fnMaxDeg.put(fn, expander.maxDegree(body));
             }
-        } finally {
-            this.current = prev;
-        }
+            return null;
+        });
 
         return new IngestReport(
                 current.name(),
@@ -300,15 +476,21 @@ public final class EmulatorEngineImpl implements EmulatorEngine {
     public Debugger startDebug(int degree, List<Long> inputs) {
         if (current == null) return null;
         return FunctionEnv.with(new FunctionEnv(functions), () -> {
-            int max = getMaxDegree();             // now safe – already inside FunctionEnv
-            int use = Math.max(0, Math.min(degree, max));
+            int use = clampDegree(degree);        // now safe – already inside FunctionEnv
+            final Program programToDebug = expansion(use).program(); // may expand QUOTE
 
-            final Program programToDebug = (use == 0)
-                    ? current
-                    : new ExpanderImpl().expandToDegree(current, use); // may expand QUOTE
+            Debugger dbg = new Debugger();
+            dbg.init(programToDebug, inputs, functions, runKey(use));
+            return dbg;
+        });
+    }
 
+    /** Like startDebug, but the expansion is built as the session steps into it, never as a whole. */
+    public Debugger startLazyDebug(int degree, List<Long> inputs) {
+        if (current == null) return null;
+        return FunctionEnv.with(new FunctionEnv(functions), () -> {
             Debugger dbg = new Debugger();
-            dbg.init(programToDebug, inputs, functions);
+            dbg.init(LazyExpansion.of(current, clampDegree(degree), false), inputs, functions);
             return dbg;
         });
     }
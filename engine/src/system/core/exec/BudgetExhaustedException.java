@@ -0,0 +1,27 @@
+package system.core.exec;
+
+/**
+ * Thrown out of the interpreters when a {@link RunBudget} runs out. Every program level it passes
+ * (a nested call inside QUOTE inside the main program ...) replaces the state with its own, so the
+ * top level sees the state of the program it started, stopped before the instruction that did not fit.
+ */
+public final class BudgetExhaustedException extends RuntimeException {
+    private final RunBudget.Reason reason;
+    private final transient MachineState state;
+
+    public BudgetExhaustedException(RunBudget.Reason reason, MachineState state) {
+        super(reason == RunBudget.Reason.CYCLES ? "cycle budget exhausted" : "run deadline passed", null, false, false);
+        this.reason = reason;
+        this.state = state;
+    }
+
+    public RunBudget.Reason reason() { return reason; }
+
+    /** State of the program that was running when the budget ran out (may be null for a bare check). */
+    public MachineState state() { return state; }
+
+    /** Same exhaustion, seen from the caller's program. */
+    public BudgetExhaustedException at(MachineState caller) {
+        return new BudgetExhaustedException(reason, caller);
+    }
+}
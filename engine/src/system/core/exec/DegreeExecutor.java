@@ -0,0 +1,390 @@
+package system.core.exec;
+
+import system.core.model.Instruction;
+import system.core.model.Labels;
+import system.core.model.Program;
+import system.core.model.Var;
+import system.core.model.synthetic.*;
+import system.core.model.synthetic.advanced.JumpEqualFunction;
+import system.core.model.synthetic.advanced.Quote;
+import system.core.model.synthetic.advanced.helpers.CallSyntax;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Runs a program the way its expansion to a degree would run, without expanding it: the degree-0
+ * lines execute as themselves and every synthetic one is charged what the lines it expands to
+ * would cost, worked out from the values it reads (a zeroing loop runs max(v, 1) times, ASSIGNMENT
+ * moves v' twice, JUMP_EQUAL_CONSTANT counts down to k, ...). y, the cycles and the program's own
+ * variables (values and which ones were ever written) end as in the expanded run.
+ *
+ * An instruction at degree e is one expansion round ahead of what it expands to, so the cost of
+ * every part is taken at e - 1, down to 0 where a line costs its own cycles().
+ *
+ * The expansion keeps state a degree-0 run does not have: the working z's of JUMP_EQUAL_VARIABLE /
+ * JUMP_EQUAL_CONSTANT and the whole inlined body of a QUOTE are never cleared, so a line that runs
+ * again starts from what it left (which changes its zeroing loops and even the callee's result).
+ * That is kept per line (a "site"), a QUOTE's body running as a nested frame on its own registers.
+ * These scratch z's are not in the result: only the program's own variables are.
+ *
+ * Must be called inside the caller's FunctionEnv, like {@link Executor#run}; honours
+ * {@link RunBudget#current()} the same way.
+ */
+public final class DegreeExecutor {
+    // cycles of the basic lines the expansions emit (see the expandTo() of each synthetic)
+    private static final int INC = 1, DEC = 1, IF = 2, NOP = 0;
+
+    private final Executor lines = new Executor();
+    private final Map<Program, LabelIndex> bodies = new IdentityHashMap<>();
+    private MachineState top;
+    private RunBudget budget;
+    private int clock;
+
+    /** One program level: the degree-0 program, or the body of a QUOTE inlined at some site. */
+    private record Frame(List<Instruction> code, MachineState st, JumpResolver jr, Object[] sites) {}
+
+    /** What a QUOTE site keeps between runs: the registers of its body and the sites in it. */
+    private static final class Call {
+        MachineState regs;
+        Object[] sites;
+        Call[] args;          // nested calls among the arguments
+    }
+
+    /** A JUMP_EQUAL_FUNCTION site: its QUOTE, the z the result goes to and its JUMP_EQUAL_VARIABLE's z's. */
+    private static final class FunctionJump {
+        final Call call = new Call();
+        final MachineState result = MachineState.init(List.of());
+        final long[] compare = new long[2];
+    }
+
+    /**
+     * Same as {@link #run(Program, int, List)} with at most budget's cycles and time (null = none):
+     * a run that is cut short returns the state it reached, with {@link MachineState#exhaustedBy()} set.
+     */
+    public MachineState run(Program p, int degree, List<Long> inputs, RunBudget budget) {
+        try {
+            return (budget == null) ? run(p, degree, inputs) : RunBudget.with(budget, () -> run(p, degree, inputs));
+        } catch (BudgetExhaustedException e) {
+            if (e.state() == null) throw e;
+            e.state().exhaust(e.reason());
+            return e.state();
+        }
+    }
+
+    public MachineState run(Program p, int degree, List<Long> inputs) {
+        top = MachineState.init(inputs, SlotMap.of(p));
+        budget = RunBudget.current();
+        clock = 0;
+        List<Instruction> code = p.instructions();
+        run(new Frame(code, top, LabelIndex.build(p), new Object[code.size()]), degree);
+        return top;
+    }
+
+    private void run(Frame f, int degree) {
+        MachineState st = f.st();
+        int n = f.code().size();
+        while (!st.isHalted() && !top.isHalted()) {
+            int pc = st.getPc();
+            if (pc < 0 || pc >= n) return;
+            step(f, pc, f.code().get(pc), degree);
+        }
+        if (st.isHalted()) top.halt();     // an inlined body only halts on a label that is nowhere
+    }
+
+    private void step(Frame f, int pc, Instruction ins, int e) {
+        if (e <= 0 || ins.isBasic()) {
+            stepAsIs(f, ins);
+            return;
+        }
+        MachineState st = f.st();
+        switch (ins) {
+            case ZeroVariable z -> {
+                zero(e, st, z.v());
+                st.advance();
+            }
+            case GotoLabel g -> {
+                charge(gotoCost(e));
+                jump(f, g.targetId());
+            }
+            case Assignment a -> {
+                assign(e, st, a.v(), st.get(a.src()), a.v().equals(a.src()));
+                st.advance();
+            }
+            case ConstantAssignment c -> {
+                long old = st.get(c.v());
+                charge(add(zeroCost(e - 1, old), mul(c.k(), INC)));
+                zeroed(e - 1, st, c.v(), old);
+                if (c.k() > 0) st.set(c.v(), c.k());
+                st.advance();
+            }
+            case JumpZero j -> {
+                boolean zero = st.get(j.v()) == 0;
+                charge(jumpZeroCost(e, zero));
+                if (zero) jump(f, j.targetId());
+                else st.advance();
+            }
+            case JumpEqualConstant j -> {
+                long[] z = (long[]) site(f, pc, () -> new long[1]);
+                if (equalsConstant(e, st.get(j.v()), j.k(), z)) jump(f, j.targetId());
+                else st.advance();
+            }
+            case JumpEqualVariable j -> {
+                long[] z = (long[]) site(f, pc, () -> new long[2]);
+                if (equalsVariable(e, st.get(j.a()), st.get(j.b()), z)) jump(f, j.targetId());
+                else st.advance();
+            }
+            case Quote q -> {
+                Call c = (Call) site(f, pc, Call::new);
+                quote(e, q.functionName(), q.arguments(), st, st, q.target(), c);
+                st.advance();
+            }
+            case JumpEqualFunction j -> {
+                // a QUOTE into a fresh z, then IF v = z
+                FunctionJump s = (FunctionJump) site(f, pc, FunctionJump::new);
+                Var z = Var.z(1);
+                quote(e - 1, j.functionName(), j.arguments(), st, s.result, z, s.call);
+                if (top.isHalted()) return;
+                if (equalsVariable(e - 1, st.get(j.v()), s.result.get(z), s.compare)) jump(f, j.targetId());
+                else st.advance();
+            }
+            default -> throw new IllegalStateException("No degree accounting for " + ins.getClass().getName());
+        }
+    }
+
+    /** A line at degree 0 (or a basic one): the interpreter runs it, on the frame's registers. */
+    private void stepAsIs(Frame f, Instruction ins) {
+        check(ins.cycles());
+        MachineState st = f.st();
+        if (st != top) st.setCycles(top.cycles());    // nested calls are budgeted from the run's cycles
+        try {
+            lines.step(ins, st, f.jr());
+        } catch (BudgetExhaustedException e) {
+            throw e.at(top);
+        }
+        if (st != top) top.setCycles(st.cycles());
+    }
+
+    private void jump(Frame f, int targetId) {
+        int to = f.jr().resolve(targetId);
+        if (to == JumpResolver.NOT_FOUND || to == JumpResolver.EXIT) f.st().halt();
+        else f.st().jumpTo(to);
+    }
+
+    private static Object site(Frame f, int pc, Supplier<Object> make) {
+        Object s = f.sites()[pc];
+        if (s == null) f.sites()[pc] = s = make.get();
+        return s;
+    }
+
+    // ---- costs of what a synthetic expands to, at degree e (<= 0: the line as it is)
+
+    private static long gotoCost(int e) {
+        return e <= 0 ? GotoLabel.CYCLES : INC + IF;                 // tmp <- tmp + 1; IF tmp != 0
+    }
+
+    private static long zeroCost(int e, long v) {
+        return e <= 0 ? ZeroVariable.CYCLES : mul(Math.max(v, 1), DEC + IF);
+    }
+
+    private static long jumpZeroCost(int e, boolean zero) {
+        if (e <= 0) return JumpZero.CYCLES;
+        return IF + (zero ? gotoCost(e - 1) : NOP);                 // IF v != 0 GOTO skip; GOTO L; skip: NOP
+    }
+
+    /** V <- V' with V = a, V' = b: zero V, move V' to a z and back, or GOTO past it all if V' is 0. */
+    private static long assignCost(int e, long a, long b, boolean same) {
+        if (e <= 0) return Assignment.CYCLES;
+        long moved = same ? 0 : b;                                  // V <- V zeroes V' first
+        long c = zeroCost(e - 1, a) + IF + NOP;
+        if (moved == 0) return add(c, gotoCost(e - 1));
+        return add(c, mul(moved, (DEC + INC + IF) + (DEC + INC + INC + IF)));
+    }
+
+    // ---- effects (charged first, so a budget that runs out stops before the line)
+
+    private void zero(int e, MachineState st, Var v) {
+        long old = st.get(v);
+        charge(zeroCost(e, old));
+        zeroed(e, st, v, old);
+    }
+
+    /** What zeroing v (which was old) writes: DEC only writes a variable that is not 0 yet. */
+    private static void zeroed(int e, MachineState st, Var v, long old) {
+        if (e <= 0 || old > 0) st.set(v, 0);
+    }
+
+    private void assign(int e, MachineState st, Var v, long b, boolean same) {
+        long old = st.get(v);
+        charge(assignCost(e, old, b, same));
+        if (e <= 0) {
+            st.set(v, b);
+            return;
+        }
+        zeroed(e - 1, st, v, old);
+        if (!same && b > 0) st.set(v, b);
+    }
+
+    /**
+     * IF v = k, v being a now: z1 <- v, then k times "IF z1 = 0 GOTO no; z1 <- z1 - 1", then
+     * IF z1 != 0 GOTO no; GOTO L. z[0] is what z1 was left at.
+     */
+    private boolean equalsConstant(int e, long a, long k, long[] z) {
+        if (e <= 0) {
+            charge(JumpEqualConstant.CYCLES);
+            return a == k;
+        }
+        long nonZero = jumpZeroCost(e - 1, false) + DEC;
+        long c = assignCost(e - 1, z[0], a, false);
+        boolean equal = false;
+        if (a < k) {
+            c = add(c, add(mul(a, nonZero), jumpZeroCost(e - 1, true) + NOP));
+            z[0] = 0;
+        } else {
+            c = add(c, add(mul(k, nonZero), IF));
+            if (a > k) c = add(c, NOP);
+            else c = add(c, gotoCost(e - 1));
+            z[0] = a - k;
+            equal = a == k;
+        }
+        charge(c);
+        return equal;
+    }
+
+    /**
+     * IF a = b: z1 <- a, z2 <- b, count both down together until one is 0. z[0], z[1] are what
+     * z1, z2 were left at.
+     */
+    private boolean equalsVariable(int e, long a, long b, long[] z) {
+        if (e <= 0) {
+            charge(JumpEqualVariable.CYCLES);
+            return a == b;
+        }
+        long both = Math.min(a, b);
+        long round = 2 * jumpZeroCost(e - 1, false) + 2 * DEC + gotoCost(e - 1);
+        long c = add(assignCost(e - 1, z[0], a, false), assignCost(e - 1, z[1], b, false));
+        c = add(c, mul(both, round));
+        if (a > b) c = add(c, jumpZeroCost(e - 1, false) + jumpZeroCost(e - 1, true) + NOP);
+        else if (a < b) c = add(c, jumpZeroCost(e - 1, true) + jumpZeroCost(e - 1, false) + NOP);
+        else c = add(c, 2 * jumpZeroCost(e - 1, true));
+        z[0] = a - both;
+        z[1] = b - both;
+        charge(c);
+        return a == b;
+    }
+
+    /**
+     * target (in to) <- fn(args), args read in from. At degree e >= 1 this is the inlined call:
+     * NOP, the arguments into the body's x's, the body on the site's registers (EXIT and the end
+     * lead to the closing ASSIGNMENT), target <- its y. At 0 it is the call itself, as QUOTE runs it.
+     */
+    private void quote(int e, String fn, List<CallSyntax.Arg> args, MachineState from,
+                       MachineState to, Var target, Call site) {
+        if (e <= 0) {
+            to.set(target, callNow(fn, args, from));
+            return;
+        }
+        Program body = function(fn);
+        if (site.regs == null) {
+            site.regs = MachineState.init(List.of(), SlotMap.of(body));
+            site.sites = new Object[body.instructions().size()];
+            site.args = new Call[args.size()];
+        }
+        MachineState regs = site.regs;
+        charge(NOP);
+        for (int i = 0; i < args.size() && !top.isHalted(); i++) {
+            Var x = Var.x(i + 1);
+            if (args.get(i) instanceof CallSyntax.Call c) {
+                if (site.args[i] == null) site.args[i] = new Call();
+                quote(e - 1, c.name(), c.args(), from, regs, x, site.args[i]);
+            } else {
+                assign(e - 1, regs, x, from.get(((CallSyntax.VarRef) args.get(i)).v()), false);
+            }
+        }
+        if (top.isHalted()) return;
+
+        regs.setPc(0);
+        run(new Frame(body.instructions(), regs, inlined(body), site.sites), e - 1);
+        if (top.isHalted()) return;
+        assign(e - 1, to, target, regs.get(Var.y()), false);
+    }
+
+    /** Labels of an inlined body: EXIT goes past its end, to the closing ASSIGNMENT. */
+    private JumpResolver inlined(Program body) {
+        LabelIndex labels = bodies.computeIfAbsent(body, LabelIndex::build);
+        int end = body.instructions().size();
+        return new JumpResolver() {
+            @Override public int resolve(String label) { return resolve(Labels.id(label)); }
+            @Override public int resolve(int labelId) {
+                int to = labels.resolve(labelId);
+                return to == EXIT ? end : to;
+            }
+        };
+    }
+
+    private static Program function(String name) {
+        Program body = FunctionEnv.current().get(name);
+        if (body == null) throw new IllegalStateException("Function '" + name + "' not found");
+        return body;
+    }
+
+    // ---- degree 0 calls: what Quote#executeSelf charges and gives
+
+    private long callNow(String fn, List<CallSyntax.Arg> args, MachineState from) {
+        List<Long> xs = new ArrayList<>(args.size());
+        for (CallSyntax.Arg a : args) xs.add(argNow(a, from));
+        FunctionMemo.Result r = memo(fn, xs, Quote.CYCLES);
+        charge(Quote.CYCLES);
+        charge(Math.min(Integer.MAX_VALUE, r.cycles()));
+        return r.y();
+    }
+
+    private long argNow(CallSyntax.Arg a, MachineState from) {
+        if (a instanceof CallSyntax.VarRef vr) return from.get(vr.v());
+        CallSyntax.Call c = (CallSyntax.Call) a;
+        List<Long> xs = new ArrayList<>(c.args().size());
+        for (CallSyntax.Arg sub : c.args()) xs.add(argNow(sub, from));
+        FunctionMemo.Result r = memo(c.name(), xs, Quote.CYCLES);
+        charge(Math.min(Integer.MAX_VALUE, r.cycles()));
+        return r.y();
+    }
+
+    private FunctionMemo.Result memo(String fn, List<Long> xs, long pending) {
+        try {
+            return FunctionMemo.shared().call(FunctionEnv.current(), function(fn), xs, top.cycles() + pending);
+        } catch (BudgetExhaustedException e) {
+            throw e.at(top);
+        }
+    }
+
+    // ---- fuel
+
+    /** Throws if c more cycles do not fit the budget; looks at the clock now and then. */
+    private void check(long c) {
+        if (budget == null) return;
+        if (budget.exceeds(add(top.cycles(), c))) throw new BudgetExhaustedException(RunBudget.Reason.CYCLES, top);
+        if (++clock == RunBudget.CLOCK_EVERY) {
+            clock = 0;
+            if (budget.pastDeadline()) throw new BudgetExhaustedException(RunBudget.Reason.TIME, top);
+        }
+    }
+
+    private void charge(long c) {
+        check(c);
+        top.setCycles(add(top.cycles(), c));
+    }
+
+    // counts saturate instead of wrapping: a loop that long never ends within a budget anyway
+    private static long add(long a, long b) {
+        long r = a + b;
+        return r < 0 ? Long.MAX_VALUE : r;
+    }
+
+    private static long mul(long a, long b) {
+        try { return Math.multiplyExact(a, b); }
+        catch (ArithmeticException e) { return Long.MAX_VALUE; }
+    }
+}
@@ -0,0 +1,260 @@
+package system.core.exec;
+
+import system.core.exec.compiled.CompiledExecutor;
+import system.core.exec.compiled.CompiledProgram;
+import system.core.exec.compiled.JitCompiler;
+import system.core.exec.compiled.JitProgram;
+import system.core.exec.compiled.ProgramCompiler;
+import system.core.exec.trace.TraceRecorder;
+import system.core.model.Program;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Tiered execution: every program version starts on the plain {@link Executor}, the manager counts
+ * its runs and executed cycles and, once it is hot, compiles it in the background:
+ *
+ *   INTERPRETER  ->  COMPILED (pre-resolved array interpreter + loop acceleration)  ->  JIT (hidden class)
+ *
+ * Callers just call {@link #run}; the next run after a promotion finished picks up the faster tier.
+ * All tiers give the same MachineState (values, written variables, cycles, pc), so nobody can tell
+ * which one ran except through {@link #stats()}.
+ *
+ * A program version is identified by a {@link Key} (who owns it, name, version, degree) and not by the
+ * Program object, since every run expands a fresh copy of the same program.
+ */
+public final class ExecutionManager {
+
+    public enum Tier { INTERPRETER, COMPILED, JIT }
+
+    /** Promote when runs OR executed cycles reach the threshold of the next tier. */
+    public record Thresholds(long compileRuns, long compileCycles, long jitRuns, long jitCycles) {
+        public static final Thresholds DEFAULT = new Thresholds(2, 10_000, 10, 1_000_000);
+    }
+
+    /** Identity of one program version: owner is compared by equals (an engine instance uses identity). */
+    public record Key(Object owner, String program, int version, int degree) {}
+
+    public record Stats(Thresholds thresholds, Map<Tier, Long> hits, int programs, long promotions) {}
+
+    private static final ExecutionManager SHARED = new ExecutionManager(Thresholds.DEFAULT);
+    private static final int MAX_PROFILES = 256;
+    // compiled forms take a few ints per line: longer programs (big constants kept as repeat blocks) stay interpreted
+    private static final int MAX_COMPILED_LINES = 1 << 22;
+
+    /** The manager used by the engine, the servlets and the debugger. */
+    public static ExecutionManager shared() { return SHARED; }
+
+    private volatile Thresholds thresholds;
+    private final Map<Tier, LongAdder> hits = new EnumMap<>(Tier.class);
+    private final AtomicLong promotions = new AtomicLong();
+    private final CompiledExecutor compiledExecutor = new CompiledExecutor();
+
+    // least recently used first, so old versions fall out on their own
+    private final Map<Key, Profile> profiles = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override protected boolean removeEldestEntry(Map.Entry<Key, Profile> e) { return size() > MAX_PROFILES; }
+    };
+
+    private final ExecutorService compiler = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "s-emulator-tier-compiler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ExecutionManager(Thresholds thresholds) {
+        this.thresholds = Objects.requireNonNull(thresholds, "thresholds");
+        for (Tier t : Tier.values()) hits.put(t, new LongAdder());
+    }
+
+    public Thresholds thresholds() { return thresholds; }
+
+    public void setThresholds(Thresholds t) { this.thresholds = Objects.requireNonNull(t, "thresholds"); }
+
+    /** Number of runs served by a tier since start up. */
+    public long hits(Tier t) { return hits.get(t).sum(); }
+
+    public Stats stats() {
+        Map<Tier, Long> h = new EnumMap<>(Tier.class);
+        for (Tier t : Tier.values()) h.put(t, hits(t));
+        int n;
+        synchronized (profiles) { n = profiles.size(); }
+        return new Stats(thresholds, h, n, promotions.get());
+    }
+
+    /** Current tier of a program version (INTERPRETER if never seen). */
+    public Tier tierOf(Key key) {
+        Profile pr;
+        synchronized (profiles) { pr = profiles.get(key); }
+        return pr == null ? Tier.INTERPRETER : pr.tier;
+    }
+
+    /**
+     * Run p on the best tier available for its key. Must be called inside the caller's FunctionEnv,
+     * like {@link Executor#run}: QUOTE / JUMP_EQUAL_FUNCTION resolve functions at run time on every tier.
+     */
+    public MachineState run(Key key, Program p, List<Long> inputs) {
+        if (key == null) {
+            hits.get(Tier.INTERPRETER).increment();
+            return stopping(() -> new Executor().run(p, inputs));
+        }
+        Profile pr = profile(key, p);
+        Tier tier = pr.tier;
+        MachineState st = switch (tier) {
+            case JIT -> stopping(() -> pr.jit.run(inputs));
+            case COMPILED -> stopping(() -> compiledExecutor.run(pr.compiled, inputs));
+            case INTERPRETER -> stopping(() -> new Executor().run(p, inputs));
+        };
+        hits.get(tier).increment();
+        record(pr, st.cycles());
+        return st;
+    }
+
+    /**
+     * Same as {@link #run(Key, Program, List)} with at most budget's cycles and time. A run that is cut
+     * short returns the state it reached, with {@link MachineState#exhaustedBy()} set.
+     */
+    public MachineState run(Key key, Program p, List<Long> inputs, RunBudget budget) {
+        if (budget == null) return run(key, p, inputs);
+        return RunBudget.with(budget, () -> run(key, p, inputs));
+    }
+
+    /**
+     * A run of p that fills profile (see {@link RunProfile}), at most budget's cycles and time. Always on
+     * the interpreter, the other tiers keep no per-instruction counters; counts as an INTERPRETER hit
+     * but not towards promoting any program.
+     */
+    public MachineState runProfiled(Program p, List<Long> inputs, RunBudget budget, RunProfile profile) {
+        hits.get(Tier.INTERPRETER).increment();
+        Supplier<MachineState> run = () -> stopping(() -> new Executor().run(p, inputs));
+        return RunProfile.with(profile, () -> (budget == null) ? run.get() : RunBudget.with(budget, run::get));
+    }
+
+    /**
+     * A run of p that writes every step to trace (see {@link TraceRecorder}), at most budget's cycles
+     * and time. On the interpreter, like a profiled run.
+     */
+    public MachineState runTraced(Program p, List<Long> inputs, RunBudget budget, TraceRecorder trace) {
+        hits.get(Tier.INTERPRETER).increment();
+        Supplier<MachineState> run = () -> stopping(() -> new Executor().run(p, inputs));
+        return TraceRecorder.with(trace, () -> (budget == null) ? run.get() : RunBudget.with(budget, run::get));
+    }
+
+    private static MachineState stopping(Supplier<MachineState> body) {
+        try {
+            return body.get();
+        } catch (BudgetExhaustedException e) {
+            if (e.state() == null) throw e;
+            e.state().exhaust(e.reason());
+            return e.state();
+        }
+    }
+
+    /** Prepared view of a program version for step-by-step users (the debugger). */
+    public Profile profile(Key key, Program p) {
+        synchronized (profiles) {
+            return profiles.computeIfAbsent(key, k -> new Profile(p));
+        }
+    }
+
+    /** Count a run that did not go through {@link #run} (a finished debug session). */
+    public void recordRun(Key key, Program p, long cycles) {
+        if (key == null) return;
+        hits.get(Tier.INTERPRETER).increment();
+        record(profile(key, p), cycles);
+    }
+
+    /**
+     * Promote a program version to the best tier right away, on the caller's thread (batch runs know
+     * up front that the program is hot). Does nothing if a background promotion is already running.
+     */
+    public Tier compileNow(Key key, Program p) {
+        Profile pr = profile(key, p);
+        if (pr.tier != Tier.JIT && !pr.settled && pr.promoting.compareAndSet(false, true)) {
+            promote(pr, Tier.JIT);
+        }
+        return pr.tier;
+    }
+
+    /** Drop every profile of an owner (its program was replaced). */
+    public void forget(Object owner) {
+        synchronized (profiles) {
+            profiles.keySet().removeIf(k -> Objects.equals(k.owner(), owner));
+        }
+    }
+
+    private void record(Profile pr, long cycles) {
+        long runs = pr.runs.incrementAndGet();
+        long total = pr.cycles.addAndGet(cycles);
+
+        Thresholds t = thresholds;
+        if (pr.settled) return;
+        Tier next = switch (pr.tier) {
+            case INTERPRETER -> (runs >= t.compileRuns() || total >= t.compileCycles()) ? Tier.COMPILED : null;
+            case COMPILED -> (runs >= t.jitRuns() || total >= t.jitCycles()) ? Tier.JIT : null;
+            case JIT -> null;
+        };
+        if (next != null && pr.promoting.compareAndSet(false, true)) {
+            compiler.execute(() -> promote(pr, next));
+        }
+    }
+
+    private void promote(Profile pr, Tier next) {
+        try {
+            if (pr.compiled == null) pr.compiled = ProgramCompiler.compile(pr.program);
+            if (next == Tier.JIT) {
+                JitProgram jit = JitCompiler.compile(pr.compiled);
+                if (jit == null) {                              // QUOTE etc.: stays compiled
+                    pr.settled = true;
+                    if (pr.tier == Tier.INTERPRETER) { pr.tier = Tier.COMPILED; promotions.incrementAndGet(); }
+                    return;
+                }
+                pr.jit = jit;
+            }
+            pr.tier = next;
+            promotions.incrementAndGet();
+        } catch (RuntimeException e) {
+            pr.settled = true;        // keep running on the tier we have
+        } finally {
+            pr.promoting.set(false);
+        }
+    }
+
+    /** Per program version: counters, current tier and the prepared forms. */
+    public static final class Profile {
+        private final Program program;
+        private final SlotMap slots;
+        private final JumpResolver labels;
+        private final AtomicLong runs = new AtomicLong();
+        private final AtomicLong cycles = new AtomicLong();
+        private final AtomicBoolean promoting = new AtomicBoolean();
+
+        private volatile Tier tier = Tier.INTERPRETER;
+        private volatile CompiledProgram compiled;
+        private volatile JitProgram jit;
+        private volatile boolean settled;     // no further promotion possible
+
+        private Profile(Program program) {
+            this.program = program;
+            this.slots = SlotMap.of(program);
+            this.labels = LabelIndex.build(program);
+            this.settled = program.instructions().size() > MAX_COMPILED_LINES;
+        }
+
+        public Program program() { return program; }
+        public SlotMap slots() { return slots; }
+        public JumpResolver labels() { return labels; }
+        public Tier tier() { return tier; }
+        public long runs() { return runs.get(); }
+        public long cycles() { return cycles.get(); }
+    }
+}
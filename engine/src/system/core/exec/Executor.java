@@ -1,5 +1,7 @@
 package system.core.exec;
 
+import system.core.exec.trace.TraceRecorder;
+import system.core.expand.LazyExpansion;
 import system.core.model.Instruction;
 import system.core.model.Program;
 import system.core.model.basic.*;
@@ -8,6 +10,7 @@ import system.core.model.synthetic.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.IntFunction;
 
 @FunctionalInterface
 interface InstrHandler<T extends Instruction> {
@@ -23,30 +26,30 @@ public class Executor {
 
         register(Inc.class, (Inc i, MachineState s, JumpResolver j) -> {
             s.add(i.v(), +1);
-            charge(s, i, "");
+            charge(s, i);
             s.advance();
         });
 
         register(Dec.class, (Dec i, MachineState s, JumpResolver j) -> {
             long before = s.get(i.v());
             if (before > 0) s.set(i.v(), before - 1);
-            charge(s, i, "before=" + before);
+            charge(s, i);
             s.advance();
         });
 
 
         register(Nop.class, (Nop i, MachineState s, JumpResolver j) -> {
-            charge(s, i, "");
+            charge(s, i);
             s.advance();
         });
 
         // IMPORTANT: correct branch-dependent cycles for IfGoto
         register(IfGoto.class, (IfGoto i, MachineState s, JumpResolver j) -> {
             boolean taken = (s.get(i.v()) != 0);
-            charge(s, i, taken ? "TAKEN" : "NOT TAKEN");
+            charge(s, i);
 
             if (taken) {
-                int to = j.resolve(i.target());
+                int to = j.resolve(i.targetId());
                 if (to == JumpResolver.NOT_FOUND || to == JumpResolver.EXIT) s.halt();
                 else s.jumpTo(to);
             } else {
@@ -61,13 +64,13 @@ public class Executor {
 
         register(ZeroVariable.class, (ZeroVariable i, MachineState s, JumpResolver j) -> {
             s.set(i.v(), 0);
-            charge(s, i, "");
+            charge(s, i);
             s.advance();
         });
 
         register(GotoLabel.class, (GotoLabel i, MachineState s, JumpResolver j) -> {
-            int to = j.resolve(i.target());
-            charge(s, i, "-> " + to);
+            int to = j.resolve(i.targetId());
+            charge(s, i);
             if (to == JumpResolver.NOT_FOUND || to == JumpResolver.EXIT) s.halt();
             else s.jumpTo(to);
         });
@@ -75,23 +78,23 @@ public class Executor {
 
         register(Assignment.class, (Assignment i, MachineState s, JumpResolver j) -> {
             s.set(i.v(), s.get(i.src()));
-            charge(s, i, "");
+            charge(s, i);
             s.advance();
         });
 
         register(ConstantAssignment.class, (ConstantAssignment i, MachineState s, JumpResolver j) -> {
             s.set(i.v(), i.k());
-            charge(s, i, "");
+            charge(s, i);
             s.advance();
         });
 
         // Synthetic conditional jumps: also fix branch-dependent cycles
         register(JumpZero.class, (JumpZero i, MachineState s, JumpResolver j) -> {
            boolean taken = (s.get(i.v()) == 0);
-            charge(s, i, taken ? "TAKEN" : "NOT TAKEN");
+            charge(s, i);
 
             if (taken) {
-                int to = j.resolve(i.target());
+                int to = j.resolve(i.targetId());
                 if (to == JumpResolver.NOT_FOUND || to == JumpResolver.EXIT) s.halt();
                 else s.jumpTo(to);
             } else {
@@ -101,10 +104,10 @@ public class Executor {
 
         register(JumpEqualConstant.class, (JumpEqualConstant i, MachineState s, JumpResolver j) -> {
             boolean taken = (s.get(i.v()) == i.k());
-            charge(s, i, taken ? "TAKEN" : "NOT TAKEN");
+            charge(s, i);
 
             if (taken) {
-                int to = j.resolve(i.target());
+                int to = j.resolve(i.targetId());
                 if (to == JumpResolver.NOT_FOUND || to == JumpResolver.EXIT) s.halt();
                 else s.jumpTo(to);
             } else {
@@ -116,10 +119,10 @@ public class Executor {
 
         register(JumpEqualVariable.class, (JumpEqualVariable i, MachineState s, JumpResolver j) -> {
             boolean taken = (s.get(i.a()) == s.get(i.b()));
-            charge(s, i, taken ? "TAKEN" : "NOT TAKEN");
+            charge(s, i);
 
             if (taken) {
-                int to = j.resolve(i.target());
+                int to = j.resolve(i.targetId());
                 if (to == JumpResolver.NOT_FOUND || to == JumpResolver.EXIT) s.halt();
                 else s.jumpTo(to);
             } else {
@@ -150,41 +153,65 @@ public class Executor {
     }
 
     public MachineState run(Program p, List<Long> inputs) {
-        MachineState st = MachineState.init(inputs);
-        JumpResolver jr = LabelIndex.build(p);
+        List<Instruction> code = p.instructions();
+        return run(pc -> pc < code.size() ? code.get(pc) : null,
+                MachineState.init(inputs, SlotMap.of(p)), LabelIndex.build(p));
+    }
+
+    /**
+     * Run a program that is expanded while it runs: instructions are produced as the pc reaches them
+     * and a jump forward expands up to its label. Same MachineState as running the expanded Program.
+     * Must be called inside the caller's FunctionEnv, as the expansion itself needs it.
+     */
+    public MachineState run(LazyExpansion p, List<Long> inputs) {
+        return run(p::get, MachineState.init(inputs), p);   // slots are added as variables show up
+    }
 
-        while (!st.isHalted() && st.getPc() < p.instructions().size()) {
-            final int pc = st.getPc();                     // pc of the instruction we’re about to execute
-            Instruction ins = p.instructions().get(pc);
-            step(ins, st, jr);                        // this adds the basic cycles only
+    /** code returns the instruction at a pc, null past the end of the program. */
+    private MachineState run(IntFunction<Instruction> code, MachineState st, JumpResolver jr) {
+        RunBudget budget = RunBudget.current();         // null = run to the end, whatever it takes
+        RunProfile profile = RunProfile.current();      // null = nothing counted
+        TraceRecorder trace = TraceRecorder.current();  // null = nothing recorded
+        if (trace != null) st.takeLastWrite();          // the inputs are in the trace header
+        int clock = 0;
+
+        Instruction ins;
+        while (!st.isHalted() && (ins = code.apply(st.getPc())) != null) {
+            if (budget == null && profile == null && trace == null) {
+                step(ins, st, jr);                        // this adds the basic cycles only
+                continue;
+            }
+            if (budget != null) {
+                // fuel: do not start an instruction that does not fit, look at the clock now and then
+                if (budget.exceeds(st.cycles() + ins.cycles())) throw new BudgetExhaustedException(RunBudget.Reason.CYCLES, st);
+                if (++clock == RunBudget.CLOCK_EVERY) {
+                    clock = 0;
+                    if (budget.pastDeadline()) throw new BudgetExhaustedException(RunBudget.Reason.TIME, st);
+                }
+            }
+            int pc = st.getPc();
+            long before = st.cycles();
+            try {
+                step(ins, st, jr);
+            } catch (BudgetExhaustedException e) {
+                // ran out inside a nested call: report our state (and what the calls made so far cost)
+                if (profile != null) profile.count(pc, 0, st.cycles() - before);
+                if (trace != null) record(trace, st, pc, before);
+                throw e.at(st);
+            }
+            if (profile != null) profile.count(pc, ins.cycles(), st.cycles() - before);
+            if (trace != null) record(trace, st, pc, before);
         }
         return st;
     }
 
+    private static void record(TraceRecorder trace, MachineState st, int pc, long before) {
+        int slot = st.takeLastWrite();
+        if (slot < 0) trace.record(pc, -1, 0, st.cycles() - before);
+        else trace.record(pc, TraceRecorder.code(st.var(slot)), st.getSlot(slot), st.cycles() - before);
+    }
 
-
-    // For Debugging / Tracing -> make TRACE false to disable\ true to enable
-    private void charge(MachineState s, Instruction i, String note) {
+    private static void charge(MachineState s, Instruction i) {
         s.addCycles(i.cycles());
-        // Toggle for Debug prints
-        boolean TRACE = false;
-        if (!TRACE) return;
-
-        // Try to show label and text if available; fall back gracefully
-        String label = "";
-        try { label = (String) Instruction.class.getMethod("label").invoke(i); } catch (Exception ignore) {}
-        String text  = "";
-        try { text  = (String) Instruction.class.getMethod("asText").invoke(i); } catch (Exception ignore) {}
-
-        System.out.printf("PC=%d  +%d (total=%d)  %-18s  %s%s%s%n",
-                s.getPc(), i.cycles(), s.cycles(),
-                i.getClass().getSimpleName(),
-                label == null || label.isEmpty() ? "" : ("[" + label + "] "),
-                text == null ? "" : text,
-                note == null || note.isEmpty() ? "" : ("  // " + note)
-        );
     }
-
-
-
 }
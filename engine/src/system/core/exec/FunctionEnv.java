@@ -1,8 +1,12 @@
 package system.core.exec;
 
+import system.core.expand.helpers.InlineTemplate;
+import system.core.model.Instruction;
 import system.core.model.Program;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 // this class holds the function definitions for the current execution context
 // it is stored in a ThreadLocal so that it can be accessed from anywhere
 // without having to pass it around explicitly
@@ -23,17 +27,96 @@ import java.util.concurrent.Callable;
 // such as a web server or a game engine wich will probaly done in part 3
 public final class FunctionEnv {
     private static final ThreadLocal<FunctionEnv> TL = new ThreadLocal<>();
+
+    /** Highest expansion depth / degree reported: a function that calls itself never gets all basic. */
+    public static final int MAX_DEPTH = 1000;
+    private static final int IN_PROGRESS = -1;
+
     private final Map<String, Program> functions;
+    private final Map<String, Integer> depths = new HashMap<>();   // function -> expansion depth of its body
+    private final Map<String, InlineTemplate> templates = new ConcurrentHashMap<>();
+
+    private final Scope scope;
 
-    public FunctionEnv(Map<String,Program> f) { this.functions = Map.copyOf(f); }
+    public FunctionEnv(Map<String,Program> f) {
+        this.functions = Map.copyOf(f);
+        this.scope = new Scope(functions);
+    }
     public Program get(String name) { return functions.get(name); }
 
+    /**
+     * Expansion rounds until the body of a function, calls included, is all basic: the depth of its
+     * deepest instruction. Memoized per function, so every function of the call graph is looked at once;
+     * a function on a call cycle counts as {@link #MAX_DEPTH}.
+     * @throws IllegalStateException "Function 'X' not found", like the expansion
+     */
+    public synchronized int expansionDepth(String name) {
+        Integer known = depths.get(name);
+        if (known != null) return (known == IN_PROGRESS) ? MAX_DEPTH : known;
+        Program body = functions.get(name);
+        if (body == null) throw new IllegalStateException("Function '" + name + "' not found");
+
+        depths.put(name, IN_PROGRESS);
+        int d;
+        try {
+            d = with(this, () -> {
+                int max = 0;
+                for (Instruction ins : body.instructions()) max = Math.max(max, ins.expansionDepth());
+                return max;
+            });
+        } catch (RuntimeException e) {
+            depths.remove(name);
+            throw e;
+        }
+        depths.put(name, d);
+        return d;
+    }
+
+    /**
+     * How QUOTE inlines a function (its x / z / label footprint and body), analysed the first time
+     * the function is inlined in this env.
+     * @throws IllegalStateException "Function 'X' not found", like the expansion
+     */
+    public InlineTemplate inlineTemplate(String name) {
+        InlineTemplate t = templates.get(name);
+        if (t != null) return t;
+        Program body = functions.get(name);
+        if (body == null) throw new IllegalStateException("Function '" + name + "' not found");
+        return templates.computeIfAbsent(name, n -> InlineTemplate.of(body));
+    }
+
+    /**
+     * Envs that map every name to the very same Program objects have equal scopes: a function
+     * called in equal scopes with the same arguments gives the same result (see FunctionMemo).
+     */
+    Scope scope() { return scope; }
+
+    static final class Scope {
+        private final Map<String, Program> functions;
+        private final int hash;
+
+        private Scope(Map<String, Program> functions) {
+            this.functions = functions;
+            this.hash = functions.hashCode();   // Program has identity equals / hashCode
+        }
+
+        @Override public boolean equals(Object o) {
+            return o == this || (o instanceof Scope other && hash == other.hash && functions.equals(other.functions));
+        }
+        @Override public int hashCode() { return hash; }
+    }
+
     public static FunctionEnv current() {
         var e = TL.get();
         if (e == null) throw new IllegalStateException("FunctionEnv not set");
         return e;
     }
 
+    /** The env of this thread, or null outside of one (to hand it on to other threads). */
+    public static FunctionEnv currentOrNull() {
+        return TL.get();
+    }
+
     public static <T> T with(FunctionEnv env, Callable<T> body) {
         var prev = TL.get();
         TL.set(env);
@@ -43,6 +126,12 @@ public final class FunctionEnv {
         finally { TL.set(prev); }
     }
 
+    /** The formal name fn has in this env (its program name if it is none of this env's functions). */
+    public String nameOf(Program fn) {
+        for (var e : functions.entrySet()) if (e.getValue() == fn) return e.getKey();
+        return fn.name();
+    }
+
     // pretty symbol for a function, falling back to the formal name (meaning userString and program name from the xml)
     public String prettyNameOf(String functionName) {
         Program p = functions.get(functionName);
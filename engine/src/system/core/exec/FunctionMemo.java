@@ -0,0 +1,119 @@
+package system.core.exec;
+
+import system.core.exec.trace.TraceRecorder;
+import system.core.model.Program;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memo of function calls made at run time by QUOTE and JUMP_EQUAL_FUNCTION.
+ *
+ * S functions are pure: the same function with the same arguments always ends with the same y after
+ * the same number of cycles, so a call only has to run once. The key is (scope, function, arguments),
+ * where the scope is the FunctionEnv's name -> Program map; every name the callee uses resolves the
+ * same way in equal scopes. Runs of one engine version share a scope, and on the server so do users
+ * calling the same FUNCTION_BODIES entry through the same set of functions.
+ *
+ * Bounded: split into segments, each one an LRU map under its own lock.
+ *
+ * Under a {@link RunProfile} every call is charged to the callee's profile, and a call that runs
+ * counts its lines there. Under a {@link TraceRecorder} a call is part of the calling step: the
+ * callee's own steps are never recorded, whether the call runs or comes from the memo.
+ */
+public final class FunctionMemo {
+
+    public record Result(long y, long cycles) {}
+
+    public record Stats(long hits, long misses, long evictions, int size, int capacity) {}
+
+    private record Key(FunctionEnv.Scope scope, Program function, List<Long> args) {}
+
+    private static final int SEGMENTS = 16;
+    private static final FunctionMemo SHARED = new FunctionMemo(16_384);
+
+    /** The memo used by QUOTE and JUMP_EQUAL_FUNCTION. */
+    public static FunctionMemo shared() { return SHARED; }
+
+    private final int capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public FunctionMemo(int capacity) {
+        if (capacity < SEGMENTS) throw new IllegalArgumentException("capacity must be at least " + SEGMENTS);
+        this.capacity = capacity;
+        for (int i = 0; i < SEGMENTS; i++) segments[i] = new Segment(capacity / SEGMENTS);
+    }
+
+    /**
+     * y and cycles of running fn (found in env) on args, from the memo or by running it now.
+     * Must be called inside env: the callee's own calls resolve through FunctionEnv.current().
+     *
+     * Under a {@link RunBudget} the call gets what is left after the {@code spent} cycles of its
+     * caller, and throws {@link BudgetExhaustedException} if it does not fit (remembered or not).
+     */
+    public Result call(FunctionEnv env, Program fn, List<Long> args, long spent) {
+        Key key = new Key(env.scope(), fn, List.copyOf(args));
+        Segment seg = segments[(key.hashCode() & 0x7fffffff) % SEGMENTS];
+
+        RunBudget budget = RunBudget.current();
+        RunProfile profile = RunProfile.current();
+        Result r = seg.get(key);
+        if (r != null) {
+            hits.increment();
+            if (budget != null && budget.exceeds(spent + r.cycles())) {
+                throw new BudgetExhaustedException(RunBudget.Reason.CYCLES, null);
+            }
+            if (profile != null) profile.called(env, fn, r.cycles(), true);
+            return r;
+        }
+        misses.increment();
+        MachineState st = (profile == null)
+                ? run(fn, args, budget, spent)
+                : RunProfile.with(profile.callee(env, fn), () -> run(fn, args, budget, spent));
+        r = new Result(st.y(), st.cycles());
+        seg.put(key, r);
+        if (profile != null) profile.called(env, fn, r.cycles(), false);
+        return r;
+    }
+
+    private static MachineState run(Program fn, List<Long> args, RunBudget budget, long spent) {
+        if (TraceRecorder.current() != null) return TraceRecorder.with(null, () -> run(fn, args, budget, spent));
+        return (budget == null)                           // exceptions are not remembered
+                ? new Executor().run(fn, args)
+                : RunBudget.with(budget.after(spent), () -> new Executor().run(fn, args));
+    }
+
+    public Stats stats() {
+        int size = 0;
+        for (Segment s : segments) size += s.size();
+        return new Stats(hits.sum(), misses.sum(), evictions.sum(), size, capacity);
+    }
+
+    public void clear() {
+        for (Segment s : segments) s.clear();
+    }
+
+    private final class Segment {
+        private final Map<Key, Result> map;
+
+        Segment(int max) {
+            this.map = new LinkedHashMap<>(64, 0.75f, true) {
+                @Override protected boolean removeEldestEntry(Map.Entry<Key, Result> e) {
+                    if (size() <= max) return false;
+                    evictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        synchronized Result get(Key k)           { return map.get(k); }
+        synchronized void put(Key k, Result r)   { map.put(k, r); }
+        synchronized int size()                  { return map.size(); }
+        synchronized void clear()                { map.clear(); }
+    }
+}
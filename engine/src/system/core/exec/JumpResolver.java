@@ -1,9 +1,14 @@
 package system.core.exec;
 
+import system.core.model.Labels;
+
 public interface JumpResolver {
     /** @return instruction index to jump to (0-based),-1 to signal NOT_FOUND or -2 for EXIT */
         int NOT_FOUND = -1;
         int EXIT = -2;
         int resolve(String label);
 
+        /** Same as resolve(String), by {@link Labels} id (what the jump instructions carry). */
+        default int resolve(int labelId) { return resolve(Labels.name(labelId)); }
+
 }
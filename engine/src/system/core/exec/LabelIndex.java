@@ -1,32 +1,73 @@
 package system.core.exec;
 
 import system.core.model.Instruction;
+import system.core.model.Labels;
 import system.core.model.Program;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * First line of every label of a program, by {@link Labels} id: L<n> labels at [n] of one array,
+ * other names at [-id] of another, so resolving a jump is an array read. An id far beyond the
+ * number of labels seen (a hand written L99999 in a short program) goes to a map instead, so the
+ * arrays stay about as long as the program has labels.
+ */
 public final class LabelIndex implements JumpResolver {
-    private final Map<String, Integer> first = new HashMap<>();
+    private static final int[] NONE_YET = new int[0];
+    private static final int SLACK = 1024;
+
+    private int[] auto = NONE_YET;       // n -> pc + 1 of L<n>, 0 = not in the program
+    private int[] named = NONE_YET;      // -id -> pc + 1
+    private final Map<Integer, Integer> far = new HashMap<>();   // id -> pc
+    private int count;
 
     private LabelIndex() {}
 
     public static LabelIndex build(Program p) {
         LabelIndex idx = new LabelIndex();
-        for (int i = 0; i < p.instructions().size(); i++) {
-            Instruction ins = p.instructions().get(i);
-            String lab = ins.label();
-            if (lab == null || lab.isEmpty() || "EXIT".equals(lab)) continue;
-            // first occurrence wins
-            idx.first.putIfAbsent(lab, i);
-        }
+        p.forEachDistinct(idx::add);
         return idx;
     }
 
+    /** An index filled line by line (see {@link #add}), for programs produced as they are run. */
+    public static LabelIndex growing() {
+        return new LabelIndex();
+    }
+
+    /** Indexes the label of ins, at pc; the first occurrence of a label wins. */
+    public void add(Instruction ins, int pc) {
+        int id = ins.labelId();
+        if (id == Labels.NONE || id == Labels.EXIT || resolve(id) != NOT_FOUND) return;
+        count++;
+        int k = id > 0 ? id : -id;
+        if (k > 4L * count + SLACK) {
+            far.put(id, pc);
+            return;
+        }
+        if (id > 0) auto = put(auto, k, pc);
+        else named = put(named, k, pc);
+    }
+
+    private static int[] put(int[] table, int k, int pc) {
+        if (k >= table.length) table = Arrays.copyOf(table, Math.max(k + 1, table.length * 2));
+        table[k] = pc + 1;
+        return table;
+    }
+
     @Override
     public int resolve(String label) {
-        if (label == null || label.isEmpty()) return JumpResolver.NOT_FOUND; // -1
-        if ("EXIT".equals(label)) return JumpResolver.EXIT;                  // -2
-        return first.getOrDefault(label, JumpResolver.NOT_FOUND);
+        return resolve(Labels.id(label));
+    }
+
+    @Override
+    public int resolve(int labelId) {
+        if (labelId == Labels.NONE) return JumpResolver.NOT_FOUND;   // -1
+        if (labelId == Labels.EXIT) return JumpResolver.EXIT;        // -2
+        int[] table = labelId > 0 ? auto : named;
+        int k = labelId > 0 ? labelId : -labelId;
+        if (k < table.length && table[k] != 0) return table[k] - 1;
+        return far.isEmpty() ? JumpResolver.NOT_FOUND : far.getOrDefault(labelId, JumpResolver.NOT_FOUND);
     }
 }
@@ -2,8 +2,11 @@ package system.core.exec;
 
 import system.core.model.Var;
 
+import java.util.AbstractMap;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.BitSet;
 
 
@@ -12,21 +15,33 @@ public final class MachineState {
     private boolean halted = false;
     private long cycles = 0;
     private final BitSet chargedSynthetic = new BitSet();
+    private RunBudget.Reason exhausted = null;  // set when a RunBudget stopped the run early
 
 
+    // register file: slot 0 is y, the rest is decided by the SlotMap (computed once per program)
+    private SlotMap slots;              // once own is there: a copy of it, made again when asked for after own grew
+    private SlotMap.Builder own;        // this state's map once it met a variable the program's did not have
+    private long[] regs;
+    private boolean[] written;          // x / z that were ever assigned (this is what the snapshots show)
+    private int lastWrite = -1;         // slot of the last setSlot, for the trace recorder
 
-    private final Map<Integer, Long> x = new HashMap<>(); // x1.. -> value
-    private final Map<Integer, Long> z = new HashMap<>(); // z1.. -> value
-    private long y = 0;
-
-    private MachineState() {}
+    private MachineState(SlotMap slots) {
+        this.slots = slots;
+        this.regs = new long[Math.max(1, slots.size())];
+        this.written = new boolean[regs.length];
+    }
 
     public static MachineState init(java.util.List<Long> inputs) {
-        MachineState st = new MachineState();
+        return init(inputs, SlotMap.empty());
+    }
+
+    /** Same as {@link #init(java.util.List)} but with the program's slot map ready, so no slot is added at run time. */
+    public static MachineState init(java.util.List<Long> inputs, SlotMap slots) {
+        MachineState st = new MachineState(slots == null ? SlotMap.empty() : slots);
         if (inputs != null) {
             for (int i = 0; i < inputs.size(); i++) {
                 long v = inputs.get(i) == null ? 0L : Math.max(0L, inputs.get(i));
-                st.x.put(i + 1, v); // x1.. = inputs
+                st.setSlot(st.slotOf(Var.x(i + 1)), v); // x1.. = inputs
             }
         }
         // y and z* default to 0 as per instruction
@@ -34,21 +49,12 @@ public final class MachineState {
     }
 
     public long get(Var v) {
-        return switch (v.symbol()) {
-            case 'x' -> x.getOrDefault(v.index(), 0L);
-            case 'z' -> z.getOrDefault(v.index(), 0L);
-            case 'y' -> y;
-            default -> 0L;
-        };
+        int s = find(v);
+        return s < 0 ? 0L : regs[s];
     }
 
     public void set(Var v, long value) {
-        long val = Math.max(0L, value);
-        switch (v.symbol()) {
-            case 'x' -> x.put(v.index(), val);
-            case 'z' -> z.put(v.index(), val);
-            case 'y' -> y = val;
-        }
+        setSlot(slotOf(v), value);
     }
 
     public void add(Var v, long delta) {
@@ -62,6 +68,55 @@ public final class MachineState {
         if (nv < 0) set(v, 0);
     }
 
+    // ---- slot level access (used by the compiled executors, slots come from the same SlotMap)
+
+    /**
+     * Slot of v, adding it to this state's map if the program's map did not have it. The state then
+     * keeps a map of its own that grows in place, so a state that starts empty (lazy runs, replays)
+     * adds each variable in amortized constant time.
+     */
+    public int slotOf(Var v) {
+        int s = find(v);
+        if (s >= 0) return s;
+        if (own == null) own = slots.toBuilder();
+        s = own.add(v);
+        if (s >= regs.length) {
+            regs = Arrays.copyOf(regs, Math.max(s + 1, regs.length * 2));
+            written = Arrays.copyOf(written, regs.length);
+        }
+        return s;
+    }
+
+    public long getSlot(int slot) { return regs[slot]; }
+
+    public void setSlot(int slot, long value) {
+        regs[slot] = Math.max(0L, value);
+        written[slot] = true;
+        lastWrite = slot;
+    }
+
+    /** Slot last written since the previous call (-1: none), see system.core.exec.trace.TraceRecorder. */
+    public int takeLastWrite() {
+        int s = lastWrite;
+        lastWrite = -1;
+        return s;
+    }
+
+    /** True once the slot was assigned (inputs count); unwritten x / z do not show up in snapshots. */
+    public boolean isWritten(int slot) { return written[slot]; }
+
+    public SlotMap slots() {
+        if (own != null && slots.size() != own.size()) slots = own.build();
+        return slots;
+    }
+
+    /** The variable of a slot; same as slots().var(slot) without copying a map that grew. */
+    public Var var(int slot) { return (own != null) ? own.var(slot) : slots.var(slot); }
+
+    private int find(Var v) { return (own != null) ? own.find(v) : slots.find(v); }
+
+    private int size() { return (own != null) ? own.size() : slots.size(); }
+
 
 
     public boolean  isHalted() { return halted; }
@@ -70,28 +125,76 @@ public final class MachineState {
     public void advance() { pc++; }
     public void jumpTo(int index) { pc = index; }
     public void halt() { halted = true; }
+    public void exhaust(RunBudget.Reason why) { exhausted = why; }
+    /** Why the run was stopped before the end, null if it was not. */
+    public RunBudget.Reason exhaustedBy() { return exhausted; }
     public void addCycles(int c) { cycles += c; }
 
 
     // expose snapshots for building RunResult later
-    public long y() { return y; }
+    public long y() { return regs[SlotMap.Y]; }
     public long cycles() { return cycles; }
     public void setPc(int pc) { this.pc = Math.max(0, pc); }
     public void setCycles(long c) { this.cycles = Math.max(0L, c); }
 
 
-    public Map<Integer, Long> snapshotX() { return new HashMap<>(x); }
-    public Map<Integer, Long> snapshotZ() { return new HashMap<>(z); }
+    public Map<Integer, Long> snapshotX() { return new RegisterView(Var.Type.X, slots(), regs.clone(), written.clone()); }
+    public Map<Integer, Long> snapshotZ() { return new RegisterView(Var.Type.Z, slots(), regs.clone(), written.clone()); }
 
 
     // for Debugger to restore state
     public void restoreX(Map<Integer,Long> src) {
-        x.clear();
-        if (src != null) x.putAll(src);
+        clear(Var.Type.X);
+        if (src != null) src.forEach((i, v) -> set(Var.x(i), v));
     }
     public void restoreZ(Map<Integer,Long> src) {
-        z.clear();
-        if (src != null) z.putAll(src);
+        clear(Var.Type.Z);
+        if (src != null) src.forEach((i, v) -> set(Var.z(i), v));
+    }
+
+    private void clear(Var.Type type) {
+        for (int s = 1, n = size(); s < n; s++) {
+            if (var(s).type() == type) {
+                regs[s] = 0L;
+                written[s] = false;
+            }
+        }
+    }
+
+    /**
+     * Snapshot of one variable family: the arrays are copied when the snapshot is taken,
+     * the index -> value map is only built the first time somebody reads it.
+     */
+    private static final class RegisterView extends AbstractMap<Integer, Long> {
+        private final Var.Type type;
+        private final SlotMap slots;
+        private final long[] regs;
+        private final boolean[] written;
+        private Map<Integer, Long> built;
+
+        RegisterView(Var.Type type, SlotMap slots, long[] regs, boolean[] written) {
+            this.type = type;
+            this.slots = slots;
+            this.regs = regs;
+            this.written = written;
+        }
+
+        private Map<Integer, Long> built() {
+            if (built == null) {
+                Map<Integer, Long> m = new HashMap<>();
+                for (int s = 1; s < slots.size(); s++) {
+                    Var v = slots.var(s);
+                    if (written[s] && v.type() == type) m.put(v.index(), regs[s]);
+                }
+                built = m;
+            }
+            return built;
+        }
+
+        @Override public Set<Entry<Integer, Long>> entrySet() { return built().entrySet(); }
+        @Override public Long get(Object key)                 { return built().get(key); }
+        @Override public boolean containsKey(Object key)      { return built().containsKey(key); }
+        @Override public int size()                           { return built().size(); }
     }
 
 
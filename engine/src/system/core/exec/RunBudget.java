@@ -0,0 +1,62 @@
+package system.core.exec;
+
+import java.time.Duration;
+import java.util.concurrent.Callable;
+
+/**
+ * Fuel for a run: at most maxCycles cycles and / or until a wall clock deadline.
+ *
+ * Like {@link FunctionEnv} it lives in a ThreadLocal for the duration of {@link #with}, so the
+ * interpreters and the nested calls of QUOTE / JUMP_EQUAL_FUNCTION can all see it without passing it
+ * around. An instruction that would go past the cycle budget is not executed; the run stops with a
+ * {@link BudgetExhaustedException} holding the state reached so far (see {@link ExecutionManager#run}).
+ */
+public final class RunBudget {
+    public enum Reason { CYCLES, TIME }
+
+    private static final ThreadLocal<RunBudget> TL = new ThreadLocal<>();
+
+    /** how many executed instructions between two looks at the clock */
+    public static final int CLOCK_EVERY = 1024;
+
+    private final long maxCycles;
+    private final long deadlineNanos;    // System.nanoTime() based, Long.MAX_VALUE = none
+
+    private RunBudget(long maxCycles, long deadlineNanos) {
+        this.maxCycles = Math.max(0L, maxCycles);
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    public static RunBudget cycles(long maxCycles) {
+        return new RunBudget(maxCycles, Long.MAX_VALUE);
+    }
+
+    public static RunBudget of(long maxCycles, Duration timeout) {
+        return new RunBudget(maxCycles, System.nanoTime() + timeout.toNanos());
+    }
+
+    public long maxCycles() { return maxCycles; }
+
+    /** The budget of a nested call that starts after its caller already used {@code spent} cycles. */
+    public RunBudget after(long spent) {
+        return new RunBudget(maxCycles - spent, deadlineNanos);
+    }
+
+    /** True if running to {@code total} cycles would go over the budget. */
+    public boolean exceeds(long total) { return total > maxCycles; }
+
+    public boolean pastDeadline() {
+        return deadlineNanos != Long.MAX_VALUE && System.nanoTime() - deadlineNanos > 0;
+    }
+
+    public static RunBudget current() { return TL.get(); }
+
+    public static <T> T with(RunBudget budget, Callable<T> body) {
+        var prev = TL.get();
+        TL.set(budget);
+        try { return body.call(); }
+        catch (RuntimeException | Error re) { throw re; }
+        catch (Exception e) { throw new RuntimeException(e); }
+        finally { TL.set(prev); }
+    }
+}
@@ -0,0 +1,124 @@
+package system.core.exec;
+
+import system.api.view.LineProfile;
+import system.api.view.ProfileView;
+import system.core.model.Program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * Where a run spends its cycles: per pc, how many times the instruction ran and the cycles it
+ * charged, kept by {@link Executor} while the profile is current (see {@link #with}). Without a
+ * current profile the interpreter does no counting at all.
+ *
+ * The cycles of a QUOTE / JUMP_EQUAL_FUNCTION call go to the callee: the calling line only keeps
+ * them apart as call cycles. Every function called, however deep, has one RunProfile of its own
+ * in {@link #functions} with its calls, their cycles and its per-line counters; a call answered
+ * by the {@link FunctionMemo} counts in the first two but does not run any of its lines. A
+ * function's cycles are what its calls took, billed or not: the calls in the arguments of a
+ * JUMP_EQUAL_FUNCTION run but are not charged to the caller, so they are in the callee's total and
+ * not in any call cycles of the calling line.
+ *
+ * Not thread safe: one run on one thread (nested calls run on the caller's thread).
+ */
+public final class RunProfile {
+    private static final ThreadLocal<RunProfile> TL = new ThreadLocal<>();
+
+    private final String name;
+    private final Map<Program, RunProfile> functions;   // shared by every profile of one run
+    private long[] hits;
+    private long[] cycles;
+    private long[] callCycles;
+    private long calls, memoHits, totalCycles;          // as a callee
+
+    /** Profile of a run of p (its functions get theirs as they are called). */
+    public RunProfile(Program p) {
+        this(p.name(), p.instructions().size(), new LinkedHashMap<>());
+    }
+
+    private RunProfile(String name, int lines, Map<Program, RunProfile> functions) {
+        this.name = name;
+        this.functions = functions;
+        this.hits = new long[lines];
+        this.cycles = new long[lines];
+        this.callCycles = new long[lines];
+    }
+
+    public static RunProfile current() { return TL.get(); }
+
+    public static <T> T with(RunProfile profile, Callable<T> body) {
+        var prev = TL.get();
+        TL.set(profile);
+        try { return body.call(); }
+        catch (RuntimeException | Error re) { throw re; }
+        catch (Exception e) { throw new RuntimeException(e); }
+        finally { TL.set(prev); }
+    }
+
+    /**
+     * The instruction at pc ran and charged {@code charged} cycles: {@code own} of its own, the rest
+     * for the calls it made (own is 0 for a step cut short inside a call, it charges itself last).
+     */
+    void count(int pc, long own, long charged) {
+        if (pc >= hits.length) grow(pc + 1);       // lazily expanded programs get longer as they run
+        hits[pc]++;
+        cycles[pc] += own;
+        callCycles[pc] += charged - own;
+    }
+
+    /** The profile the lines of a call of fn (a function of env) are counted in, while it runs. */
+    RunProfile callee(FunctionEnv env, Program fn) {
+        return functions.computeIfAbsent(fn, f -> new RunProfile(env.nameOf(f), f.instructions().size(), functions));
+    }
+
+    /** A call of fn took {@code cycles}; remembered = answered by the memo. */
+    void called(FunctionEnv env, Program fn, long cycles, boolean remembered) {
+        RunProfile f = callee(env, fn);
+        f.calls++;
+        if (remembered) f.memoHits++;
+        f.totalCycles += cycles;
+    }
+
+    private void grow(int min) {
+        int n = Math.max(min, hits.length * 2);
+        hits = Arrays.copyOf(hits, n);
+        cycles = Arrays.copyOf(cycles, n);
+        callCycles = Arrays.copyOf(callCycles, n);
+    }
+
+    public long hits(int pc)       { return pc < hits.length ? hits[pc] : 0; }
+    public long cycles(int pc)     { return pc < cycles.length ? cycles[pc] : 0; }
+    public long callCycles(int pc) { return pc < callCycles.length ? callCycles[pc] : 0; }
+
+    /** Program or (formal) function name. */
+    public String name() { return name; }
+
+    /** Profiles of the functions called during the run, in order of first call. */
+    public Collection<RunProfile> functions() { return functions.values(); }
+
+    /**
+     * The counters as a view with one line per instruction (lines that never ran included),
+     * numbered like the commands of the ProgramView of the same program.
+     */
+    public ProfileView view() {
+        long total = 0;
+        for (int pc = 0; pc < hits.length; pc++) total += cycles[pc] + callCycles[pc];
+        List<ProfileView> fns = new ArrayList<>(functions.size());
+        for (RunProfile f : functions.values()) {
+            fns.add(new ProfileView(f.name, f.calls, f.memoHits, f.totalCycles, f.lines(f.hits.length), List.of()));
+        }
+        return new ProfileView(name, 1, 0, total, lines(hits.length), fns);
+    }
+
+    private List<LineProfile> lines(int n) {
+        List<LineProfile> out = new ArrayList<>(n);
+        for (int pc = 0; pc < n; pc++) out.add(new LineProfile(pc + 1, hits(pc), cycles(pc), callCycles(pc)));
+        return out;
+    }
+}
@@ -0,0 +1,130 @@
+package system.core.exec;
+
+import system.core.model.Instruction;
+import system.core.model.Program;
+import system.core.model.Var;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Var -> register slot mapping for {@link MachineState}.
+ * Computed once per program from {@link Instruction#variablesUsed()}, immutable afterwards
+ * (a state that meets a variable that is not here goes on with a {@link #toBuilder} of its own).
+ *
+ * Slot 0 is always y. Lookups are plain array reads by x / z index, no hashing and no boxing.
+ */
+public final class SlotMap {
+    public static final int Y = 0;
+    private static final SlotMap EMPTY = new Builder().build();
+
+    private final int[] xSlot;   // x index -> slot (-1 = not mapped)
+    private final int[] zSlot;   // z index -> slot (-1 = not mapped)
+    private final Var[] vars;    // slot -> var
+
+    private SlotMap(int[] xSlot, int[] zSlot, Var[] vars) {
+        this.xSlot = xSlot;
+        this.zSlot = zSlot;
+        this.vars = vars;
+    }
+
+    public static SlotMap empty() { return EMPTY; }
+
+    public static SlotMap of(Program p) {
+        Builder b = builder();
+        if (p != null) b.addAll(p);
+        return b.build();
+    }
+
+    public static Builder builder() { return new Builder(); }
+
+    /** @return the slot of v, or -1 if v is not mapped. */
+    public int find(Var v) {
+        return switch (v.type()) {
+            case Y -> Y;
+            case X -> v.index() < xSlot.length ? xSlot[v.index()] : -1;
+            case Z -> v.index() < zSlot.length ? zSlot[v.index()] : -1;
+        };
+    }
+
+    public int size()        { return vars.length; }
+    public Var var(int slot) { return vars[slot]; }
+
+    /** A builder starting from this map: variables added to it get the next slots, existing slots keep their numbers. */
+    public Builder toBuilder() { return new Builder(this); }
+
+    // ---- builder
+
+    public static final class Builder {
+        private int[] xSlot;
+        private int[] zSlot;
+        private final List<Var> vars;
+
+        private Builder() {
+            xSlot = new int[0];
+            zSlot = new int[0];
+            vars = new ArrayList<>();
+            vars.add(Var.y());
+        }
+
+        private Builder(SlotMap from) {
+            xSlot = from.xSlot.clone();
+            zSlot = from.zSlot.clone();
+            vars = new ArrayList<>(Arrays.asList(from.vars));
+        }
+
+        /** @return the slot of v, adding it if needed. */
+        public int add(Var v) {
+            return switch (v.type()) {
+                case Y -> Y;
+                case X -> {
+                    xSlot = ensure(xSlot, v.index());
+                    if (xSlot[v.index()] < 0) xSlot[v.index()] = append(v);
+                    yield xSlot[v.index()];
+                }
+                case Z -> {
+                    zSlot = ensure(zSlot, v.index());
+                    if (zSlot[v.index()] < 0) zSlot[v.index()] = append(v);
+                    yield zSlot[v.index()];
+                }
+            };
+        }
+
+        /** @return the slot of v, or -1 if v is not added (yet). */
+        public int find(Var v) {
+            return switch (v.type()) {
+                case Y -> Y;
+                case X -> v.index() < xSlot.length ? xSlot[v.index()] : -1;
+                case Z -> v.index() < zSlot.length ? zSlot[v.index()] : -1;
+            };
+        }
+
+        public int size()        { return vars.size(); }
+        public Var var(int slot) { return vars.get(slot); }
+
+        public Builder addAll(Program p) {
+            p.forEachDistinct((ins, i) -> {
+                for (Var v : ins.variablesUsed()) add(v);
+            });
+            return this;
+        }
+
+        public SlotMap build() {
+            return new SlotMap(xSlot.clone(), zSlot.clone(), vars.toArray(new Var[0]));
+        }
+
+        private int append(Var v) {
+            vars.add(v);
+            return vars.size() - 1;
+        }
+
+        private static int[] ensure(int[] a, int index) {
+            if (index < a.length) return a;
+            int old = a.length;
+            int[] b = Arrays.copyOf(a, Math.max(index + 1, old * 2));
+            Arrays.fill(b, old, b.length, -1);
+            return b;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package system.core.exec.compiled;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a class file writer for {@link JitCompiler}: one class, one static method.
+ *
+ * The class is written as version 49 (Java 5) on purpose: that version is verified by type
+ * inference, so we do not have to compute StackMapTable frames for every branch target.
+ */
+final class BytecodeWriter {
+
+    // ---- opcodes we emit
+    static final int ICONST_0 = 0x03, ICONST_1 = 0x04, LCONST_0 = 0x09, LCONST_1 = 0x0a;
+    static final int SIPUSH = 0x11, LDC2_W = 0x14;
+    static final int ILOAD = 0x15, LLOAD = 0x16, ALOAD = 0x19, LALOAD = 0x2f, BALOAD = 0x33;
+    static final int ISTORE = 0x36, LSTORE = 0x37, LASTORE = 0x50, BASTORE = 0x54;
+    static final int LADD = 0x61, LSUB = 0x65, LMUL = 0x69, IINC = 0x84, I2L = 0x85, LCMP = 0x94;
+    static final int IFEQ = 0x99, IFNE = 0x9a, IFGT = 0x9d, IFLE = 0x9e, IF_ICMPLT = 0xa1, IFNULL = 0xc6;
+    static final int GOTO = 0xa7, RETURN = 0xb1, INVOKEVIRTUAL = 0xb6, INVOKESTATIC = 0xb8, WIDE = 0xc4;
+
+    private static final int MAJOR_VERSION = 49;
+
+    // ---- constant pool
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    // ---- code of the single method
+    private final ByteArrayOutputStream codeBytes = new ByteArrayOutputStream();
+    private final List<int[]> fixups = new ArrayList<>();   // {offset of the branch opcode, label id}
+    private final List<Integer> labels = new ArrayList<>(); // label id -> bound offset (-1 = not yet)
+
+    // ---------------- constant pool ----------------
+
+    int utf8(String s) {
+        return constant("U" + s, out -> { out.writeByte(1); out.writeUTF(s); }, 1);
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, out -> { out.writeByte(7); out.writeShort(name); }, 1);
+    }
+
+    int longConst(long v) {
+        return constant("J" + v, out -> { out.writeByte(5); out.writeLong(v); }, 2);
+    }
+
+    int methodRef(String owner, String name, String desc) {
+        int cls = classRef(owner);
+        int n = utf8(name);
+        int d = utf8(desc);
+        int nat = constant("N" + name + desc, out -> { out.writeByte(12); out.writeShort(n); out.writeShort(d); }, 1);
+        return constant("M" + owner + "." + name + desc,
+                out -> { out.writeByte(10); out.writeShort(cls); out.writeShort(nat); }, 1);
+    }
+
+    private interface PoolEntry { void write(DataOutputStream out) throws IOException; }
+
+    private int constant(String key, PoolEntry entry, int slots) {
+        Integer idx = poolIndex.get(key);
+        if (idx != null) return idx;
+        try {
+            entry.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        int at = poolCount;
+        poolCount += slots;                 // long / double take two entries
+        poolIndex.put(key, at);
+        return at;
+    }
+
+    // ---------------- code ----------------
+
+    int codeSize() { return codeBytes.size(); }
+
+    void op(int opcode) { codeBytes.write(opcode); }
+
+    void u1(int v) { codeBytes.write(v & 0xff); }
+
+    void u2(int v) { codeBytes.write((v >>> 8) & 0xff); codeBytes.write(v & 0xff); }
+
+    /** load / store with a local index that may not fit in one byte */
+    void local(int opcode, int index) {
+        if (index > 0xff) { op(WIDE); op(opcode); u2(index); }
+        else { op(opcode); u1(index); }
+    }
+
+    /** local += by (by fits in a byte) */
+    void iinc(int index, int by) {
+        if (index > 0xff) { op(WIDE); op(IINC); u2(index); u2(by); }
+        else { op(IINC); u1(index); u1(by); }
+    }
+
+    void pushInt(int v) {
+        if (v == 0) op(ICONST_0);
+        else if (v == 1) op(ICONST_1);
+        else { op(SIPUSH); u2(v); }
+    }
+
+    void pushLong(long v) {
+        if (v == 0) op(LCONST_0);
+        else if (v == 1) op(LCONST_1);
+        else { op(LDC2_W); u2(longConst(v)); }
+    }
+
+    int newLabel() {
+        labels.add(-1);
+        return labels.size() - 1;
+    }
+
+    void bind(int label) { labels.set(label, codeBytes.size()); }
+
+    /** Any 16 bit branch (IFxx / IF_ICMPxx / IFNULL / GOTO) to a label, resolved in {@link #toClassFile}. */
+    void jump(int opcode, int label) {
+        fixups.add(new int[]{codeBytes.size(), label});
+        op(opcode);
+        u2(0);
+    }
+
+    // ---------------- class file ----------------
+
+    /**
+     * @return the class file bytes of {@code public final class className} holding one
+     *         {@code public static} method with the code written so far.
+     */
+    byte[] toClassFile(String className, String methodName, String descriptor, int maxStack, int maxLocals) {
+        byte[] code = codeBytes.toByteArray();
+        for (int[] f : fixups) {
+            int target = labels.get(f[1]);
+            if (target < 0) throw new IllegalStateException("unbound label " + f[1]);
+            int rel = target - f[0];
+            if (rel < Short.MIN_VALUE || rel > Short.MAX_VALUE) throw new IllegalStateException("branch too far");
+            code[f[0] + 1] = (byte) (rel >>> 8);
+            code[f[0] + 2] = (byte) rel;
+        }
+
+        int thisClass = classRef(className);
+        int superClass = classRef("java/lang/Object");
+        int mName = utf8(methodName);
+        int mDesc = utf8(descriptor);
+        int codeAttr = utf8("Code");
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(MAJOR_VERSION);
+            out.writeShort(poolCount);
+            out.write(poolBytes.toByteArray());
+            out.writeShort(0x0001 | 0x0010 | 0x0020);   // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);                          // interfaces
+            out.writeShort(0);                          // fields
+            out.writeShort(1);                          // methods
+            out.writeShort(0x0001 | 0x0008);            // public static
+            out.writeShort(mName);
+            out.writeShort(mDesc);
+            out.writeShort(1);                          // one attribute: Code
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0);                          // exception table
+            out.writeShort(0);                          // code attributes
+            out.writeShort(0);                          // class attributes
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package system.core.exec.compiled;
+
+import system.core.exec.BudgetExhaustedException;
+import system.core.exec.MachineState;
+import system.core.exec.RunBudget;
+import system.core.exec.SelfExecutable;
+import system.core.model.Program;
+
+import java.util.List;
+
+import static system.core.exec.compiled.CompiledProgram.*;
+
+/**
+ * Switch based interpreter for {@link CompiledProgram}.
+ * Same semantics and cycle accounting as {@link system.core.exec.Executor#run(Program, List)},
+ * it just skips the per-step handler map and label lookups. Basic blocks (see CompiledProgram) run
+ * without a budget check or cycle count per op: the block's cycles are added once, the budget is
+ * checked once before it, and only the jump at its end branches. An IF that ends a block (the
+ * most common pair in expanded code, see {@link FusionMiner}) is run right after it, without going
+ * back through the dispatch.
+ *
+ * With loop acceleration on (the default) the counted loops found by {@link LoopAccelerator}
+ * run in O(1) and the sequences {@link Fusion} knows run as one op; turn it off to get the plain
+ * one-op-per-step run for comparison.
+ */
+public final class CompiledExecutor {
+    private final boolean accelerateLoops;
+    private final boolean fuse;
+
+    public CompiledExecutor() { this(true); }
+
+    public CompiledExecutor(boolean accelerateLoops) {
+        this(accelerateLoops, accelerateLoops);
+    }
+
+    /** fuse only counts with accelerateLoops on (fused ops are made on the loop accelerated program). */
+    public CompiledExecutor(boolean accelerateLoops, boolean fuse) {
+        this.accelerateLoops = accelerateLoops;
+        this.fuse = fuse;
+    }
+
+    public boolean acceleratesLoops() { return accelerateLoops; }
+
+    public MachineState run(Program p, List<Long> inputs) {
+        return run(ProgramCompiler.compile(p), inputs);
+    }
+
+    public MachineState run(CompiledProgram cp, List<Long> inputs) {
+        cp = !accelerateLoops ? cp.plain() : fuse ? cp.fused() : cp.loopsAccelerated();
+        return resume(cp, MachineState.init(inputs, cp.slots));
+    }
+
+    /**
+     * Carries on a run of cp, in the form it is given, from st (its registers, pc and cycles): where
+     * {@link JitProgram} leaves off when the budget is about to run out.
+     */
+    static MachineState resume(CompiledProgram cp, MachineState st) {
+        int[] code = cp.code;
+        int[] blockEnd = cp.blockEnd, blockCycles = cp.blockCycles, blockAdds = cp.blockAdds, adds = cp.adds;
+        final CompiledProgram plain = cp.plain();
+        final int[] ext = cp.ext;
+        final long[] consts = cp.consts;
+        final int size = cp.size;
+
+        // fuel: an op that would go past maxCycles is not executed (macro ops fall back to stepping)
+        final RunBudget budget = RunBudget.current();
+        final long maxCycles = (budget == null) ? Long.MAX_VALUE : budget.maxCycles();
+        int clock = 0;
+
+        int pc = st.getPc();
+        long cycles = st.cycles();
+
+        loop:
+        while (pc < size) {
+            final int end = blockEnd[pc];
+            if (end > pc + 1 && (budget == null || cycles + blockCycles[pc] <= maxCycles)) {
+                // the rest of a basic block: the INCs it starts with as additions, then its ops in a row; its cycles in one go
+                int q = pc;
+                int add = blockAdds[pc] - 1;
+                if (add >= 0) {
+                    for (int k = 0, cnt = adds[add + 1]; k < cnt; k++) {
+                        int r = adds[add + 2 + 2 * k];
+                        st.setSlot(r, st.getSlot(r) + adds[add + 3 + 2 * k]);
+                    }
+                    q += adds[add];
+                }
+                for (; q < end; q++) {
+                    final int qa = q * STRIDE;
+                    final int r = code[qa + A];
+                    switch (code[qa + OP]) {
+                        case OP_INC -> st.setSlot(r, st.getSlot(r) + 1);
+                        case OP_DEC -> {
+                            long before = st.getSlot(r);
+                            if (before > 0) st.setSlot(r, before - 1);
+                        }
+                        case OP_ZERO -> st.setSlot(r, 0);
+                        case OP_ASSIGN -> st.setSlot(r, st.getSlot(code[qa + B]));
+                        case OP_CONST -> st.setSlot(r, consts[q]);
+                        default -> { }                    // NOP
+                    }
+                }
+                cycles += blockCycles[pc];
+                clock += end - pc;
+                pc = end;
+                if (budget != null && clock >= RunBudget.CLOCK_EVERY) {
+                    clock = 0;
+                    if (budget.pastDeadline()) throw exhausted(RunBudget.Reason.TIME, st, pc, cycles);
+                }
+                if (pc < size && code[pc * STRIDE + OP] == OP_JNZ
+                        && (budget == null || cycles + code[pc * STRIDE + CYC] <= maxCycles)) {
+                    final int ja = pc * STRIDE;
+                    clock++;
+                    cycles += code[ja + CYC];
+                    if (st.getSlot(code[ja + A]) != 0) {
+                        int to = code[ja + T];
+                        if (to == HALT) { st.halt(); break loop; }
+                        pc = to;
+                    } else {
+                        pc++;
+                    }
+                }
+                continue;
+            }
+
+            final int at = pc * STRIDE;
+            final int op = code[at + OP];
+            if (budget != null) {
+                if (++clock >= RunBudget.CLOCK_EVERY) {
+                    clock = 0;
+                    if (budget.pastDeadline()) throw exhausted(RunBudget.Reason.TIME, st, pc, cycles);
+                }
+                if (op != OP_LOOP && op != OP_LOOP_TOP && cycles + code[at + CYC] > maxCycles) {
+                    throw exhausted(RunBudget.Reason.CYCLES, st, pc, cycles);
+                }
+            }
+            switch (op) {
+                case OP_INC -> {
+                    int r = code[at + A];
+                    st.setSlot(r, st.getSlot(r) + 1);
+                    cycles += code[at + CYC];
+                    pc++;
+                }
+                case OP_DEC -> {
+                    int r = code[at + A];
+                    long before = st.getSlot(r);
+                    if (before > 0) st.setSlot(r, before - 1);
+                    cycles += code[at + CYC];
+                    pc++;
+                }
+                case OP_NOP -> {
+                    cycles += code[at + CYC];
+                    pc++;
+                }
+                case OP_JNZ -> {
+                    cycles += code[at + CYC];
+                    if (st.getSlot(code[at + A]) != 0) {
+                        int to = code[at + T];
+                        if (to == HALT) { st.halt(); break loop; }
+                        pc = to;
+                    } else {
+                        pc++;
+                    }
+                }
+                case OP_ZERO -> {
+                    st.setSlot(code[at + A], 0);
+                    cycles += code[at + CYC];
+                    pc++;
+                }
+                case OP_GOTO -> {
+                    cycles += code[at + CYC];
+                    int to = code[at + T];
+                    if (to == HALT) { st.halt(); break loop; }
+                    pc = to;
+                }
+                case OP_ASSIGN -> {
+                    st.setSlot(code[at + A], st.getSlot(code[at + B]));
+                    cycles += code[at + CYC];
+                    pc++;
+                }
+                case OP_CONST -> {
+                    st.setSlot(code[at + A], consts[pc]);
+                    cycles += code[at + CYC];
+                    pc++;
+                }
+                case OP_JZ -> {
+                    cycles += code[at + CYC];
+                    if (st.getSlot(code[at + A]) == 0) {
+                        int to = code[at + T];
+                        if (to == HALT) { st.halt(); break loop; }
+                        pc = to;
+                    } else {
+                        pc++;
+                    }
+                }
+                case OP_JEQC -> {
+                    cycles += code[at + CYC];
+                    if (st.getSlot(code[at + A]) == consts[pc]) {
+                        int to = code[at + T];
+                        if (to == HALT) { st.halt(); break loop; }
+                        pc = to;
+                    } else {
+                        pc++;
+                    }
+                }
+                case OP_JEQV -> {
+                    cycles += code[at + CYC];
+                    if (st.getSlot(code[at + A]) == st.getSlot(code[at + B])) {
+                        int to = code[at + T];
+                        if (to == HALT) { st.halt(); break loop; }
+                        pc = to;
+                    } else {
+                        pc++;
+                    }
+                }
+                case OP_CALL -> {
+                    // hand the machine over to the instruction (QUOTE etc. run nested programs themselves)
+                    st.jumpTo(pc);
+                    st.setCycles(cycles);
+                    try {
+                        ((SelfExecutable) cp.instructions[pc]).executeSelf(st, cp.labels);
+                    } catch (BudgetExhaustedException e) {
+                        throw e.at(st);
+                    }
+                    pc = st.getPc();
+                    cycles = st.cycles();
+                    if (st.isHalted()) break loop;
+                }
+                case OP_LOOP -> {
+                    // n rounds of the body; with n = 0 the body still runs once (DEC does nothing, the test falls through)
+                    int r = code[at + A];
+                    long n = st.getSlot(r);
+                    long rounds = Math.max(1L, n);
+                    int e = code[at + B];
+                    if (cycles + rounds * code[at + CYC] > maxCycles) {
+                        cycles += fitRounds(st, ext, e, r, n, code[at + CYC], maxCycles - cycles);
+                        code = plain.code;
+                        blockEnd = plain.blockEnd;
+                        blockCycles = plain.blockCycles;
+                        blockAdds = plain.blockAdds;
+                        adds = plain.adds;
+                        continue;
+                    }
+                    if (n > 0) st.setSlot(r, 0);
+                    for (int k = 0, cnt = ext[e]; k < cnt; k++) {
+                        int b = ext[e + 2 + k];
+                        st.setSlot(b, st.getSlot(b) + rounds);
+                    }
+                    cycles += rounds * code[at + CYC];
+                    pc = code[at + T];
+                }
+                case OP_LOOP_TOP -> {
+                    // n full rounds, then the test is taken once more
+                    int r = code[at + A];
+                    long n = st.getSlot(r);
+                    int e = code[at + B];
+                    if (cycles + n * code[at + CYC] + ext[e + 1] > maxCycles) {
+                        cycles += fitRounds(st, ext, e, r, n, code[at + CYC], maxCycles - cycles);
+                        code = plain.code;
+                        blockEnd = plain.blockEnd;
+                        blockCycles = plain.blockCycles;
+                        blockAdds = plain.blockAdds;
+                        adds = plain.adds;
+                        continue;
+                    }
+                    if (n > 0) {
+                        st.setSlot(r, 0);
+                        for (int k = 0, cnt = ext[e]; k < cnt; k++) {
+                            int b = ext[e + 2 + k];
+                            st.setSlot(b, st.getSlot(b) + n);
+                        }
+                    }
+                    cycles += n * code[at + CYC] + ext[e + 1];
+                    int to = code[at + T];
+                    if (to == HALT) { st.halt(); break loop; }
+                    pc = to;
+                }
+                case OP_INC_JNZ -> {
+                    int r = code[at + A];
+                    st.setSlot(r, st.getSlot(r) + 1);
+                    cycles += code[at + CYC];
+                    if (cycles + code[at + B] > maxCycles) throw exhausted(RunBudget.Reason.CYCLES, st, pc + 1, cycles);
+                    cycles += code[at + B];
+                    if (st.getSlot(r) == 0) { pc += 2; continue; }
+                    int to = code[at + T];
+                    if (to == HALT) { pc++; st.halt(); break loop; }
+                    pc = to;
+                }
+                case OP_JZ_VIA -> {
+                    // the head IF (to the skip target) as usual; the rest only when it is not taken
+                    cycles += code[at + CYC];
+                    if (st.getSlot(code[at + A]) != 0) {
+                        pc = code[at + T];
+                        continue;
+                    }
+                    int e = code[at + B];
+                    int counter = ext[e];
+                    if (cycles + ext[e + 2] > maxCycles) throw exhausted(RunBudget.Reason.CYCLES, st, pc + 1, cycles);
+                    cycles += ext[e + 2];
+                    if (counter >= 0) {
+                        st.setSlot(counter, st.getSlot(counter) + 1);
+                        if (cycles + ext[e + 3] > maxCycles) throw exhausted(RunBudget.Reason.CYCLES, st, pc + 2, cycles);
+                        cycles += ext[e + 3];
+                        if (st.getSlot(counter) == 0) { pc += 3; continue; }
+                        pc += 2;
+                    } else {
+                        pc++;
+                    }
+                    int to = ext[e + 1];
+                    if (to == HALT) { st.halt(); break loop; }
+                    pc = to;
+                }
+                case OP_JNZ_JNZ -> {
+                    cycles += code[at + CYC];
+                    int to = code[at + T];
+                    if (st.getSlot(code[at + A]) == 0) {
+                        int e = code[at + B];
+                        if (cycles + ext[e + 2] > maxCycles) throw exhausted(RunBudget.Reason.CYCLES, st, pc + 1, cycles);
+                        cycles += ext[e + 2];
+                        if (st.getSlot(ext[e]) == 0) { pc += 2; continue; }
+                        pc++;
+                        to = ext[e + 1];
+                    }
+                    if (to == HALT) { st.halt(); break loop; }
+                    pc = to;
+                }
+                default -> throw new IllegalStateException("No handler for "
+                        + cp.instructions[pc].getClass().getName()
+                        + " (either add a handler or implement SelfExecutable)");
+            }
+        }
+
+        st.jumpTo(pc);
+        st.setCycles(cycles);
+        return st;
+    }
+
+    /**
+     * A loop macro that does not fit in the budget: apply the rounds that surely fit (the state is then
+     * exactly the one stepping would reach at the loop head), the caller steps the rest op by op and
+     * stops where the interpreter would.
+     * @return cycles of the applied rounds
+     */
+    private static long fitRounds(MachineState st, int[] ext, int e, int r, long n, long perIteration, long room) {
+        long fit = (perIteration > 0) ? room / perIteration - 1 : 0;
+        if (fit <= 0 || fit >= n) return 0;
+        st.setSlot(r, n - fit);
+        for (int k = 0, cnt = ext[e]; k < cnt; k++) {
+            int b = ext[e + 2 + k];
+            st.setSlot(b, st.getSlot(b) + fit);
+        }
+        return fit * perIteration;
+    }
+
+    private static BudgetExhaustedException exhausted(RunBudget.Reason why, MachineState st, int pc, long cycles) {
+        st.jumpTo(pc);
+        st.setCycles(cycles);
+        return new BudgetExhaustedException(why, st);
+    }
+}
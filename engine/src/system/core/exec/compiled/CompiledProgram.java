@@ -0,0 +1,199 @@
+package system.core.exec.compiled;
+
+import system.core.exec.JumpResolver;
+import system.core.exec.SlotMap;
+import system.core.model.Instruction;
+import system.core.model.Program;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Flat, pre-resolved form of a {@link Program}.
+ *
+ * Every instruction takes {@link #STRIDE} ints in {@link #code}:
+ *   [pc*STRIDE + OP]  opcode (one of the OP_* constants)
+ *   [pc*STRIDE + A]   first operand  (register slot, see {@link #slots})
+ *   [pc*STRIDE + B]   second operand (register slot)
+ *   [pc*STRIDE + T]   jump target, already resolved to an instruction index (or {@link #HALT})
+ *   [pc*STRIDE + CYC] cycles charged by the instruction
+ *
+ * Constants (ConstantAssignment / JumpEqualConstant) live in {@link #consts} at the same pc.
+ * Variable length operands (of the loop macro ops and fused ops) live in {@link #ext}.
+ *
+ * The code is also cut in basic blocks: runs of straight-line ops (see {@link #straight}) that no
+ * jump lands inside of. For every pc, {@link #blockEnd} is where its block ends and {@link #blockCycles}
+ * what the rest of the block costs from there, so a block is charged with one addition whether it is
+ * entered at its first op or (after a QUOTE, or a budget fallback) in the middle. The INCs (and
+ * NOPs) a block starts with are also kept as what they add to each register ({@link #blockAdds}).
+ * Built once by {@link ProgramCompiler}, read-only afterwards, so it can be shared between threads.
+ */
+public final class CompiledProgram {
+
+    // ---- layout of one instruction
+    public static final int STRIDE = 5;
+    public static final int OP = 0, A = 1, B = 2, T = 3, CYC = 4;
+
+    /** Jump target meaning "stop the machine" (EXIT or a label that does not exist). */
+    public static final int HALT = -1;
+
+    // ---- opcodes
+    public static final int OP_INC    = 0;
+    public static final int OP_DEC    = 1;
+    public static final int OP_NOP    = 2;
+    public static final int OP_JNZ    = 3;   // IF a != 0 GOTO t
+    public static final int OP_ZERO   = 4;   // a <- 0
+    public static final int OP_GOTO   = 5;   // GOTO t
+    public static final int OP_ASSIGN = 6;   // a <- b
+    public static final int OP_CONST  = 7;   // a <- k
+    public static final int OP_JZ     = 8;   // IF a = 0 GOTO t
+    public static final int OP_JEQC   = 9;   // IF a = k GOTO t
+    public static final int OP_JEQV  = 10;   // IF a = b GOTO t
+    public static final int OP_CALL  = 11;   // SelfExecutable (QUOTE, JUMP_EQUAL_FUNCTION ...), runs itself
+    public static final int OP_FAIL  = 12;   // no handler, fails only when reached (same as Executor)
+
+    // macro ops written by LoopAccelerator over the head of a recognised loop
+    // (the body instructions stay in place, only the head is replaced)
+    public static final int OP_LOOP     = 13; // L: a--, b1++ .. bk++, IF a != 0 GOTO L
+    public static final int OP_LOOP_TOP = 14; // L: IF a = 0 GOTO t, a--, b1++ .. bk++, GOTO L
+
+    // fused ops written by Fusion over the head of a common sequence (the rest stays in place too)
+    public static final int OP_INC_JNZ = 15;  // a++, IF a != 0 GOTO t
+    public static final int OP_JZ_VIA  = 16;  // IF a = 0 GOTO t, through a GOTO or a counter b
+    public static final int OP_JNZ_JNZ = 17;  // IF a != 0 GOTO t, IF b != 0 GOTO t2
+
+    final Program source;
+    final int size;
+    final int[] code;
+    final long[] consts;
+    final SlotMap slots;
+    final Instruction[] instructions;   // original instructions, used by OP_CALL / OP_FAIL
+    final JumpResolver labels;          // still needed by self-executing instructions
+    final int[] ext;
+    final int[] blockEnd;               // per pc: first pc after its block (pc itself if op is not straight)
+    final int[] blockCycles;            // per pc: cycles of pc .. blockEnd - 1
+    final int[] blockAdds;              // per block start: 1 + index in adds if it starts with INCs, else 0
+    final int[] adds;                   // lines, k, slot1, n1 .. slotk, nk: what those lines add to which register
+    final CompiledProgram plain;        // same program without macro ops (this, if there are none)
+    private volatile CompiledProgram loopsAccelerated;
+    private volatile CompiledProgram fused;
+
+    CompiledProgram(Program source, int[] code, long[] consts, SlotMap slots,
+                    Instruction[] instructions, JumpResolver labels) {
+        this(source, code, consts, slots, instructions, labels, new int[0], null);
+    }
+
+    CompiledProgram(Program source, int[] code, long[] consts, SlotMap slots,
+                    Instruction[] instructions, JumpResolver labels, int[] ext, CompiledProgram plain) {
+        this.source = source;
+        this.size = instructions.length;
+        this.code = code;
+        this.consts = consts;
+        this.slots = slots;
+        this.instructions = instructions;
+        this.labels = labels;
+        this.ext = ext;
+        this.plain = (plain == null) ? this : plain;
+        this.blockEnd = new int[size];
+        this.blockCycles = new int[size];
+        this.blockAdds = new int[size];
+        findBlocks();
+        this.adds = findAdds();
+    }
+
+    /** Ops that always go on to pc + 1 at their fixed cost; a basic block is a run of them. */
+    static boolean straight(int op) {
+        return op == OP_INC || op == OP_DEC || op == OP_NOP || op == OP_ZERO || op == OP_ASSIGN || op == OP_CONST;
+    }
+
+    // a block starts at pc 0, at every jump target and after every other op; a block whose cost
+    // would not fit in an int is cut (only with made-up cycle counts)
+    private void findBlocks() {
+        boolean[] starts = new boolean[size + 1];
+        starts[0] = true;
+        for (int pc = 0; pc < size; pc++) {
+            int at = pc * STRIDE;
+            if (straight(code[at + OP])) continue;
+            starts[pc + 1] = true;
+            int to = code[at + T];
+            if (to >= 0 && to < size) starts[to] = true;
+        }
+        for (int pc = size - 1; pc >= 0; pc--) {
+            int at = pc * STRIDE;
+            if (!straight(code[at + OP])) {
+                blockEnd[pc] = pc;
+                continue;
+            }
+            long cost = code[at + CYC];
+            boolean joins = pc + 1 < size && !starts[pc + 1] && blockEnd[pc + 1] > pc + 1;
+            if (joins && cost + blockCycles[pc + 1] <= Integer.MAX_VALUE) {
+                blockEnd[pc] = blockEnd[pc + 1];
+                blockCycles[pc] = (int) (cost + blockCycles[pc + 1]);
+            } else {
+                blockEnd[pc] = pc + 1;
+                blockCycles[pc] = (int) cost;
+                starts[pc + 1] = true;
+            }
+        }
+    }
+
+    // blocks that start with a row of INC / NOP (a big constant, counters): each register's count,
+    // so that row is a few additions instead of one op per line
+    private int[] findAdds() {
+        List<Integer> out = new ArrayList<>();
+        Map<Integer, Integer> counts = new TreeMap<>();
+        for (int pc = 0; pc < size; pc = Math.max(pc + 1, blockEnd[pc])) {
+            int end = blockEnd[pc];
+            counts.clear();
+            int q = pc;
+            for (; q < end; q++) {
+                int op = code[q * STRIDE + OP];
+                if (op == OP_INC) counts.merge(code[q * STRIDE + A], 1, Integer::sum);
+                else if (op != OP_NOP) break;
+            }
+            if (counts.size() >= q - pc) continue;       // as many registers as lines: nothing saved
+            blockAdds[pc] = out.size() + 1;
+            out.add(q - pc);
+            out.add(counts.size());
+            counts.forEach((slot, n) -> { out.add(slot); out.add(n); });
+        }
+        int[] a = new int[out.size()];
+        for (int i = 0; i < a.length; i++) a[i] = out.get(i);
+        return a;
+    }
+
+    /** True if a basic block starts at pc: jumps only land on these. */
+    boolean blockStart(int pc) {
+        return pc == 0 || blockEnd[pc - 1] != blockEnd[pc] || blockEnd[pc] == pc;
+    }
+
+    public Program source() { return source; }
+    public int size()       { return size; }
+    public SlotMap slots()  { return slots; }
+
+    /** True if LoopAccelerator (and maybe Fusion) already patched this program. */
+    public boolean accelerated() { return plain != this; }
+
+    /** The program as the compiler produced it (one op per instruction, no macro ops). */
+    public CompiledProgram plain() { return plain; }
+
+    /** This program with LoopAccelerator applied (computed once, then reused). */
+    public CompiledProgram loopsAccelerated() {
+        if (accelerated()) return plain.loopsAccelerated();
+        CompiledProgram a = loopsAccelerated;
+        if (a == null) loopsAccelerated = a = LoopAccelerator.apply(this);
+        return a;
+    }
+
+    /** This program with LoopAccelerator and then Fusion applied (computed once, then reused). */
+    public CompiledProgram fused() {
+        if (accelerated()) return plain.fused();
+        CompiledProgram f = fused;
+        if (f == null) fused = f = Fusion.apply(loopsAccelerated());
+        return f;
+    }
+
+    public int opAt(int pc) { return code[pc * STRIDE + OP]; }
+}
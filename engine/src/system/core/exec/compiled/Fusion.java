@@ -0,0 +1,99 @@
+package system.core.exec.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static system.core.exec.compiled.CompiledProgram.*;
+
+/**
+ * Superinstructions: replaces the head of the op sequences expansion leaves all over a program
+ * with one fused op, so the interpreter dispatches once where it dispatched two or three times.
+ * Which sequences are worth it comes from {@link FusionMiner} runs over program corpora:
+ *
+ *   OP_INC_JNZ   GOTO L at degree 0:            a <- a + 1; IF a != 0 GOTO L
+ *   OP_JZ_VIA    JUMP_ZERO a L, one level down:  IF a != 0 GOTO S; GOTO L; S:
+ *                and at degree 0:                IF a != 0 GOTO S; b <- b + 1; IF b != 0 GOTO L; S:
+ *   OP_JNZ_JNZ   two tests in a row:             IF a != 0 GOTO L1; IF b != 0 GOTO L2
+ *
+ * Runs on the loop accelerated program. As there, only the head op is replaced and the rest stays
+ * in place, so jumping into the middle of a sequence steps it op by op. A fused op keeps the A, T
+ * and CYC of its head op (so its first step, the usual hot path, costs what the head op did) and
+ * the rest of the sequence in ext; each op of the sequence is charged and checked against the
+ * budget on its own, so cycles, the pc a halt or an exhausted budget stops on and the state all
+ * come out as stepped. An INC that is not the first op of its basic block is left alone, the block
+ * already runs it without a dispatch.
+ *
+ * B of a fused op:
+ *   OP_INC_JNZ:  cycles of the IF
+ *   OP_JZ_VIA:   index in ext of  b (or -1 for the GOTO form), L, cycles of the second and third op
+ *   OP_JNZ_JNZ:  index in ext of  b, L2, cycles of the second IF
+ */
+public final class Fusion {
+    private Fusion() {}
+
+    public static CompiledProgram apply(CompiledProgram cp) {
+        int[] code = cp.code.clone();
+        List<Integer> ext = new ArrayList<>();
+        for (int e : cp.ext) ext.add(e);
+
+        boolean any = false;
+        for (int pc = 0; pc + 1 < cp.size; pc++) {
+            int op = cp.code[pc * STRIDE + OP];
+            if (op == OP_JNZ) any |= matchJumpZero(cp, pc, code, ext) || matchTwoTests(cp, pc, code, ext);
+            else if (op == OP_INC && cp.blockStart(pc)) any |= matchGoto(cp, pc, code);
+        }
+        if (!any) return cp;
+
+        int[] extArr = new int[ext.size()];
+        for (int i = 0; i < extArr.length; i++) extArr[i] = ext.get(i);
+        return new CompiledProgram(cp.source, code, cp.consts, cp.slots, cp.instructions, cp.labels, extArr, cp.plain);
+    }
+
+    private static boolean matchGoto(CompiledProgram cp, int head, int[] code) {
+        int[] c = cp.code;
+        int at = head * STRIDE, next = at + STRIDE;
+        if (c[next + OP] != OP_JNZ || c[next + A] != c[at + A]) return false;
+
+        code[at + OP] = OP_INC_JNZ;
+        code[at + B] = c[next + CYC];
+        code[at + T] = c[next + T];
+        return true;
+    }
+
+    private static boolean matchJumpZero(CompiledProgram cp, int head, int[] code, List<Integer> ext) {
+        int[] c = cp.code;
+        int at = head * STRIDE, next = at + STRIDE, third = next + STRIDE;
+        int skip = c[at + T];
+        if (skip == head + 2 && c[next + OP] == OP_GOTO) {
+            code[at + B] = ext.size();
+            ext.add(-1);
+            ext.add(c[next + T]);
+            ext.add(c[next + CYC]);
+            ext.add(0);
+        } else if (skip == head + 3 && c[next + OP] == OP_INC
+                && c[third + OP] == OP_JNZ && c[third + A] == c[next + A]) {
+            code[at + B] = ext.size();
+            ext.add(c[next + A]);
+            ext.add(c[third + T]);
+            ext.add(c[next + CYC]);
+            ext.add(c[third + CYC]);
+        } else {
+            return false;
+        }
+        code[at + OP] = OP_JZ_VIA;
+        return true;
+    }
+
+    private static boolean matchTwoTests(CompiledProgram cp, int head, int[] code, List<Integer> ext) {
+        int[] c = cp.code;
+        int at = head * STRIDE, next = at + STRIDE;
+        if (c[next + OP] != OP_JNZ) return false;
+
+        code[at + OP] = OP_JNZ_JNZ;
+        code[at + B] = ext.size();
+        ext.add(c[next + A]);
+        ext.add(c[next + T]);
+        ext.add(c[next + CYC]);
+        return true;
+    }
+}
@@ -0,0 +1,139 @@
+package system.core.exec.compiled;
+
+import system.core.exec.FunctionEnv;
+import system.core.expand.ExpanderImpl;
+import system.core.io.ProgramLoader;
+import system.core.io.ProgramLoaderJaxb;
+import system.core.model.Program;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static system.core.exec.compiled.CompiledProgram.*;
+
+/**
+ * Counts the op sequences (n-grams) that compiled programs are made of, to see which ones are
+ * worth a fused op in {@link Fusion}.
+ *
+ *   java system.core.exec.compiled.FusionMiner [-n 2,3,4] [-top 25] [-degree d] file-or-dir ...
+ *
+ * Every .xml program found is expanded to each degree up to -degree (default: its max degree),
+ * compiled with loop acceleration, and every window of n ops is counted by its shape: opcodes,
+ * registers by order of first use (a, b, c ...) and jump targets relative to the window
+ * (+k inside or just after it, "out" elsewhere, "exit" for HALT). Windows with a LOOP macro
+ * op in them are skipped, those are LoopAccelerator's.
+ */
+public final class FusionMiner {
+    private FusionMiner() {}
+
+    private static final String[] NAMES = {
+            "INC", "DEC", "NOP", "JNZ", "ZERO", "GOTO", "ASSIGN", "CONST", "JZ", "JEQC", "JEQV",
+            "CALL", "FAIL", "LOOP", "LOOP_TOP", "INC_JNZ", "JZ_VIA", "JNZ_JNZ"
+    };
+
+    public static void main(String[] args) throws IOException {
+        int[] ns = {2, 3, 4};
+        int top = 25;
+        int degree = -1;
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-n" -> ns = Stream.of(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                case "-top" -> top = Integer.parseInt(args[++i]);
+                case "-degree" -> degree = Integer.parseInt(args[++i]);
+                default -> {
+                    try (Stream<Path> s = Files.walk(Path.of(args[i]))) {
+                        s.filter(f -> f.toString().endsWith(".xml")).sorted().forEach(files::add);
+                    }
+                }
+            }
+        }
+
+        List<Map<String, Long>> counts = new ArrayList<>();
+        for (int n : ns) counts.add(new HashMap<>());
+        int programs = 0;
+        for (Path f : files) {
+            ProgramLoader.LoadOutcome out = new ProgramLoaderJaxb().load(f);
+            if (!out.ok()) {
+                System.err.println("skipped " + f + ": " + out.errors());
+                continue;
+            }
+            for (CompiledProgram cp : expansions(out.program(), out.functions(), degree)) {
+                for (int k = 0; k < ns.length; k++) count(cp, ns[k], counts.get(k));
+            }
+            programs++;
+        }
+
+        System.out.printf("%d programs%n", programs);
+        for (int k = 0; k < ns.length; k++) {
+            System.out.printf("%n%d-grams%n", ns[k]);
+            counts.get(k).entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
+                    .limit(top)
+                    .forEach(e -> System.out.printf("%10d  %s%n", e.getValue(), e.getKey()));
+        }
+    }
+
+    /** The program compiled (loops accelerated) at every degree from 0 up to maxDegree (all, if negative). */
+    public static List<CompiledProgram> expansions(Program p, Map<String, Program> functions, int maxDegree) {
+        return FunctionEnv.with(new FunctionEnv(functions), () -> {
+            ExpanderImpl expander = new ExpanderImpl();
+            int max = expander.maxDegree(p);
+            if (maxDegree >= 0) max = Math.min(max, maxDegree);
+            List<CompiledProgram> out = new ArrayList<>();
+            for (int d = 0; d <= max; d++) {
+                Program at = (d == 0) ? p : expander.expandToDegree(p, d);
+                out.add(ProgramCompiler.compile(at).loopsAccelerated());
+            }
+            return out;
+        });
+    }
+
+    /** Adds every window of n ops of cp to counts, by shape. */
+    public static void count(CompiledProgram cp, int n, Map<String, Long> counts) {
+        for (int pc = 0; pc + n <= cp.size; pc++) {
+            String s = shape(cp, pc, n);
+            if (s != null) counts.merge(s, 1L, Long::sum);
+        }
+    }
+
+    /** Shape of the n ops at pc (see the class comment); null if a loop macro op is among them. */
+    public static String shape(CompiledProgram cp, int pc, int n) {
+        int[] c = cp.code;
+        Map<Integer, Character> regs = new HashMap<>();
+        StringBuilder sb = new StringBuilder();
+        for (int q = pc; q < pc + n; q++) {
+            int at = q * STRIDE;
+            int op = c[at + OP];
+            if (op == OP_LOOP || op == OP_LOOP_TOP) return null;
+            if (q > pc) sb.append(" ; ");
+            sb.append(NAMES[op]);
+            switch (op) {
+                case OP_INC, OP_DEC, OP_ZERO, OP_CONST -> sb.append(' ').append(reg(regs, c[at + A]));
+                case OP_ASSIGN -> sb.append(' ').append(reg(regs, c[at + A])).append(' ').append(reg(regs, c[at + B]));
+                case OP_JNZ, OP_JZ, OP_JEQC -> sb.append(' ').append(reg(regs, c[at + A]))
+                        .append(' ').append(target(c[at + T], pc, n));
+                case OP_JEQV -> sb.append(' ').append(reg(regs, c[at + A])).append(' ').append(reg(regs, c[at + B]))
+                        .append(' ').append(target(c[at + T], pc, n));
+                case OP_GOTO -> sb.append(' ').append(target(c[at + T], pc, n));
+                default -> { }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static char reg(Map<Integer, Character> regs, int slot) {
+        return regs.computeIfAbsent(slot, s -> (char) ('a' + regs.size()));
+    }
+
+    private static String target(int to, int pc, int n) {
+        if (to == HALT) return "exit";
+        return (to >= pc && to <= pc + n) ? "+" + (to - pc) : "out";
+    }
+}
@@ -0,0 +1,316 @@
+package system.core.exec.compiled;
+
+import system.core.exec.RunBudget;
+import system.core.model.Program;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+
+import static system.core.exec.compiled.BytecodeWriter.*;
+import static system.core.exec.compiled.CompiledProgram.*;
+
+/**
+ * Top tier: turns a {@link CompiledProgram} into a JVM class so HotSpot optimises the S program itself.
+ *
+ * Every register becomes a long local, every instruction index gets a branch target and the
+ * loop macro ops of {@link LoopAccelerator} become straight arithmetic. Cycles are added once per
+ * basic block of the CompiledProgram, not per instruction. The class is defined as a
+ * hidden class (not strongly linked to our loader), so it is unloaded together with the
+ * {@link JitProgram} that holds it.
+ *
+ * Fuel is checked on the way into loops (targets of a jump back) and at the loop macro ops, not per
+ * block: from one loop head to the next the pc only goes forward, so that stretch costs at most the
+ * cycles of all the program's ops together (the slack, the macro ops aside). Once fewer than that are
+ * left the method stops with out[2] = {@link #STOP_CYCLES} and the caller steps on from there to
+ * where the budget really runs out (see {@link JitProgram#run}). The clock is looked at on the way
+ * into loops too, every {@link RunBudget#CLOCK_EVERY} rounds.
+ *
+ * Generated method:  static void run(long[] regs, boolean[] written, long[] out, RunBudget budget, long maxCycles)
+ *   regs / written are the register file in and out, out = {cycles, pc, stop}, where stop is
+ *   0 (ran off the end), {@link #STOP_HALTED}, {@link #STOP_CYCLES} or {@link #STOP_TIME}.
+ *   budget may be null (no clock to look at).
+ *
+ * Programs that still have self executing instructions (QUOTE, JUMP_EQUAL_FUNCTION) or that do
+ * not fit in one JVM method are not compiled, {@link #compile} returns null for them.
+ */
+public final class JitCompiler {
+    private JitCompiler() {}
+
+    static final String METHOD = "run";
+    static final MethodType TYPE = MethodType.methodType(void.class, long[].class, boolean[].class, long[].class,
+            RunBudget.class, long.class);
+    private static final String CLASS_NAME = "system/core/exec/compiled/JitCode";
+
+    // how the generated method stopped (out[2])
+    static final int STOP_HALTED = 1, STOP_CYCLES = 2, STOP_TIME = 3;
+
+    // locals of the generated method
+    private static final int L_REGS = 0, L_WRITTEN = 1, L_OUT = 2, L_BUDGET = 3;
+    private static final int L_MAX_CYCLES = 4;   // long
+    private static final int L_CYCLES = 6;       // long
+    private static final int L_PC = 8, L_STOP = 9, L_CLOCK = 10;
+    private static final int L_LIMIT = 11;       // long: maxCycles - slack
+    private static final int L_TMP = 13;         // long
+    private static final int L_FIRST_REG = 15;
+
+    private static final int MAX_SLOTS = 10_000; // keeps every local index (and sipush) in range
+    private static final int MAX_CODE = 65_535;
+
+    public static JitProgram compile(Program p) {
+        return compile(ProgramCompiler.compile(p));
+    }
+
+    /** @return the compiled program, or null if this program cannot go to bytecode. */
+    public static JitProgram compile(CompiledProgram cp) {
+        cp = cp.loopsAccelerated();
+        int slotCount = cp.slots.size();
+        if (slotCount > MAX_SLOTS || cp.size > Short.MAX_VALUE) return null;
+        for (int pc = 0; pc < cp.size; pc++) {
+            int op = cp.code[pc * STRIDE + OP];
+            if (op == OP_CALL || op == OP_FAIL) return null;
+        }
+
+        try {
+            byte[] bytes = emit(cp, slotCount);
+            if (bytes == null) return null;
+            MethodHandles.Lookup hidden = MethodHandles.lookup().defineHiddenClass(bytes, true);
+            MethodHandle mh = hidden.findStatic(hidden.lookupClass(), METHOD, TYPE);
+            return new JitProgram(cp, slotCount, mh);
+        } catch (IllegalStateException | ReflectiveOperationException | LinkageError e) {
+            return null;   // stays on the interpreter
+        }
+    }
+
+    private static byte[] emit(CompiledProgram cp, int slotCount) {
+        final int[] c = cp.code;
+        final int n = cp.size;
+        BytecodeWriter w = new BytecodeWriter();
+        int flagBase = L_FIRST_REG + 2 * slotCount;
+
+        int[] at = new int[n];
+        for (int pc = 0; pc < n; pc++) at[pc] = w.newLabel();
+        int fellOff = w.newLabel();
+        int end = w.newLabel();
+        List<int[]> stops = new ArrayList<>();       // {label, pc, how}
+        boolean[] loopHead = loopHeads(cp);
+
+        // ---- prologue: registers into locals
+        for (int r = 0; r < slotCount; r++) {
+            w.op(ALOAD); w.u1(L_REGS); w.pushInt(r); w.op(LALOAD); w.local(LSTORE, reg(r));
+            w.op(ALOAD); w.u1(L_WRITTEN); w.pushInt(r); w.op(BALOAD); w.local(ISTORE, flagBase + r);
+        }
+        w.op(LCONST_0); w.local(LSTORE, L_CYCLES);
+        w.op(ICONST_0); w.local(ISTORE, L_STOP);
+        w.op(ICONST_0); w.local(ISTORE, L_CLOCK);
+        w.local(LLOAD, L_MAX_CYCLES); w.pushLong(slack(cp)); w.op(LSUB); w.local(LSTORE, L_LIMIT);
+        w.op(LCONST_0); fits(w, stop(w, stops, 0, STOP_CYCLES));
+
+        // ---- body
+        for (int pc = 0; pc < n; pc++) {
+            w.bind(at[pc]);
+            int i = pc * STRIDE;
+            int a = c[i + A], b = c[i + B], cyc = c[i + CYC];
+            if (loopHead[pc]) {
+                lookAtClock(w, stop(w, stops, pc, STOP_TIME));
+                w.op(LCONST_0); fits(w, stop(w, stops, pc, STOP_CYCLES));
+            }
+            // a basic block is charged once, at its first op (jumps only land on those)
+            if (straight(c[i + OP]) && cp.blockStart(pc)) charge(w, cp.blockCycles[pc]);
+
+            switch (c[i + OP]) {
+                case OP_INC -> {
+                    w.local(LLOAD, reg(a)); w.op(LCONST_1); w.op(LADD); w.local(LSTORE, reg(a));
+                    mark(w, flagBase + a);
+                }
+                case OP_DEC -> {
+                    int skip = w.newLabel();
+                    w.local(LLOAD, reg(a)); w.op(LCONST_0); w.op(LCMP); w.jump(IFLE, skip);
+                    w.local(LLOAD, reg(a)); w.op(LCONST_1); w.op(LSUB); w.local(LSTORE, reg(a));
+                    mark(w, flagBase + a);
+                    w.bind(skip);
+                }
+                case OP_NOP -> { }
+                case OP_JNZ -> {
+                    charge(w, cyc);
+                    w.local(LLOAD, reg(a)); w.op(LCONST_0); w.op(LCMP);
+                    w.jump(IFNE, target(w, c[i + T], pc, n, at, fellOff, stops));
+                }
+                case OP_ZERO -> {
+                    w.op(LCONST_0); w.local(LSTORE, reg(a));
+                    mark(w, flagBase + a);
+                }
+                case OP_GOTO -> {
+                    charge(w, cyc);
+                    w.jump(GOTO, target(w, c[i + T], pc, n, at, fellOff, stops));
+                }
+                case OP_ASSIGN -> {
+                    w.local(LLOAD, reg(b)); w.local(LSTORE, reg(a));
+                    mark(w, flagBase + a);
+                }
+                case OP_CONST -> {
+                    w.pushLong(cp.consts[pc]); w.local(LSTORE, reg(a));
+                    mark(w, flagBase + a);
+                }
+                case OP_JZ -> {
+                    charge(w, cyc);
+                    w.local(LLOAD, reg(a)); w.op(LCONST_0); w.op(LCMP);
+                    w.jump(IFEQ, target(w, c[i + T], pc, n, at, fellOff, stops));
+                }
+                case OP_JEQC -> {
+                    charge(w, cyc);
+                    w.local(LLOAD, reg(a)); w.pushLong(cp.consts[pc]); w.op(LCMP);
+                    w.jump(IFEQ, target(w, c[i + T], pc, n, at, fellOff, stops));
+                }
+                case OP_JEQV -> {
+                    charge(w, cyc);
+                    w.local(LLOAD, reg(a)); w.local(LLOAD, reg(b)); w.op(LCMP);
+                    w.jump(IFEQ, target(w, c[i + T], pc, n, at, fellOff, stops));
+                }
+                case OP_LOOP -> {
+                    // rounds = max(n, 1); if (n > 0) a = 0; b += rounds; cycles += rounds * perIteration
+                    int e = b;
+                    w.local(LLOAD, reg(a)); w.op(LCONST_1);
+                    w.op(INVOKESTATIC); w.u2(w.methodRef("java/lang/Math", "max", "(JJ)J"));
+                    w.local(LSTORE, L_TMP);
+                    w.local(LLOAD, L_TMP); w.pushLong(cyc); w.op(LMUL);
+                    fits(w, stop(w, stops, pc, STOP_CYCLES));
+                    clearCounter(w, a, flagBase);
+                    addRounds(w, cp.ext, e, flagBase);
+                    w.local(LLOAD, L_CYCLES); w.local(LLOAD, L_TMP); w.pushLong(cyc); w.op(LMUL); w.op(LADD);
+                    w.local(LSTORE, L_CYCLES);
+                    w.jump(GOTO, target(w, c[i + T], pc, n, at, fellOff, stops));
+                }
+                case OP_LOOP_TOP -> {
+                    // rounds = n; if (n > 0) { a = 0; b += n } cycles += n * perIteration + test
+                    int e = b;
+                    int skip = w.newLabel();
+                    w.local(LLOAD, reg(a)); w.local(LSTORE, L_TMP);
+                    w.local(LLOAD, L_TMP); w.pushLong(cyc); w.op(LMUL); w.pushLong(cp.ext[e + 1]); w.op(LADD);
+                    fits(w, stop(w, stops, pc, STOP_CYCLES));
+                    w.local(LLOAD, L_TMP); w.op(LCONST_0); w.op(LCMP); w.jump(IFLE, skip);
+                    w.op(LCONST_0); w.local(LSTORE, reg(a));
+                    mark(w, flagBase + a);
+                    addRounds(w, cp.ext, e, flagBase);
+                    w.bind(skip);
+                    w.local(LLOAD, L_CYCLES); w.local(LLOAD, L_TMP); w.pushLong(cyc); w.op(LMUL); w.op(LADD);
+                    w.pushLong(cp.ext[e + 1]); w.op(LADD);
+                    w.local(LSTORE, L_CYCLES);
+                    w.jump(GOTO, target(w, c[i + T], pc, n, at, fellOff, stops));
+                }
+                default -> throw new IllegalStateException("cannot compile op " + c[i + OP]);
+            }
+        }
+
+        // ---- ran past the last instruction
+        w.bind(fellOff);
+        w.pushInt(n); w.local(ISTORE, L_PC);
+        w.jump(GOTO, end);
+
+        // ---- halting jumps and the budget running out: remember where and how we stopped
+        for (int[] stub : stops) {
+            w.bind(stub[0]);
+            w.pushInt(stub[1]); w.local(ISTORE, L_PC);
+            w.pushInt(stub[2]); w.local(ISTORE, L_STOP);
+            w.jump(GOTO, end);
+        }
+
+        // ---- epilogue: locals back into the register file
+        w.bind(end);
+        for (int r = 0; r < slotCount; r++) {
+            w.op(ALOAD); w.u1(L_REGS); w.pushInt(r); w.local(LLOAD, reg(r)); w.op(LASTORE);
+            w.op(ALOAD); w.u1(L_WRITTEN); w.pushInt(r); w.local(ILOAD, flagBase + r); w.op(BASTORE);
+        }
+        w.op(ALOAD); w.u1(L_OUT); w.pushInt(0); w.local(LLOAD, L_CYCLES); w.op(LASTORE);
+        w.op(ALOAD); w.u1(L_OUT); w.pushInt(1); w.local(ILOAD, L_PC); w.op(I2L); w.op(LASTORE);
+        w.op(ALOAD); w.u1(L_OUT); w.pushInt(2); w.local(ILOAD, L_STOP); w.op(I2L); w.op(LASTORE);
+        w.op(RETURN);
+
+        if (w.codeSize() > MAX_CODE) return null;
+        return w.toClassFile(CLASS_NAME, METHOD, TYPE.toMethodDescriptorString(), 8, flagBase + slotCount);
+    }
+
+    private static int reg(int slot) { return L_FIRST_REG + 2 * slot; }
+
+    private static void mark(BytecodeWriter w, int flag) {
+        w.op(ICONST_1); w.local(ISTORE, flag);
+    }
+
+    /** Jump to stop if the long on the stack, as cycles more, would leave less than the slack. */
+    private static void fits(BytecodeWriter w, int stop) {
+        w.local(LLOAD, L_CYCLES); w.op(LADD); w.local(LLOAD, L_LIMIT); w.op(LCMP);
+        w.jump(IFGT, stop);
+    }
+
+    /** Cycles of every op once (loop macro ops: their fixed part), more than any run from a loop head to the next. */
+    private static long slack(CompiledProgram cp) {
+        long sum = 0;
+        for (int pc = 0; pc < cp.size; pc++) {
+            int op = cp.code[pc * STRIDE + OP];
+            if (op != OP_LOOP && op != OP_LOOP_TOP) sum += cp.code[pc * STRIDE + CYC];
+        }
+        return sum;
+    }
+
+    /** Every CLOCK_EVERY times by here, jump to stop if there is a budget and its deadline has passed. */
+    private static void lookAtClock(BytecodeWriter w, int stop) {
+        int skip = w.newLabel();
+        w.op(ALOAD); w.u1(L_BUDGET); w.jump(IFNULL, skip);
+        w.iinc(L_CLOCK, 1);
+        w.local(ILOAD, L_CLOCK); w.pushInt(RunBudget.CLOCK_EVERY); w.jump(IF_ICMPLT, skip);
+        w.op(ICONST_0); w.local(ISTORE, L_CLOCK);
+        w.op(ALOAD); w.u1(L_BUDGET);
+        w.op(INVOKEVIRTUAL); w.u2(w.methodRef("system/core/exec/RunBudget", "pastDeadline", "()Z"));
+        w.jump(IFNE, stop);
+        w.bind(skip);
+    }
+
+    private static int stop(BytecodeWriter w, List<int[]> stops, int pc, int how) {
+        int stub = w.newLabel();
+        stops.add(new int[]{stub, pc, how});
+        return stub;
+    }
+
+    /** Ops some jump goes back to (or stays on): every loop goes through one of them each round. */
+    private static boolean[] loopHeads(CompiledProgram cp) {
+        boolean[] head = new boolean[cp.size];
+        for (int pc = 0; pc < cp.size; pc++) {
+            int i = pc * STRIDE;
+            if (!straight(cp.code[i + OP]) && cp.code[i + OP] != OP_CALL && cp.code[i + OP] != OP_FAIL) {
+                int to = cp.code[i + T];
+                if (to != HALT && to <= pc) head[to] = true;
+            }
+        }
+        return head;
+    }
+
+    private static void charge(BytecodeWriter w, int cycles) {
+        if (cycles == 0) return;
+        w.local(LLOAD, L_CYCLES); w.pushLong(cycles); w.op(LADD); w.local(LSTORE, L_CYCLES);
+    }
+
+    /** if (a > 0) a = 0 (and mark it written) */
+    private static void clearCounter(BytecodeWriter w, int a, int flagBase) {
+        int skip = w.newLabel();
+        w.local(LLOAD, reg(a)); w.op(LCONST_0); w.op(LCMP); w.jump(IFLE, skip);
+        w.op(LCONST_0); w.local(LSTORE, reg(a));
+        mark(w, flagBase + a);
+        w.bind(skip);
+    }
+
+    /** b_k += TMP for every incremented register of a loop macro op */
+    private static void addRounds(BytecodeWriter w, int[] ext, int e, int flagBase) {
+        for (int k = 0; k < ext[e]; k++) {
+            int r = ext[e + 2 + k];
+            w.local(LLOAD, reg(r)); w.local(LLOAD, L_TMP); w.op(LADD); w.local(LSTORE, reg(r));
+            mark(w, flagBase + r);
+        }
+    }
+
+    private static int target(BytecodeWriter w, int to, int pc, int n, int[] at, int fellOff, List<int[]> stops) {
+        if (to == HALT) return stop(w, stops, pc, STOP_HALTED);
+        return (to >= n) ? fellOff : at[to];
+    }
+}
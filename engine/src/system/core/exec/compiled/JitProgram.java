@@ -0,0 +1,65 @@
+package system.core.exec.compiled;
+
+import system.core.exec.BudgetExhaustedException;
+import system.core.exec.MachineState;
+import system.core.exec.RunBudget;
+
+import java.lang.invoke.MethodHandle;
+import java.util.List;
+
+/**
+ * A program compiled to a hidden JVM class by {@link JitCompiler}.
+ * Thread safe: every run gets its own register arrays.
+ */
+public final class JitProgram {
+    private final CompiledProgram compiled;
+    private final int slotCount;
+    private final MethodHandle code;
+
+    JitProgram(CompiledProgram compiled, int slotCount, MethodHandle code) {
+        this.compiled = compiled;
+        this.slotCount = slotCount;
+        this.code = code;
+    }
+
+    public CompiledProgram compiled() { return compiled; }
+
+    /**
+     * Runs within the current {@link RunBudget} like {@link CompiledExecutor}: where the budget is about
+     * to run out the generated code stops and this program is stepped on from there, so a run that is cut
+     * short stops on the same instruction, with the same state, as on the other tiers.
+     */
+    public MachineState run(List<Long> inputs) {
+        MachineState st = MachineState.init(inputs, compiled.slots);
+        long[] regs = new long[slotCount];
+        boolean[] written = new boolean[slotCount];
+        for (int r = 0; r < slotCount; r++) {
+            regs[r] = st.getSlot(r);
+            written[r] = st.isWritten(r);
+        }
+        long[] out = new long[3];
+        RunBudget budget = RunBudget.current();
+        long maxCycles = (budget == null) ? Long.MAX_VALUE : budget.maxCycles();
+
+        try {
+            code.invokeExact(regs, written, out, budget, maxCycles);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+
+        for (int r = 0; r < slotCount; r++) {
+            if (written[r]) st.setSlot(r, regs[r]);
+        }
+        st.setCycles(out[0]);
+        st.jumpTo((int) out[1]);
+        switch ((int) out[2]) {
+            case JitCompiler.STOP_HALTED -> st.halt();
+            case JitCompiler.STOP_CYCLES -> { return CompiledExecutor.resume(compiled, st); }
+            case JitCompiler.STOP_TIME -> throw new BudgetExhaustedException(RunBudget.Reason.TIME, st);
+            default -> { }
+        }
+        return st;
+    }
+}
@@ -0,0 +1,83 @@
+package system.core.exec.compiled;
+
+import system.core.exec.MachineState;
+import system.core.model.Instruction;
+import system.core.model.Program;
+import system.core.model.Var;
+import system.core.model.basic.Dec;
+import system.core.model.basic.Inc;
+import system.core.model.synthetic.Assignment;
+import system.core.model.synthetic.GotoLabel;
+import system.core.model.synthetic.JumpZero;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throughput of {@link LockstepExecutor} against running the same inputs one by one on
+ * {@link CompiledExecutor} (the scalar batch path).
+ *
+ *   java system.core.exec.compiled.LockstepBenchmark [lanes] [maxInput] [rounds]
+ *
+ * The program is y = x1 * x2 with nested counting loops, run with loop acceleration off so every
+ * step is dispatched; inputs are random, so lanes leave the loops at different times.
+ */
+public final class LockstepBenchmark {
+    private LockstepBenchmark() {}
+
+    public static void main(String[] args) {
+        int lanes = args.length > 0 ? Integer.parseInt(args[0]) : 1024;
+        int maxInput = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+
+        CompiledProgram cp = ProgramCompiler.compile(multiply());
+        Random rnd = new Random(42);
+        List<List<Long>> inputs = new ArrayList<>(lanes);
+        for (int i = 0; i < lanes; i++) {
+            inputs.add(List.of((long) rnd.nextInt(maxInput), (long) maxInput));
+        }
+
+        CompiledExecutor scalar = new CompiledExecutor(false);
+        LockstepExecutor lockstep = new LockstepExecutor(false);
+
+        List<MachineState> expected = new ArrayList<>(lanes);
+        for (List<Long> in : inputs) expected.add(scalar.run(cp, in));
+        List<MachineState> got = lockstep.run(cp, inputs);
+        for (int i = 0; i < lanes; i++) {
+            MachineState e = expected.get(i), g = got.get(i);
+            if (e.y() != g.y() || e.cycles() != g.cycles() || e.getPc() != g.getPc()
+                    || !e.snapshotX().equals(g.snapshotX()) || !e.snapshotZ().equals(g.snapshotZ())) {
+                throw new IllegalStateException("lane " + i + " differs from the scalar run");
+            }
+        }
+
+        long totalCycles = 0;
+        for (MachineState st : expected) totalCycles += st.cycles();
+        System.out.printf("lanes=%d maxInput=%d cycles/batch=%d%n", lanes, maxInput, totalCycles);
+
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            for (List<Long> in : inputs) scalar.run(cp, in);
+            long t1 = System.nanoTime();
+            lockstep.run(cp, inputs);
+            long t2 = System.nanoTime();
+            System.out.printf("round %2d  scalar %8.1f runs/ms   lockstep %8.1f runs/ms%n",
+                    r, lanes / ((t1 - t0) / 1e6), lanes / ((t2 - t1) / 1e6));
+        }
+    }
+
+    /** y <- x1 * x2 using only basic instructions and ASSIGNMENT / JUMP_ZERO / GOTO_LABEL */
+    static Program multiply() {
+        List<Instruction> ins = List.of(
+                new Assignment("", Var.z(1), Var.x(1)),
+                new JumpZero("A1", Var.z(1), "EXIT"),
+                new Dec("", Var.z(1), 1),
+                new Assignment("", Var.z(2), Var.x(2)),
+                new JumpZero("B1", Var.z(2), "A1"),
+                new Dec("", Var.z(2), 1),
+                new Inc("", Var.y(), 1),
+                new GotoLabel("", "B1"));
+        return new Program("Multiply", "", ins);
+    }
+}
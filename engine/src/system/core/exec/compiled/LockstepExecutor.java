@@ -0,0 +1,313 @@
+package system.core.exec.compiled;
+
+import system.core.exec.MachineState;
+import system.core.exec.RunBudget;
+import system.core.exec.SelfExecutable;
+import system.core.model.Program;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import static system.core.exec.compiled.CompiledProgram.*;
+
+/**
+ * Runs one {@link CompiledProgram} over many inputs together, one "lane" per input vector.
+ *
+ * Registers are stored per slot as long[lanes] and every lane has its own cycle counter. Each step
+ * takes the lowest pc any lane is at and executes that instruction for every lane standing on it
+ * (the active lanes), so lanes that follow the same path share every dispatch; a lane that branched
+ * ahead waits until the others catch up. A lane leaves when it halts or runs past the last instruction.
+ *
+ * Every lane ends in exactly the MachineState {@link CompiledExecutor} gives for its input (and so
+ * {@link system.core.exec.Executor}). Runs under a {@link RunBudget} go lane by lane on CompiledExecutor.
+ *
+ * Experimental: the per-lane loops are plain array loops since jdk.incubator.vector needs
+ * --add-modules at build and run time. See {@link LockstepBenchmark}.
+ */
+public final class LockstepExecutor {
+    private final boolean accelerateLoops;
+
+    public LockstepExecutor() { this(true); }
+
+    public LockstepExecutor(boolean accelerateLoops) {
+        this.accelerateLoops = accelerateLoops;
+    }
+
+    public List<MachineState> run(Program p, List<List<Long>> inputs) {
+        return run(ProgramCompiler.compile(p), inputs);
+    }
+
+    /** One final state per input vector, in input order. */
+    public List<MachineState> run(CompiledProgram cp, List<List<Long>> inputs) {
+        if (RunBudget.current() != null) {
+            CompiledExecutor scalar = new CompiledExecutor(accelerateLoops);
+            List<MachineState> out = new ArrayList<>(inputs.size());
+            for (List<Long> in : inputs) out.add(scalar.run(cp, in));
+            return out;
+        }
+
+        cp = accelerateLoops ? cp.loopsAccelerated() : cp.plain();
+        final int lanes = inputs.size();
+        final int slotCount = Math.max(1, cp.slots.size());
+        final int[] code = cp.code;
+        final int[] ext = cp.ext;
+        final long[] consts = cp.consts;
+
+        // lane l of slot s is regs[s][l]; the lane's MachineState is only used by QUOTE etc. and for the result
+        MachineState[] states = new MachineState[lanes];
+        long[][] regs = new long[slotCount][lanes];
+        boolean[][] written = new boolean[slotCount][lanes];
+        for (int l = 0; l < lanes; l++) {
+            MachineState st = MachineState.init(inputs.get(l), cp.slots);
+            states[l] = st;
+            for (int s = 0; s < slotCount; s++) {
+                regs[s][l] = st.getSlot(s);
+                written[s][l] = st.isWritten(s);
+            }
+        }
+        Lanes at = new Lanes(cp.size, lanes);
+        long[] cycles = new long[lanes];
+
+        int p;
+        while ((p = at.lowest()) >= 0) {
+            final int[] ls = at.take(p);
+            final int n = at.taken();
+            final int i = p * STRIDE;
+            final int a = code[i + A], b = code[i + B], t = code[i + T], c = code[i + CYC];
+            switch (code[i + OP]) {
+                case OP_INC -> {
+                    long[] ra = regs[a];
+                    boolean[] wa = written[a];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        ra[l] = Math.max(0L, ra[l] + 1);
+                        wa[l] = true;
+                        cycles[l] += c;
+                    }
+                    at.moveAll(p + 1);
+                }
+                case OP_DEC -> {
+                    long[] ra = regs[a];
+                    boolean[] wa = written[a];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        if (ra[l] > 0) { ra[l]--; wa[l] = true; }
+                        cycles[l] += c;
+                    }
+                    at.moveAll(p + 1);
+                }
+                case OP_NOP -> {
+                    for (int k = 0; k < n; k++) cycles[ls[k]] += c;
+                    at.moveAll(p + 1);
+                }
+                case OP_ZERO -> {
+                    store(regs[a], written[a], ls, n, cycles, c, 0L);
+                    at.moveAll(p + 1);
+                }
+                case OP_CONST -> {
+                    store(regs[a], written[a], ls, n, cycles, c, Math.max(0L, consts[p]));
+                    at.moveAll(p + 1);
+                }
+                case OP_ASSIGN -> {
+                    long[] ra = regs[a], rb = regs[b];
+                    boolean[] wa = written[a];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        ra[l] = rb[l];
+                        wa[l] = true;
+                        cycles[l] += c;
+                    }
+                    at.moveAll(p + 1);
+                }
+                case OP_GOTO -> {
+                    for (int k = 0; k < n; k++) cycles[ls[k]] += c;
+                    at.moveAll(t);
+                }
+                case OP_JNZ -> {
+                    long[] ra = regs[a];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        cycles[l] += c;
+                        at.move(l, ra[l] != 0 ? t : p + 1);
+                    }
+                }
+                case OP_JZ -> {
+                    long[] ra = regs[a];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        cycles[l] += c;
+                        at.move(l, ra[l] == 0 ? t : p + 1);
+                    }
+                }
+                case OP_JEQC -> {
+                    long[] ra = regs[a];
+                    long v = consts[p];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        cycles[l] += c;
+                        at.move(l, ra[l] == v ? t : p + 1);
+                    }
+                }
+                case OP_JEQV -> {
+                    long[] ra = regs[a], rb = regs[b];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        cycles[l] += c;
+                        at.move(l, ra[l] == rb[l] ? t : p + 1);
+                    }
+                }
+                case OP_LOOP -> {
+                    long[] ra = regs[a];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        long v = ra[l];
+                        long rounds = Math.max(1L, v);
+                        if (v > 0) { ra[l] = 0; written[a][l] = true; }
+                        addRounds(regs, written, ext, b, l, rounds);
+                        cycles[l] += rounds * c;
+                    }
+                    at.moveAll(t);
+                }
+                case OP_LOOP_TOP -> {
+                    long[] ra = regs[a];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        long v = ra[l];
+                        if (v > 0) {
+                            ra[l] = 0;
+                            written[a][l] = true;
+                            addRounds(regs, written, ext, b, l, v);
+                        }
+                        cycles[l] += v * c + ext[b + 1];
+                    }
+                    at.moveAll(t);
+                }
+                case OP_CALL -> {
+                    // QUOTE etc. work on a MachineState: hand each lane over through its own state
+                    SelfExecutable self = (SelfExecutable) cp.instructions[p];
+                    for (int k = 0; k < n; k++) {
+                        int l = ls[k];
+                        MachineState st = states[l];
+                        for (int s = 0; s < slotCount; s++) if (written[s][l]) st.setSlot(s, regs[s][l]);
+                        st.jumpTo(p);
+                        st.setCycles(cycles[l]);
+                        self.executeSelf(st, cp.labels);
+                        for (int s = 0; s < slotCount; s++) {
+                            regs[s][l] = st.getSlot(s);
+                            written[s][l] = st.isWritten(s);
+                        }
+                        cycles[l] = st.cycles();
+                        if (st.isHalted()) at.halt(l, st.getPc()); else at.move(l, st.getPc());
+                    }
+                }
+                default -> throw new IllegalStateException("No handler for "
+                        + cp.instructions[p].getClass().getName()
+                        + " (either add a handler or implement SelfExecutable)");
+            }
+        }
+
+        List<MachineState> out = new ArrayList<>(lanes);
+        for (int l = 0; l < lanes; l++) {
+            MachineState st = states[l];
+            for (int s = 0; s < slotCount; s++) if (written[s][l]) st.setSlot(s, regs[s][l]);
+            st.jumpTo(at.stoppedAt[l]);
+            st.setCycles(cycles[l]);
+            if (at.halted[l]) st.halt();
+            out.add(st);
+        }
+        return out;
+    }
+
+    /** r <- v on the lanes ls[0..n) */
+    private static void store(long[] r, boolean[] w, int[] ls, int n, long[] cycles, int c, long v) {
+        for (int k = 0; k < n; k++) {
+            int l = ls[k];
+            r[l] = v;
+            w[l] = true;
+            cycles[l] += c;
+        }
+    }
+
+    /** b_k += rounds on lane l for every incremented register of a loop macro op */
+    private static void addRounds(long[][] regs, boolean[][] written, int[] ext, int e, int l, long rounds) {
+        for (int k = 0, cnt = ext[e]; k < cnt; k++) {
+            int r = ext[e + 2 + k];
+            regs[r][l] = Math.max(0L, regs[r][l] + rounds);
+            written[r][l] = true;
+        }
+    }
+
+    /**
+     * Which lanes stand on which instruction: one lane list per pc and a bit set of the occupied pcs,
+     * so the lowest pc and its lanes are found without looking at every lane. A lane that halts or
+     * runs past the last instruction leaves and remembers the pc it stopped at.
+     */
+    private static final class Lanes {
+        private final int size;
+        private final int[][] at;             // pc -> lane ids
+        private final int[] count;            // pc -> number of lanes in at[pc]
+        private final BitSet occupied = new BitSet();
+        final int[] stoppedAt;
+        final boolean[] halted;
+
+        private int[] current = new int[8];   // lanes taken off the pc being executed
+        private int taken;
+        private int from;
+
+        Lanes(int size, int lanes) {
+            this.size = size;
+            this.at = new int[size][];
+            this.count = new int[size];
+            this.stoppedAt = new int[lanes];
+            this.halted = new boolean[lanes];
+            for (int l = 0; l < lanes; l++) move(l, 0);
+        }
+
+        /** Lowest pc with lanes on it, -1 once every lane left. */
+        int lowest() { return occupied.nextSetBit(0); }
+
+        /** Takes every lane off pc, each one must then be moved on; the array holds {@link #taken()} ids. */
+        int[] take(int pc) {
+            int[] ls = at[pc];
+            at[pc] = current;
+            current = ls;
+            taken = count[pc];
+            count[pc] = 0;
+            occupied.clear(pc);
+            from = pc;
+            return ls;
+        }
+
+        int taken() { return taken; }
+
+        void move(int lane, int to) {
+            if (to == HALT) { halt(lane, from); return; }
+            if (to >= size) { stoppedAt[lane] = to; return; }
+            int[] ls = at[to];
+            if (ls == null) at[to] = ls = new int[8];
+            else if (count[to] == ls.length) at[to] = ls = Arrays.copyOf(ls, ls.length * 2);
+            ls[count[to]++] = lane;
+            occupied.set(to);
+        }
+
+        /** Every taken lane goes to the same place. */
+        void moveAll(int to) {
+            if (to >= 0 && to < size && count[to] == 0) {      // nobody there yet: hand the whole list over
+                int[] ls = at[to];
+                at[to] = current;
+                current = (ls == null) ? new int[8] : ls;
+                count[to] = taken;
+                occupied.set(to);
+                return;
+            }
+            for (int k = 0; k < taken; k++) move(current[k], to);
+        }
+
+        void halt(int lane, int pc) {
+            halted[lane] = true;
+            stoppedAt[lane] = pc;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package system.core.exec.compiled;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static system.core.exec.compiled.CompiledProgram.*;
+
+/**
+ * Finds the counted loops that expansion produces everywhere and replaces their head with a
+ * macro op that applies the whole loop in O(1):
+ *
+ *   bottom tested (ZERO_VARIABLE, both ASSIGNMENT loops):
+ *     L: a <- a - 1
+ *        b1 <- b1 + 1 ... bk <- bk + 1      (k may be 0, NOPs are allowed in between)
+ *        IF a != 0 GOTO L
+ *
+ *   top tested (the usual hand written "add" loop at degree 0):
+ *     L: IF a = 0 GOTO T
+ *        a <- a - 1
+ *        b1 <- b1 + 1 ... bk <- bk + 1
+ *        GOTO L
+ *
+ * Only the head instruction is replaced, the body stays in place, so a jump into the middle of a
+ * loop still runs it step by step. Values, written variables and cycles come out exactly as if
+ * the loop was stepped (see CompiledExecutor for the arithmetic).
+ *
+ * ext layout of a macro op (index stored in B):  k, extraCycles, b1 .. bk
+ */
+public final class LoopAccelerator {
+    private LoopAccelerator() {}
+
+    public static CompiledProgram apply(CompiledProgram cp) {
+        if (cp.accelerated()) return cp;
+
+        int[] code = cp.code.clone();
+        List<Integer> ext = new ArrayList<>();
+
+        for (int pc = 0; pc < cp.size; pc++) {
+            int op = cp.code[pc * STRIDE + OP];
+            if (op == OP_DEC) matchBottomTested(cp, pc, code, ext);
+            else if (op == OP_JZ) matchTopTested(cp, pc, code, ext);
+        }
+
+        int[] extArr = new int[ext.size()];
+        for (int i = 0; i < extArr.length; i++) extArr[i] = ext.get(i);
+        return new CompiledProgram(cp.source, code, cp.consts, cp.slots, cp.instructions, cp.labels, extArr, cp);
+    }
+
+    private static void matchBottomTested(CompiledProgram cp, int head, int[] code, List<Integer> ext) {
+        int[] c = cp.code;
+        int a = c[head * STRIDE + A];
+        List<Integer> incs = new ArrayList<>();
+        int perIteration = c[head * STRIDE + CYC];
+
+        int pc = head + 1;
+        for (; pc < cp.size; pc++) {
+            int at = pc * STRIDE;
+            if (c[at + OP] == OP_INC && c[at + A] != a) incs.add(c[at + A]);
+            else if (c[at + OP] != OP_NOP) break;
+            perIteration += c[at + CYC];
+        }
+        if (pc >= cp.size) return;
+        int at = pc * STRIDE;
+        if (c[at + OP] != OP_JNZ || c[at + A] != a || c[at + T] != head) return;
+        perIteration += c[at + CYC];
+
+        patch(code, head, OP_LOOP, a, pc + 1, perIteration, 0, incs, ext);
+    }
+
+    private static void matchTopTested(CompiledProgram cp, int head, int[] code, List<Integer> ext) {
+        int[] c = cp.code;
+        int a = c[head * STRIDE + A];
+        int exit = c[head * STRIDE + T];
+        if (head + 1 >= cp.size) return;
+        int dec = (head + 1) * STRIDE;
+        if (c[dec + OP] != OP_DEC || c[dec + A] != a) return;
+
+        int test = c[head * STRIDE + CYC];
+        int perIteration = test + c[dec + CYC];
+        List<Integer> incs = new ArrayList<>();
+
+        int pc = head + 2;
+        for (; pc < cp.size; pc++) {
+            int at = pc * STRIDE;
+            if (c[at + OP] == OP_INC && c[at + A] != a) incs.add(c[at + A]);
+            else if (c[at + OP] != OP_NOP) break;
+            perIteration += c[at + CYC];
+        }
+        if (pc >= cp.size) return;
+        int at = pc * STRIDE;
+        if (c[at + OP] != OP_GOTO || c[at + T] != head) return;
+        perIteration += c[at + CYC];
+
+        patch(code, head, OP_LOOP_TOP, a, exit, perIteration, test, incs, ext);
+    }
+
+    private static void patch(int[] code, int head, int op, int a, int exit, int perIteration,
+                              int extraCycles, List<Integer> incs, List<Integer> ext) {
+        int at = head * STRIDE;
+        code[at + OP] = op;
+        code[at + A] = a;
+        code[at + B] = ext.size();
+        code[at + T] = exit;
+        code[at + CYC] = perIteration;
+        ext.add(incs.size());
+        ext.add(extraCycles);
+        ext.addAll(incs);
+    }
+}
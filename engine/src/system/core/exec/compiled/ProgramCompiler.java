@@ -0,0 +1,100 @@
+package system.core.exec.compiled;
+
+import system.core.exec.JumpResolver;
+import system.core.exec.LabelIndex;
+import system.core.exec.SelfExecutable;
+import system.core.exec.SlotMap;
+import system.core.model.Instruction;
+import system.core.model.Program;
+import system.core.model.basic.*;
+import system.core.model.synthetic.*;
+
+import java.util.List;
+
+import static system.core.exec.compiled.CompiledProgram.*;
+
+/**
+ * Turns a {@link Program} into a {@link CompiledProgram}:
+ * one opcode per instruction, variables turned into register slots of the program's {@link SlotMap},
+ * labels resolved to instruction indexes and cycles copied inline.
+ * The handler lookup and the label lookup of {@link system.core.exec.Executor} are done here once
+ * instead of on every step.
+ */
+public final class ProgramCompiler {
+    private ProgramCompiler() {}
+
+    public static CompiledProgram compile(Program p) {
+        List<Instruction> list = p.instructions();
+        int n = list.size();
+        Instruction[] ins = list.toArray(new Instruction[0]);
+        JumpResolver labels = LabelIndex.build(p);
+
+        int[] code = new int[n * STRIDE];
+        long[] consts = new long[n];
+        SlotMap.Builder slots = SlotMap.builder().addAll(p);
+
+        for (int pc = 0; pc < n; pc++) {
+            Instruction i = ins[pc];
+            int at = pc * STRIDE;
+            code[at + CYC] = i.cycles();
+            code[at + T] = HALT;
+
+            // self executing instructions keep running themselves (same priority as in Executor.step)
+            if (i instanceof SelfExecutable) {
+                code[at + OP] = OP_CALL;
+                continue;
+            }
+
+            switch (i) {
+                case Inc x -> { code[at + OP] = OP_INC; code[at + A] = slots.add(x.v()); }
+                case Dec x -> { code[at + OP] = OP_DEC; code[at + A] = slots.add(x.v()); }
+                case Nop x -> code[at + OP] = OP_NOP;
+                case IfGoto x -> {
+                    code[at + OP] = OP_JNZ;
+                    code[at + A] = slots.add(x.v());
+                    code[at + T] = target(labels, x.targetId());
+                }
+                case ZeroVariable x -> { code[at + OP] = OP_ZERO; code[at + A] = slots.add(x.v()); }
+                case GotoLabel x -> {
+                    code[at + OP] = OP_GOTO;
+                    code[at + T] = target(labels, x.targetId());
+                }
+                case Assignment x -> {
+                    code[at + OP] = OP_ASSIGN;
+                    code[at + A] = slots.add(x.v());
+                    code[at + B] = slots.add(x.src());
+                }
+                case ConstantAssignment x -> {
+                    code[at + OP] = OP_CONST;
+                    code[at + A] = slots.add(x.v());
+                    consts[pc] = x.k();
+                }
+                case JumpZero x -> {
+                    code[at + OP] = OP_JZ;
+                    code[at + A] = slots.add(x.v());
+                    code[at + T] = target(labels, x.targetId());
+                }
+                case JumpEqualConstant x -> {
+                    code[at + OP] = OP_JEQC;
+                    code[at + A] = slots.add(x.v());
+                    code[at + T] = target(labels, x.targetId());
+                    consts[pc] = x.k();
+                }
+                case JumpEqualVariable x -> {
+                    code[at + OP] = OP_JEQV;
+                    code[at + A] = slots.add(x.a());
+                    code[at + B] = slots.add(x.b());
+                    code[at + T] = target(labels, x.targetId());
+                }
+                default -> code[at + OP] = OP_FAIL;
+            }
+        }
+        return new CompiledProgram(p, code, consts, slots.build(), ins, labels);
+    }
+
+    /** Same rules as Executor: NOT_FOUND and EXIT both stop the machine. */
+    private static int target(JumpResolver labels, int labelId) {
+        int to = labels.resolve(labelId);
+        return (to == JumpResolver.NOT_FOUND || to == JumpResolver.EXIT) ? HALT : to;
+    }
+}
@@ -2,6 +2,8 @@ package system.core.exec.debugg;
 
 import system.api.DebugStep;
 import system.core.exec.*;
+import system.core.expand.LazyExpansion;
+import system.core.model.Instruction;
 import system.core.model.Program;
 import system.core.model.Var;
 
@@ -15,8 +17,10 @@ import java.util.*;
 public class Debugger extends Executor {
 
     private Program program;
+    private LazyExpansion lazy;       // set instead of program when the session expands as it goes
     private JumpResolver jr;
     private MachineState st;
+    private SlotMap slots;
     private int stepNo = 0; // number of completed steps
 
     // snapshots[0] = initial state (before any step)
@@ -29,21 +33,62 @@ public class Debugger extends Executor {
     // Hold a FunctionEnv to resolve functions in case of Quote instructions for the whole debugg session
     private FunctionEnv env;
 
+    // program version for the ExecutionManager (null = not tracked), and whether this session was counted
+    private ExecutionManager.Key key;
+    private boolean recorded;
+
 
     // ------------ public API ------------
 
     /** Start a new debug session */
     public void init(Program p, List<Long> inputs, Map<String, Program> functions) {
+        init(p, inputs, functions, null);
+    }
+
+    /**
+     * Start a new debug session of a known program version: labels and slots come prepared from the
+     * {@link ExecutionManager}, and a session that runs to the end counts as a run of that version.
+     */
+    public void init(Program p, List<Long> inputs, Map<String, Program> functions, ExecutionManager.Key key) {
         this.program = Objects.requireNonNull(p, "program");
+        this.lazy = null;
         this.env = new FunctionEnv(functions);
-        this.jr = LabelIndex.build(p);
-        this.st = MachineState.init(inputs);
+        this.key = key;
+        this.recorded = false;
+        if (key != null) {
+            var prepared = ExecutionManager.shared().profile(key, p);
+            this.jr = prepared.labels();
+            this.slots = prepared.slots();
+        } else {
+            this.jr = LabelIndex.build(p);
+            this.slots = SlotMap.of(p);
+        }
+        this.st = MachineState.init(inputs, slots);
         this.stepNo = 0;
         this.snapshots.clear();
         this.snapshots.add(takeSnapshot(st)); // step 0 snapshot
         this.breakpoints.clear();
     }
 
+    /**
+     * Start a new debug session on a program that is expanded while it is stepped through (see
+     * {@link LazyExpansion}); functions must be the ones the expansion was made with.
+     */
+    public void init(LazyExpansion p, List<Long> inputs, Map<String, Program> functions) {
+        this.lazy = Objects.requireNonNull(p, "program");
+        this.program = null;
+        this.env = new FunctionEnv(functions);
+        this.key = null;
+        this.recorded = false;
+        this.jr = p;
+        this.slots = SlotMap.empty();            // variables get their slots as they show up
+        this.st = MachineState.init(inputs, slots);
+        this.stepNo = 0;
+        this.snapshots.clear();
+        this.snapshots.add(takeSnapshot(st));
+        this.breakpoints.clear();
+    }
+
     /** Non-destructive view of current state (useful to draw UI at start so take it IDAN) */
     public DebugStep peek() {
         return FunctionEnv.with(env, () -> {
@@ -63,7 +108,7 @@ public class Debugger extends Executor {
 
             // execute one instruction using the normal Executor semantics
             int pc = st.getPc();
-            var ins = program.instructions().get(pc);
+            var ins = at(pc);
             super.step(ins, st, jr); // advances pc / cycles / writes vars
 
             // record new state
@@ -71,6 +116,11 @@ public class Debugger extends Executor {
             snapshots.add(after);
             stepNo++;
 
+            if (!recorded && key != null && (st.isHalted() || at(st.getPc()) == null)) {
+                recorded = true;
+                ExecutionManager.shared().recordRun(key, program, st.cycles());
+            }
+
             Map<String,Long> changed = diff(before , after);
             return toStep(stepNo, changed);
         });
@@ -131,16 +181,22 @@ public class Debugger extends Executor {
     public boolean isFinished() {
         return FunctionEnv.with(env, () -> {
             ensureSession();
-            return st.isHalted() || st.getPc() >= program.instructions().size();
+            return st.isHalted() || at(st.getPc()) == null;
         });
     }
 
-    public Program program() { return program; } // in case UI needs it if not delete it Idan
+    public Program program() { return program; } // in case UI needs it if not delete it Idan (null for a lazy session)
 
     // ------------ internals ------------
 
+    /** Instruction at pc, null past the end of the program. */
+    private Instruction at(int pc) {
+        if (lazy != null) return lazy.get(pc);
+        return pc >= 0 && pc < program.instructions().size() ? program.instructions().get(pc) : null;
+    }
+
     private void ensureSession() {
-        if (program == null || st == null || env == null) {
+        if ((program == null && lazy == null) || st == null || env == null) {
             throw new IllegalStateException("Debugger not initialized. Call init(program, inputs) first.");
         }
     }
@@ -163,7 +219,7 @@ public class Debugger extends Executor {
 
     /** Build a MachineState from a snapshot (fresh instance). */
     private MachineState rehydrate(Snapshot sn) {
-        MachineState r = MachineState.init(List.of()); // start empty
+        MachineState r = MachineState.init(List.of(), slots); // start empty
         // x
         for (var e : sn.xs.entrySet()) {
             r.set(Var.x(e.getKey()), e.getValue());
@@ -238,7 +294,7 @@ public class Debugger extends Executor {
         return new DebugStep(
                 stepNo,
                 cur.pc,
-                cur.halted || cur.pc >= program.instructions().size(),
+                cur.halted || at(cur.pc) == null,
                 cur.cycles,
                 flatVars(cur),
                 changed
@@ -254,7 +310,7 @@ public class Debugger extends Executor {
             ensureSession();
             breakpoints.clear();
             if (pcs != null) {
-                for (int pc : pcs) if (pc >= 0 && pc < program.instructions().size()) breakpoints.add(pc);
+                for (int pc : pcs) if (at(pc) != null) breakpoints.add(pc);
             }
             return null;
         });
@@ -262,7 +318,7 @@ public class Debugger extends Executor {
     public void addBreakpoint(int pc) {
         FunctionEnv.with(env, () -> {
             ensureSession();
-            if (pc >= 0 && pc < program.instructions().size()) breakpoints.add(pc);
+            if (at(pc) != null) breakpoints.add(pc);
             return null;
         });
     }
@@ -0,0 +1,163 @@
+package system.core.exec.trace;
+
+import system.core.exec.MachineState;
+import system.core.model.Var;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static system.core.exec.trace.TraceRecorder.*;
+
+/**
+ * Reads a {@link TraceRecorder} file: any step by number, and the machine state before any step.
+ *
+ * A state is rebuilt by replaying the register writes from the nearest checkpoint before it. The
+ * checkpoints (registers and cycles every CHECKPOINT_EVERY steps) are taken on the way the first
+ * time the reader replays past them, so seeking around a trace that was read once costs at most
+ * CHECKPOINT_EVERY records.
+ */
+public final class TraceReader implements AutoCloseable {
+    static final int CHECKPOINT_EVERY = 1 << 16;
+    // the records are mapped this many at a time, a whole number of them a mapping
+    private static final int CHUNK_RECORDS = 1 << 22;
+    private static final long CHUNK_BYTES = (long) CHUNK_RECORDS * RECORD_BYTES;
+
+    /** One step as recorded; register is null if the step wrote none. */
+    public record Step(long number, int pc, Var register, long value, long cycles) {}
+
+    private final FileChannel ch;
+    private final long dataStart;
+    private final long steps;
+    private final List<Long> inputs;
+    private final MappedByteBuffer[] chunks;           // mapped when first read
+
+    // checkpoints.get(k) = registers (by code) and cycles before step k * CHECKPOINT_EVERY; 0 = the inputs
+    private final List<Map<Integer, Long>> checkpoints = new ArrayList<>();
+    private final List<Long> checkpointCycles = new ArrayList<>();
+
+    private TraceReader(FileChannel ch, long dataStart, long steps, List<Long> inputs) {
+        this.ch = ch;
+        this.dataStart = dataStart;
+        this.steps = steps;
+        this.inputs = inputs;
+        this.chunks = new MappedByteBuffer[(int) ((steps + CHUNK_RECORDS - 1) / CHUNK_RECORDS)];
+    }
+
+    public static TraceReader open(Path file) throws IOException {
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer h = ByteBuffer.allocate(24);
+            read(ch, h, 0);
+            if (h.getInt(0) != MAGIC) throw new IOException("not a trace file: " + file);
+            if (h.getInt(4) != VERSION || h.getInt(8) != RECORD_BYTES) {
+                throw new IOException("unsupported trace version " + h.getInt(4) + ": " + file);
+            }
+            int n = h.getInt(12);
+            long steps = h.getLong(STEPS_AT);
+            ByteBuffer in = ByteBuffer.allocate(8 * n);
+            read(ch, in, 24);
+            List<Long> inputs = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) inputs.add(in.getLong(8 * i));
+
+            long dataStart = 24 + 8L * n;
+            // a run that died midway: only what fits in the file counts
+            steps = Math.min(steps, (ch.size() - dataStart) / RECORD_BYTES);
+            return new TraceReader(ch, dataStart, steps, Collections.unmodifiableList(inputs));
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public long steps() { return steps; }
+
+    public List<Long> inputs() { return inputs; }
+
+    /** Step n (0-based). */
+    public Step step(long n) {
+        checkStep(n, steps - 1);
+        ByteBuffer b = chunk(n);
+        int at = (int) (n % CHUNK_RECORDS) * RECORD_BYTES;
+        int reg = b.getInt(at + 4);
+        return new Step(n, b.getInt(at), reg < 0 ? null : var(reg), b.getLong(at + 8), b.getLong(at + 16));
+    }
+
+    /**
+     * The state before step n ran (n = steps(): after the last one): registers, cycles and pc (that
+     * of step n; after the last step the pc is unknown and the state is halted instead).
+     */
+    public MachineState stateAt(long n) {
+        checkStep(n, steps);
+        if (checkpoints.isEmpty()) {
+            Map<Integer, Long> initial = new HashMap<>();
+            for (int i = 0; i < inputs.size(); i++) initial.put(code(Var.x(i + 1)), Math.max(0L, inputs.get(i)));
+            checkpoint(initial, 0);
+        }
+        int k = (int) Math.min(n / CHECKPOINT_EVERY, checkpoints.size() - 1);
+        Map<Integer, Long> regs = new HashMap<>(checkpoints.get(k));
+        long cycles = checkpointCycles.get(k);
+
+        for (long s = (long) k * CHECKPOINT_EVERY; s < n; s++) {
+            ByteBuffer b = chunk(s);
+            int at = (int) (s % CHUNK_RECORDS) * RECORD_BYTES;
+            int reg = b.getInt(at + 4);
+            if (reg >= 0) regs.put(reg, b.getLong(at + 8));
+            cycles += b.getLong(at + 16);
+            if ((s + 1) % CHECKPOINT_EVERY == 0 && (s + 1) / CHECKPOINT_EVERY == checkpoints.size()) {
+                checkpoint(regs, cycles);
+            }
+        }
+
+        MachineState st = MachineState.init(List.of());
+        regs.forEach((reg, v) -> st.set(var(reg), v));
+        st.setCycles(cycles);
+        if (n < steps) st.setPc(step(n).pc());
+        else st.halt();
+        return st;
+    }
+
+    private void checkpoint(Map<Integer, Long> regs, long cycles) {
+        checkpoints.add(new HashMap<>(regs));
+        checkpointCycles.add(cycles);
+    }
+
+    private ByteBuffer chunk(long n) {
+        int c = (int) (n / CHUNK_RECORDS);
+        MappedByteBuffer b = chunks[c];
+        if (b == null) {
+            long from = dataStart + c * CHUNK_BYTES;
+            long len = Math.min(CHUNK_BYTES, (steps - (long) c * CHUNK_RECORDS) * RECORD_BYTES);
+            try {
+                b = chunks[c] = ch.map(FileChannel.MapMode.READ_ONLY, from, len);
+            } catch (IOException e) {
+                throw new UncheckedIOException("trace: " + e.getMessage(), e);
+            }
+        }
+        return b;
+    }
+
+    private static void checkStep(long n, long max) {
+        if (n < 0 || n > max) throw new IndexOutOfBoundsException("step " + n + " of " + (max + 1));
+    }
+
+    private static void read(FileChannel ch, ByteBuffer b, long at) throws IOException {
+        while (b.hasRemaining()) {
+            if (ch.read(b, at + b.position()) < 0) throw new IOException("trace file too short");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        ch.close();
+    }
+}
@@ -0,0 +1,140 @@
+package system.core.exec.trace;
+
+import system.core.model.Var;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Binary trace of an interpreter run, one fixed size record per step (see
+ * {@link system.core.exec.Executor}, it records while the recorder is current, see {@link #with}).
+ * Read back with {@link TraceReader}.
+ *
+ * File layout (big endian):
+ *   header   int MAGIC, int VERSION, int RECORD_BYTES, int input count, long steps, long[] inputs
+ *   records  int pc, int register (-1 = none written, else {@link #code(Var)}), long its new value,
+ *            long cycles the step charged (calls included)
+ *
+ * Records are gathered in a direct buffer and written through the channel when it fills up, along
+ * with steps in the header, so a run that dies midway still leaves a readable prefix. Nothing of
+ * the file stays mapped, so it can be cut to its records on close and opened again for the next
+ * run; where the cut is refused (a TraceReader still maps it, on Windows) the tail is left, the
+ * step count in the header is what the reader goes by. Records have a fixed size so step n is at a
+ * known offset.
+ *
+ * Not thread safe: one run on one thread, nested function calls are not traced (their cycles are in
+ * the calling step).
+ */
+public final class TraceRecorder implements AutoCloseable {
+    static final int MAGIC = 0x53545243;               // "STRC"
+    static final int VERSION = 2;                      // 1 had int cycles
+    static final int RECORD_BYTES = 4 + 4 + 8 + 8;
+    static final int STEPS_AT = 16;                    // header offset of the step count
+    private static final int BUFFER_RECORDS = 1 << 16;
+
+    private static final ThreadLocal<TraceRecorder> TL = new ThreadLocal<>();
+
+    private final FileChannel ch;
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_RECORDS * RECORD_BYTES);
+    private final ByteBuffer stepsBuf = ByteBuffer.allocate(8);
+    private long writeAt;                              // file offset of buf's first record
+    private long steps;
+    private boolean closed;
+
+    private TraceRecorder(FileChannel ch, long dataStart) {
+        this.ch = ch;
+        this.writeAt = dataStart;
+    }
+
+    /** A trace file (overwriting any) for a run that starts from these inputs. */
+    public static TraceRecorder create(Path file, List<Long> inputs) throws IOException {
+        // not TRUNCATE_EXISTING: that fails while a reader maps the old trace, close() cuts the file instead
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        try {
+            int n = (inputs == null) ? 0 : inputs.size();
+            ByteBuffer h = ByteBuffer.allocate(24 + 8 * n);
+            h.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(n).putLong(0);
+            for (int i = 0; i < n; i++) h.putLong(inputs.get(i) == null ? 0L : inputs.get(i));
+            h.flip();
+            while (h.hasRemaining()) ch.write(h, h.position());
+            return new TraceRecorder(ch, 24 + 8L * n);
+        } catch (IOException | RuntimeException e) {
+            ch.close();
+            throw e;
+        }
+    }
+
+    public static TraceRecorder current() { return TL.get(); }
+
+    public static <T> T with(TraceRecorder trace, Callable<T> body) {
+        var prev = TL.get();
+        TL.set(trace);
+        try { return body.call(); }
+        catch (RuntimeException | Error re) { throw re; }
+        catch (Exception e) { throw new RuntimeException(e); }
+        finally { TL.set(prev); }
+    }
+
+    /** One step: the instruction at pc ran, wrote value into register (-1: none) and charged cycles. */
+    public void record(int pc, int register, long value, long cycles) {
+        if (!buf.hasRemaining()) flush();
+        buf.putInt(pc).putInt(register).putLong(value).putLong(cycles);
+        steps++;
+    }
+
+    public long steps() { return steps; }
+
+    /** Register number of v in the records: y = 0, x_i = 2i - 1, z_i = 2i. */
+    public static int code(Var v) {
+        return switch (v.type()) {
+            case Y -> 0;
+            case X -> 2 * v.index() - 1;
+            case Z -> 2 * v.index();
+        };
+    }
+
+    public static Var var(int code) {
+        if (code == 0) return Var.y();
+        return (code & 1) == 1 ? Var.x((code + 1) / 2) : Var.z(code / 2);
+    }
+
+    private void flush() {
+        try {
+            buf.flip();
+            while (buf.hasRemaining()) writeAt += ch.write(buf, writeAt);
+            buf.clear();
+            writeSteps();
+        } catch (IOException e) {
+            throw new UncheckedIOException("trace: " + e.getMessage(), e);
+        }
+    }
+
+    private void writeSteps() throws IOException {
+        stepsBuf.clear();
+        stepsBuf.putLong(0, steps);
+        while (stepsBuf.hasRemaining()) ch.write(stepsBuf, STEPS_AT + stepsBuf.position());
+    }
+
+    /** Writes the last records and the step count and cuts the file after the last record. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            flush();
+            try {
+                ch.truncate(writeAt);
+            } catch (IOException mapped) {
+                // left as is: the header's step count bounds what the reader reads
+            }
+        } finally {
+            ch.close();
+        }
+    }
+}
@@ -1,6 +1,21 @@
 package system.core.expand;
 
 import system.core.model.Program;
+
+import java.util.AbstractList;
 import java.util.List;
 
-public record ExpandedProgramResult(Program program, List<String> origins) {}
+/**
+ * An expanded program and, per line, the {@link Origin} it was expanded out of (null for lines of
+ * the program as written).
+ */
+public record ExpandedProgramResult(Program program, List<Origin> originTree) {
+
+    /** Per-line origin chains, each one rendered when it is read. */
+    public List<String> origins() {
+        return new AbstractList<>() {
+            @Override public String get(int index) { return Origin.chainOf(originTree.get(index)); }
+            @Override public int size() { return originTree.size(); }
+        };
+    }
+}
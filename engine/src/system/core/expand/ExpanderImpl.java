@@ -1,10 +1,11 @@
 package system.core.expand;
 
+import system.core.exec.FunctionEnv;
 import system.core.expand.helpers.FreshNames;
 import system.core.model.Instruction;
 import system.core.model.Program;
+import system.core.model.RepeatList;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -24,74 +25,141 @@ public final class ExpanderImpl implements Expander {
     /** New: expand and also return per-line origin chain strings. */
     public ExpandedProgramResult expandToDegreeWithOrigins(Program program, int degree) {
         if (program == null) return new ExpandedProgramResult(null, List.of());
-        List<String> origins = new ArrayList<>(Collections.nCopies(program.instructions().size(), ""));
+        List<Origin> origins = Collections.nCopies(program.instructions().size(), null);
         Program cur = program;
 
         for (int d = 0; d < degree; d++) {
             if (!containsSynthetic(cur)) break;
             var step = expandOneWithOrigins(cur, origins);
             cur = step.program();
-            origins = step.origins();
+            origins = step.originTree();
         }
         return new ExpandedProgramResult(cur, origins);
     }
 
+    /**
+     * Degree d+1 from degree d: one more round over an already expanded program and its origins.
+     * Returns prev itself once nothing synthetic is left.
+     */
+    public ExpandedProgramResult expandNext(ExpandedProgramResult prev) {
+        if (!containsSynthetic(prev.program())) return prev;
+        return expandOneWithOrigins(prev.program(), prev.originTree());
+    }
+
     /** One-round expansion without origins (existing behavior). */
     private Program expandOne(Program p) {
-        FreshNames fresh = new FreshNames(p);
-        Program out = new Program(p.name() + " [expanded]");
-        for (Instruction ins : p.instructions()) {
-            ins.expandTo(out, fresh); // synthetic override; basic copies itself
-        }
-        return out;
+        return round(p, null, false).program();
     }
 
     /** One-round expansion that also computes origin chains. */
-    private ExpandedProgramResult expandOneWithOrigins(Program cur, List<String> prevOrigins) {
-        FreshNames fresh = new FreshNames(cur);
-        Program out = new Program(cur.name() + " [expanded]");
-        List<String> outOrigins = new ArrayList<>();
+    private ExpandedProgramResult expandOneWithOrigins(Program cur, List<Origin> prevOrigins) {
+        return round(cur, prevOrigins, true);
+    }
+
+    // the round's fresh z's (above cur's highest) are then given as few names as they can share, see ZCompaction
+    private ExpandedProgramResult round(Program cur, List<Origin> prevOrigins, boolean withOrigins) {
+        FreshNames.Scan before = FreshNames.scan(cur);
+        return ZCompaction.compact(expandRound(cur, prevOrigins, withOrigins, before), before.maxZ());
+    }
 
-        // pre-compute the display of each current instruction with its index (#i ...)
-        List<String> prevDisplays = new ArrayList<>(cur.instructions().size());
-        int idx = 1;
-        for (Instruction ins : cur.instructions()) {
-            prevDisplays.add(displayOf(ins, idx++));
+    // big programs go through ParallelRound, which gives the same program (and origins) as the loop here
+    private static ExpandedProgramResult expandRound(Program cur, List<Origin> prevOrigins, boolean withOrigins,
+                                                     FreshNames.Scan before) {
+        if (ParallelRound.worthSplitting(cur)) {
+            ExpandedProgramResult split = ParallelRound.expand(cur, prevOrigins, withOrigins, before);
+            if (split != null) return split;
         }
+        Program out = new Program(cur.name() + " [expanded]");
+        RepeatList<Origin> outOrigins = withOrigins ? new RepeatList<>() : null;
+        expandRange(cur, prevOrigins, 0, cur.instructions().size(), new FreshNames(before), out, outOrigins);
+        return new ExpandedProgramResult(out, withOrigins ? outOrigins : List.of());
+    }
+
+    /**
+     * Lines [from, to) of cur expanded one round into out, taking fresh names from fresh, and their
+     * origins into outOrigins unless it is null. from and to are never inside a block of basics.
+     */
+    static void expandRange(Program cur, List<Origin> prevOrigins, int from, int to,
+                            FreshNames fresh, Program out, RepeatList<Origin> outOrigins) {
+        List<Instruction> code = cur.instructions();
+        for (int i = from; i < to; ) {
+            Origin parent = (prevOrigins != null && i < prevOrigins.size()) ? prevOrigins.get(i) : null;
 
-        for (int i = 0; i < cur.instructions().size(); i++) {
-            Instruction ins = cur.instructions().get(i);
-            String parentChain = (prevOrigins != null && i < prevOrigins.size()) ? prevOrigins.get(i) : "";
-            String link = prevDisplays.get(i);
+            RepeatList.Block<Instruction> block = cur.repeatAt(i);
+            if (block != null && allBasic(block)) {
+                // a block of basics stays one block; its lines came from the same instruction, so they share one origin
+                out.addRepeated(block.body(), block.count());
+                if (outOrigins != null) addCopies(outOrigins, parent, block.lines());
+                i += (int) block.lines();
+                continue;
+            }
 
+            Instruction ins = code.get(i);
             if (ins.isBasic()) {
-                int before = out.instructions().size();
                 out.add(ins); // copy as-is
-                int after = out.instructions().size();
-                String carry = parentChain; // basic keeps its previous chain
-                for (int j = before; j < after; j++) outOrigins.add(carry);
+                if (outOrigins != null) outOrigins.add(parent); // basic keeps its previous origin
             } else {
                 int before = out.instructions().size();
                 ins.expandTo(out, fresh);
                 int after = out.instructions().size();
-                String combined = (parentChain == null || parentChain.isBlank()) ? link
-                        : parentChain + "  >>>  " + link;
-                for (int j = before; j < after; j++) outOrigins.add(combined);
+                // one node for all of its lines: display of the instruction with its index (#i ...)
+                if (outOrigins != null) addCopies(outOrigins, new Origin(parent, displayOf(ins, i + 1)), after - before);
             }
+            i++;
         }
-        return new ExpandedProgramResult(out, outOrigins);
+    }
+
+    static boolean allBasic(RepeatList.Block<Instruction> block) {
+        for (Instruction ins : block.body()) {
+            if (!ins.isBasic()) return false;
+        }
+        return true;
+    }
+
+    /** n copies of origin, as one block when n is big (the lines of a big constant). */
+    private static void addCopies(RepeatList<Origin> origins, Origin origin, long n) {
+        if (n >= Program.REPEAT_MIN_LINES) {
+            origins.addRepeated(Collections.singletonList(origin), n);
+            return;
+        }
+        for (long j = 0; j < n; j++) origins.add(origin);
+    }
+
+    /**
+     * Highest degree that still changes p (0 when it is all basic), at most {@link FunctionEnv#MAX_DEPTH}:
+     * the expansion depth of its deepest instruction, so nothing gets expanded. If the depth cannot be
+     * worked out (missing function, bad arguments) p is expanded round by round like before, which
+     * fails with the same error. Call inside the FunctionEnv.
+     */
+    public int maxDegree(Program p) {
+        try {
+            int[] d = {0};
+            p.forEachDistinct((ins, i) -> d[0] = Math.max(d[0], ins.expansionDepth()));
+            return Math.min(d[0], FunctionEnv.MAX_DEPTH);
+        } catch (RuntimeException e) {
+            return maxDegreeByExpanding(p);
+        }
+    }
+
+    private int maxDegreeByExpanding(Program p) {
+        int d = 0;
+        Program cur = p;
+        while (d < FunctionEnv.MAX_DEPTH && containsSynthetic(cur)) {
+            cur = expandOne(cur); // may expand QUOTE
+            d++;
+        }
+        return d;
     }
 
     /** True if the program still contains any synthetic instruction. */
     public boolean containsSynthetic(Program p) {
-        for (Instruction ins : p.instructions()) {
-            if (!ins.isBasic()) return true;
-        }
-        return false;
+        boolean[] found = {false};
+        p.forEachDistinct((ins, i) -> found[0] |= !ins.isBasic());
+        return found[0];
     }
 
     /** Same formatting as your CLI uses for “Show Program”. */
-    private static String displayOf(Instruction ins, int number) {
+    static String displayOf(Instruction ins, int number) {
         String lab = ins.label() == null ? "" : ins.label();
         return String.format("#%d (%s) [%-5s] %s (%d)",
                 number,
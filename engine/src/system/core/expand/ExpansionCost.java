@@ -0,0 +1,148 @@
+package system.core.expand;
+
+import system.core.exec.FunctionEnv;
+import system.core.expand.helpers.FreshNames;
+import system.core.model.Instruction;
+import system.core.model.Labels;
+import system.core.model.Program;
+import system.core.model.RepeatList;
+import system.core.model.Var;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * How big an expansion will be, worked out without building it: lines, the entries they take in
+ * memory (a repeat block is stored once, see {@link Program#addRepeated}), z's and labels, per degree.
+ * Lets the server turn away or page a request before the expansion eats the heap.
+ *
+ * An instruction's size after d rounds is the fresh names it takes itself ({@link Instruction#freshLabels},
+ * {@link Instruction#freshZs}) plus the size of what it expands to after d - 1 more; see
+ * {@link Instruction#expandedSize}. The default gets "what it expands to" from one expandTo() into a
+ * scratch program, which is a handful of lines (a big constant is a block); QUOTE adds up the size
+ * of its function's body instead, once per function and degree.
+ *
+ * Counts saturate at Long.MAX_VALUE. Not thread safe: one per estimate, inside the FunctionEnv.
+ */
+public final class ExpansionCost {
+
+    /** Lines, stored entries and fresh z's / labels one instruction (or a program) comes to. */
+    public record Size(long lines, long stored, long zs, long labels) {
+        public static final Size NONE = new Size(0, 0, 0, 0);
+        /** One line as it is: a basic instruction, or anything at degree 0. */
+        public static final Size LINE = new Size(1, 1, 0, 0);
+
+        /** Only fresh names, no lines: what an instruction takes itself when it expands. */
+        public static Size fresh(long zs, long labels) { return new Size(0, 0, zs, labels); }
+
+        public Size plus(Size o) {
+            return new Size(add(lines, o.lines), add(stored, o.stored), add(zs, o.zs), add(labels, o.labels));
+        }
+
+        public Size times(long n) {
+            return new Size(mul(lines, n), mul(stored, n), mul(zs, n), mul(labels, n));
+        }
+
+        private static long add(long a, long b) {
+            long r = a + b;
+            return (r < 0) ? Long.MAX_VALUE : r;
+        }
+
+        private static long mul(long a, long n) {
+            try { return Math.multiplyExact(a, n); }
+            catch (ArithmeticException e) { return Long.MAX_VALUE; }
+        }
+    }
+
+    /**
+     * A program expanded to degree: its lines, the entries they take (see {@link Size#stored}),
+     * the highest z it may use and the labels in use (both at most: a QUOTE reserves z's and labels
+     * for its whole callee).
+     */
+    public record Estimate(int degree, long lines, long stored, long zs, long labels) {}
+
+    private final ExpanderImpl expander = new ExpanderImpl();
+    private record BodyAt(String function, int degree) {}
+    private final Map<BodyAt, Size> bodies = new HashMap<>();
+
+    /** p expanded to degree (clamped to 0..its max degree). */
+    public Estimate estimate(Program p, int degree) {
+        int d = Math.max(0, Math.min(degree, expander.maxDegree(p)));
+        return estimate(p, d, sizeOf(p, d));
+    }
+
+    /** p at every degree from 0 to its max degree. */
+    public List<Estimate> estimates(Program p) {
+        int max = expander.maxDegree(p);
+        List<Estimate> out = new ArrayList<>(max + 1);
+        for (int d = 0; d <= max; d++) out.add(estimate(p, d, sizeOf(p, d)));
+        return out;
+    }
+
+    private static Estimate estimate(Program p, int degree, Size s) {
+        int[] maxZ = {0};
+        Set<Integer> labels = new HashSet<>();
+        p.forEachDistinct((ins, i) -> {
+            for (Var v : ins.variablesUsed()) {
+                if (v.isZ()) maxZ[0] = Math.max(maxZ[0], v.index());
+            }
+            int id = ins.labelId();
+            if (id != Labels.NONE && id != Labels.EXIT) labels.add(id);
+        });
+        return new Estimate(degree, s.lines(), s.stored(), Size.add(maxZ[0], s.zs()), Size.add(labels.size(), s.labels()));
+    }
+
+    /** Size of ins after degree rounds. */
+    public Size of(Instruction ins, int degree) {
+        if (degree <= 0 || ins.isBasic()) return Size.LINE;
+        return ins.expandedSize(degree, this);
+    }
+
+    /** The default {@link Instruction#expandedSize}: expand once into a scratch program and size that. */
+    public Size byExpanding(Instruction ins, int degree) {
+        Program children = new Program("cost");
+        ins.expandTo(children, new FreshNames(new FreshNames.Scan()));
+        return Size.fresh(ins.freshZs(), ins.freshLabels()).plus(sizeOf(children, degree - 1));
+    }
+
+    /** Size of the body of function name (looked up in FunctionEnv.current()) after degree rounds. */
+    public Size function(String name, int degree) {
+        BodyAt key = new BodyAt(name, degree);
+        Size known = bodies.get(key);
+        if (known != null) return known;
+        Program body = FunctionEnv.current().get(name);
+        if (body == null) throw new IllegalStateException("Function '" + name + "' not found");
+        Size s = sizeOf(body, degree);       // sizes the callees first, at degree - 1
+        bodies.put(key, s);
+        return s;
+    }
+
+    /**
+     * Size of a program after degree rounds, going the way an expansion round goes: a block of
+     * basics stays one block, a block with synthetic lines is unrolled and every line expands.
+     */
+    public Size sizeOf(Program p, int degree) {
+        List<Instruction> code = p.instructions();
+        Size total = Size.NONE;
+        for (int i = 0; i < code.size(); ) {
+            RepeatList.Block<Instruction> block = p.repeatAt(i);
+            if (block == null) {
+                total = total.plus(of(code.get(i++), degree));
+                continue;
+            }
+            if (degree <= 0 || ExpanderImpl.allBasic(block)) {
+                total = total.plus(new Size(block.lines(), block.body().size(), 0, 0));
+            } else {
+                Size round = Size.NONE;
+                for (Instruction ins : block.body()) round = round.plus(of(ins, degree));
+                total = total.plus(round.times(block.count()));
+            }
+            i += (int) block.lines();
+        }
+        return total;
+    }
+}
@@ -0,0 +1,286 @@
+package system.core.expand;
+
+import system.core.exec.JumpResolver;
+import system.core.exec.LabelIndex;
+import system.core.expand.helpers.FreshNames;
+import system.core.model.Instruction;
+import system.core.model.Labels;
+import system.core.model.Program;
+import system.core.model.RepeatList;
+import system.core.model.Var;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * A program expanded to a degree without building the expanded {@link Program}: the instructions are
+ * produced in order, only as far as somebody asks for them (the pc of a run, a page of a view).
+ * Labels are indexed as they come by, so a jump to a label further on expands up to it and no more.
+ *
+ * Gives the instructions and origins of {@link ExpanderImpl#expandToDegreeWithOrigins}. Fresh names
+ * of a round depend on the whole round before it (highest z, labels in use), and the names its z's
+ * end up with on the whole round itself ({@link ZCompaction}), so every round is streamed through
+ * once first, keeping only a {@link FreshNames.Scan} of it and the new names of its z's. While those
+ * are worked out the round is held (repeat blocks as blocks), one round at a time.
+ *
+ * Repeat blocks (see {@link Program#addRepeated}) stay one piece; a round that meets a block with
+ * synthetic lines unrolls it one line at a time, and a block of basics goes through as it is.
+ *
+ * Must be created and read inside the FunctionEnv: QUOTE looks its function up when it expands.
+ */
+public final class LazyExpansion implements JumpResolver {
+
+    /** A piece of the expanded program: one line, or a repeat block standing for many. */
+    public sealed interface Piece permits Line, Repeat {
+        /** Origin of the piece's lines (null for lines as written, or when origins are not tracked). */
+        Origin origin();
+
+        /** Number of lines of the expanded program the piece stands for. */
+        long lines();
+    }
+
+    /** One line of the expanded program and its origin. */
+    public record Line(Instruction instruction, Origin origin) implements Piece {
+        @Override public long lines() { return 1; }
+    }
+
+    /** A repeat block; all its lines came from one instruction and share its origin. */
+    public record Repeat(RepeatList.Block<Instruction> block, Origin origin) implements Piece {
+        @Override public long lines() { return block.lines(); }
+    }
+
+    private final Iterator<Piece> source;
+    private final RepeatList<Instruction> produced = new RepeatList<>();
+    private final RepeatList<Origin> origins;                 // null = not tracked
+    private final LabelIndex labels = LabelIndex.growing();
+
+    private LazyExpansion(Iterator<Piece> source, boolean withOrigins) {
+        this.source = source;
+        this.origins = withOrigins ? new RepeatList<>() : null;
+    }
+
+    /** p expanded to degree, kept as far as it was read (for runs and debug sessions: jumps go back). */
+    public static LazyExpansion of(Program p, int degree, boolean withOrigins) {
+        return new LazyExpansion(stream(p, degree, withOrigins), withOrigins);
+    }
+
+    /** p expanded to degree as a one pass stream: nothing is kept (views that page through it). */
+    public static Iterator<Piece> stream(Program p, int degree, boolean withOrigins) {
+        int d = Math.min(Math.max(0, degree), new ExpanderImpl().maxDegree(p)); // later rounds change nothing
+        List<FreshNames.Scan> before = new ArrayList<>(d);
+        List<Map<Var, Var>> renames = new ArrayList<>(d);
+        before.add(FreshNames.scan(p));
+        for (int r = 1; r <= d; r++) {
+            Program round = new Program("round " + r);
+            for (Iterator<Piece> it = rounds(p, r, before, renames, false); it.hasNext(); ) {
+                switch (it.next()) {
+                    case Line l -> round.add(l.instruction());
+                    case Repeat b -> round.addRepeated(b.block().body(), b.block().count());
+                }
+            }
+            Map<Var, Var> to = ZCompaction.renaming(round, before.get(r - 1).maxZ());
+            renames.add(to);
+            if (r < d) {
+                FreshNames.Scan s = new FreshNames.Scan();
+                round.forEachDistinct((ins, i) -> s.add(ZCompaction.renamed(ins, to)));
+                before.add(s);
+            }
+        }
+        return rounds(p, d, before, renames, withOrigins);
+    }
+
+    // the last round keeps the names it hands out when its renames are not there yet
+    private static Iterator<Piece> rounds(Program p, int degree, List<FreshNames.Scan> before,
+                                          List<Map<Var, Var>> renames, boolean withOrigins) {
+        Iterator<Piece> it = pieces(p);
+        for (int r = 0; r < degree; r++) {
+            Map<Var, Var> to = (r < renames.size()) ? renames.get(r) : Map.of();
+            it = new Round(it, new FreshNames(before.get(r)), to, withOrigins);
+        }
+        return it;
+    }
+
+    /** The lines of p as pieces, a repeat block as one piece. */
+    private static Iterator<Piece> pieces(Program p) {
+        List<Instruction> code = p.instructions();
+        return new Iterator<>() {
+            private int i = 0;
+
+            @Override public boolean hasNext() { return i < code.size(); }
+
+            @Override public Piece next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                RepeatList.Block<Instruction> block = p.repeatAt(i);
+                if (block != null) {
+                    i += (int) block.lines();
+                    return new Repeat(block, null);
+                }
+                return new Line(code.get(i++), null);
+            }
+        };
+    }
+
+    /** Instruction at index (0-based), expanding up to it; null past the end of the program. */
+    public Instruction get(int index) {
+        return reach(index) ? produced.get(index) : null;
+    }
+
+    /** Origin chain of the instruction at index ("" past the end, or when origins are not tracked). */
+    public String origin(int index) {
+        return Origin.chainOf(originNode(index));
+    }
+
+    /** Origin of the instruction at index (null for a line as written, past the end, or when not tracked). */
+    public Origin originNode(int index) {
+        return (origins != null && reach(index)) ? origins.get(index) : null;
+    }
+
+    /** Number of instructions expanded so far. */
+    public int produced() { return produced.size(); }
+
+    /** Size of the whole expanded program (expands all of it). */
+    public int size() {
+        while (produceNext()) { /* keep going */ }
+        return produced.size();
+    }
+
+    @Override
+    public int resolve(String label) {
+        return resolve(Labels.id(label));
+    }
+
+    @Override
+    public int resolve(int labelId) {
+        int at = labels.resolve(labelId);
+        while (at == JumpResolver.NOT_FOUND && labelId != Labels.NONE && produceNext()) at = labels.resolve(labelId);
+        return at;
+    }
+
+    private boolean reach(int index) {
+        if (index < 0) return false;
+        while (produced.size() <= index) {
+            if (!produceNext()) return false;
+        }
+        return true;
+    }
+
+    private boolean produceNext() {
+        if (!source.hasNext()) return false;
+        switch (source.next()) {
+            case Line line -> {
+                labels.add(line.instruction(), produced.size());
+                produced.add(line.instruction());
+                if (origins != null) origins.add(line.origin());
+            }
+            case Repeat rep -> {
+                List<Instruction> body = rep.block().body();
+                for (int j = 0; j < body.size(); j++) labels.add(body.get(j), produced.size() + j);
+                produced.addRepeated(body, rep.block().count());
+                if (origins != null) origins.addRepeated(Collections.singletonList(rep.origin()), rep.lines());
+            }
+        }
+        return true;
+    }
+
+    /** One expansion round over the pieces of the round before, same as ExpanderImpl.expandOneWithOrigins. */
+    private static final class Round implements Iterator<Piece> {
+        private final Iterator<Piece> in;
+        private final FreshNames fresh;
+        private final Map<Var, Var> rename;  // names ZCompaction gives the round's z's
+        private final boolean withOrigins;
+        private final ArrayDeque<Piece> pending = new ArrayDeque<>();
+        private int number;              // 1-based index of the last line taken from the round before
+
+        // a block with synthetic lines, being unrolled: its lines go through one by one
+        private RepeatList.Block<Instruction> unrolling;
+        private Origin unrollingOrigin;
+        private long unrolled;
+
+        Round(Iterator<Piece> in, FreshNames fresh, Map<Var, Var> rename, boolean withOrigins) {
+            this.in = in;
+            this.fresh = fresh;
+            this.rename = rename;
+            this.withOrigins = withOrigins;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending.isEmpty() && (unrolling != null || in.hasNext())) expandNext();
+            return !pending.isEmpty();
+        }
+
+        @Override
+        public Piece next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return pending.poll();
+        }
+
+        private void expandNext() {
+            if (unrolling != null) {
+                Instruction ins = unrolling.line(unrolled++);
+                Origin origin = unrollingOrigin;
+                if (unrolled == unrolling.lines()) unrolling = null;
+                expandLine(ins, origin);
+                return;
+            }
+            Piece piece = in.next();
+            switch (piece) {
+                case Repeat rep when allBasic(rep.block()) -> {   // the whole block keeps its origin
+                    number += (int) rep.lines();
+                    pending.add(rep);
+                }
+                case Repeat rep -> {
+                    unrolling = rep.block();
+                    unrollingOrigin = rep.origin();
+                    unrolled = 0;
+                }
+                case Line line when line.instruction().isBasic() -> {
+                    number++;
+                    pending.add(line);
+                }
+                case Line line -> expandLine(line.instruction(), line.origin());
+            }
+        }
+
+        private void expandLine(Instruction ins, Origin origin) {
+            number++;
+            if (ins.isBasic()) {
+                pending.add(new Line(ins, origin));
+                return;
+            }
+            Program out = new Program("expansion");
+            ins.expandTo(out, fresh);
+            Origin from = withOrigins ? new Origin(origin, ExpanderImpl.displayOf(ins, number)) : null;
+            List<Instruction> code = out.instructions();
+            for (int i = 0; i < code.size(); ) {
+                RepeatList.Block<Instruction> block = out.repeatAt(i);
+                if (block != null) {
+                    pending.add(new Repeat(renamed(block), from));
+                    i += (int) block.lines();
+                    continue;
+                }
+                pending.add(new Line(ZCompaction.renamed(code.get(i++), rename), from));
+            }
+        }
+
+        // only the lines a round expands to can hold its fresh z's; what it copies is left alone
+        private RepeatList.Block<Instruction> renamed(RepeatList.Block<Instruction> block) {
+            if (rename.isEmpty()) return block;
+            List<Instruction> body = new ArrayList<>(block.body().size());
+            for (Instruction ins : block.body()) body.add(ZCompaction.renamed(ins, rename));
+            return body.equals(block.body()) ? block : new RepeatList.Block<>(body, block.count());
+        }
+
+        private static boolean allBasic(RepeatList.Block<Instruction> block) {
+            for (Instruction ins : block.body()) {
+                if (!ins.isBasic()) return false;
+            }
+            return true;
+        }
+    }
+}
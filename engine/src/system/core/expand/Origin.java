@@ -0,0 +1,52 @@
+package system.core.expand;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Where an expanded line came from: the synthetic instruction it was expanded out of (its display,
+ * "#3 (L1) [ S ] x1 <- 5 (2)") and the Origin of that instruction in turn. Lines of the program as
+ * written have no origin (null).
+ *
+ * Every line an instruction expands to points at the same node, and a node only points at its
+ * parent, so a whole expansion shares its prefixes: the "a  >>>  b  >>>  c" chain is only built
+ * when somebody asks for one line's {@link #chain()}.
+ */
+public final class Origin {
+    public static final String SEPARATOR = "  >>>  ";
+
+    private final Origin parent;     // null: expanded out of a line of the program as written
+    private final String link;
+
+    public Origin(Origin parent, String link) {
+        this.parent = parent;
+        this.link = link;
+    }
+
+    public Origin parent() { return parent; }
+
+    /** Display of the instruction this line was expanded out of. */
+    public String link() { return link; }
+
+    /** The links from the program as written down to this one. */
+    public List<String> links() {
+        List<String> out = new ArrayList<>();
+        for (Origin o = this; o != null; o = o.parent) out.add(o.link);
+        Collections.reverse(out);
+        return out;
+    }
+
+    /** The whole chain, oldest first: "#2 (...)  >>>  #5 (...)". */
+    public String chain() {
+        return String.join(SEPARATOR, links());
+    }
+
+    /** Chain of a line's origin, "" for a line of the program as written. */
+    public static String chainOf(Origin o) {
+        return o == null ? "" : o.chain();
+    }
+
+    @Override
+    public String toString() { return chain(); }
+}
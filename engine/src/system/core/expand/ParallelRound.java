@@ -0,0 +1,169 @@
+package system.core.expand;
+
+import system.core.exec.FunctionEnv;
+import system.core.expand.helpers.FreshNames;
+import system.core.model.Instruction;
+import system.core.model.Program;
+import system.core.model.RepeatList;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * One expansion round of a big program on the common ForkJoinPool, giving exactly what the
+ * sequential round of {@link ExpanderImpl} gives (same lines, same fresh z / L names, same blocks,
+ * same origins), so views of a degree look the same whichever way it was built.
+ *
+ * Within a round every line expands on its own; what ties them together is the FreshNames they
+ * share. Each line declares how many fresh labels and z's it takes ({@link Instruction#freshLabels},
+ * {@link Instruction#freshZs}), so the program is cut in chunks and every chunk gets, up front, the
+ * FreshNames the sequential round would have reached at its first line. The chunks expand in
+ * parallel and are put back together in order.
+ *
+ * If a chunk did not end where the next one starts (a line took other names than it declared) or
+ * anything went wrong, {@link #expand} gives up with null and the round is done sequentially.
+ */
+final class ParallelRound {
+    /** Programs shorter than this expand on the calling thread. */
+    static final int MIN_LINES = 1 << 13;
+    private static final int CHUNK_LINES = 1 << 10;
+
+    private ParallelRound() {}
+
+    static boolean worthSplitting(Program p) {
+        return p.instructions().size() >= MIN_LINES && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /** Lines [from, to) and the FreshNames they start with / must end at. */
+    private static final class Chunk {
+        final int from, to;
+        final long labels, zs;
+        FreshNames fresh, end;
+        Program out;
+        RepeatList<Origin> origins;
+
+        Chunk(int from, int to, long labels, long zs) {
+            this.from = from;
+            this.to = to;
+            this.labels = labels;
+            this.zs = zs;
+        }
+    }
+
+    /** cur (whose names are in before) expanded one round (see ExpanderImpl#expandRange), or null to do it sequentially. */
+    static ExpandedProgramResult expand(Program cur, List<Origin> prevOrigins, boolean withOrigins,
+                                        FreshNames.Scan before) {
+        FunctionEnv env = FunctionEnv.currentOrNull();   // QUOTE looks its function up while expanding
+        try {
+            List<Chunk> chunks = split(cur);
+            FreshNames at = new FreshNames(before);
+            for (Chunk c : chunks) {
+                c.fresh = at.after(0, 0);                // the chunk's own copy, used up while it expands
+                c.end = at = at.after(c.labels, c.zs);
+            }
+
+            ForkJoinPool.commonPool().invoke(new Expand(cur, prevOrigins, withOrigins, env, chunks, 0, chunks.size()));
+
+            Program out = new Program(cur.name() + " [expanded]");
+            RepeatList<Origin> origins = withOrigins ? new RepeatList<>() : null;
+            for (Chunk c : chunks) {
+                if (!c.fresh.isAt(c.end)) return null;
+                appendProgram(out, c.out);
+                if (withOrigins) appendOrigins(origins, c.origins);
+            }
+            return new ExpandedProgramResult(out, withOrigins ? origins : List.of());
+        } catch (RuntimeException e) {
+            return null;    // the sequential round reports it, with the same message as always
+        }
+    }
+
+    /** Chunks of about CHUNK_LINES lines with their fresh name needs; a block of basics stays in one chunk. */
+    private static List<Chunk> split(Program cur) {
+        List<Instruction> code = cur.instructions();
+        List<Chunk> chunks = new ArrayList<>();
+        int from = 0;
+        long labels = 0, zs = 0;
+        for (int i = 0; i < code.size(); ) {
+            RepeatList.Block<Instruction> block = cur.repeatAt(i);
+            if (block != null && ExpanderImpl.allBasic(block)) {
+                i += (int) block.lines();
+            } else {
+                Instruction ins = code.get(i++);
+                if (!ins.isBasic()) {
+                    labels += ins.freshLabels();
+                    zs += ins.freshZs();
+                }
+            }
+            if (i - from >= CHUNK_LINES || i == code.size()) {
+                chunks.add(new Chunk(from, i, labels, zs));
+                from = i;
+                labels = zs = 0;
+            }
+        }
+        return chunks;
+    }
+
+    private static final class Expand extends RecursiveAction {
+        private final Program cur;
+        private final List<Origin> prevOrigins;
+        private final boolean withOrigins;
+        private final FunctionEnv env;
+        private final List<Chunk> chunks;
+        private final int lo, hi;
+
+        Expand(Program cur, List<Origin> prevOrigins, boolean withOrigins, FunctionEnv env,
+               List<Chunk> chunks, int lo, int hi) {
+            this.cur = cur;
+            this.prevOrigins = prevOrigins;
+            this.withOrigins = withOrigins;
+            this.env = env;
+            this.chunks = chunks;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        @Override
+        protected void compute() {
+            if (hi - lo > 1) {
+                int mid = (lo + hi) >>> 1;
+                invokeAll(new Expand(cur, prevOrigins, withOrigins, env, chunks, lo, mid),
+                          new Expand(cur, prevOrigins, withOrigins, env, chunks, mid, hi));
+                return;
+            }
+            Chunk c = chunks.get(lo);
+            c.out = new Program(cur.name() + " [expanded]");
+            c.origins = withOrigins ? new RepeatList<>() : null;
+            Runnable expand = () -> ExpanderImpl.expandRange(cur, prevOrigins, c.from, c.to, c.fresh, c.out, c.origins);
+            if (env == null) expand.run();
+            else FunctionEnv.with(env, () -> { expand.run(); return null; });
+        }
+    }
+
+    // blocks go over as blocks, so the result is stored just like the sequential one
+    private static void appendProgram(Program out, Program piece) {
+        List<Instruction> code = piece.instructions();
+        for (int i = 0; i < code.size(); ) {
+            RepeatList.Block<Instruction> block = piece.repeatAt(i);
+            if (block != null) {
+                out.addRepeated(block.body(), block.count());
+                i += (int) block.lines();
+            } else {
+                out.add(code.get(i++));
+            }
+        }
+    }
+
+    private static void appendOrigins(RepeatList<Origin> out, RepeatList<Origin> piece) {
+        for (int i = 0; i < piece.size(); ) {
+            RepeatList.Block<Origin> block = piece.blockAt(i);
+            if (block != null) {
+                out.addRepeated(block.body(), block.count());
+                i += (int) block.lines();
+            } else {
+                out.add(piece.get(i++));
+            }
+        }
+    }
+}
@@ -0,0 +1,361 @@
+package system.core.expand;
+
+import system.core.exec.JumpResolver;
+import system.core.exec.LabelIndex;
+import system.core.model.Instruction;
+import system.core.model.Labels;
+import system.core.model.Program;
+import system.core.model.Remappable;
+import system.core.model.RepeatList;
+import system.core.model.Var;
+import system.core.model.basic.IfGoto;
+import system.core.model.basic.Inc;
+import system.core.model.basic.Nop;
+import system.core.model.synthetic.GotoLabel;
+import system.core.model.synthetic.JumpZero;
+import system.core.model.synthetic.ZeroVariable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Gives the z's one expansion round handed out (those above keepZ: FreshNames starts there) as few
+ * names as it can, so a deep expansion does not end up with a register for every GOTO and assignment
+ * it ever expanded. z's of the program before the round keep their names; lines, labels and origins
+ * stay where they are.
+ *
+ * Every z starts at 0, and where a z is back at 0 its slot is as good as a fresh one. So a z only
+ * holds its slot where it may be non-zero (going forward over the control flow from every line that
+ * writes it, up to the edges that only run with it at 0: the fall-through of IF z != 0, the jump of
+ * IF z = 0, the end of z <- 0) and on the lines that use it. Two z's whose slots never overlap get
+ * one name: whichever of them is in use finds the value it would have had, and the other one is 0.
+ *
+ * The "tmp <- tmp + 1; IF tmp != 0" a GOTO expands to jumps whatever tmp held, so z's used only that
+ * way all share one more name. A z whose slot spreads too far to follow keeps a name of its own.
+ */
+final class ZCompaction {
+    // a z whose non-zero stretch goes past this many entries is not followed any further
+    private static final int MAX_WALK = 1 << 8;
+    private static final int MAX_TARGETS = 4;
+
+    private final Program p;
+    private final int keepZ;
+    private final int entries;                       // a plain line, or a repeat block
+    private final int[] firstLine;                   // of every entry; the number of lines at [entries]
+    private final Instruction[] line;                // null for a block
+    private final List<RepeatList.Block<Instruction>> block;  // null for a plain line
+    private final LabelIndex labels;
+
+    private int temps;                               // z keepZ + 1 + t is temp t
+    private int[][] uses;                            // entries using temp t (once per use)
+    private int[] useCount;
+    private long budget;                             // entries all walks together may still visit
+
+    private ZCompaction(Program p, int keepZ) {
+        this.p = p;
+        this.keepZ = keepZ;
+        List<Instruction> code = p.instructions();
+        int n = 0;                                   // entries first: a block of k lines is one of them
+        for (int i = 0; i < code.size(); n++) {
+            RepeatList.Block<Instruction> b = p.repeatAt(i);
+            i += (b == null) ? 1 : (int) b.lines();
+        }
+        int[] first = new int[n + 1];
+        Instruction[] lines = new Instruction[n];
+        List<RepeatList.Block<Instruction>> blocks = new ArrayList<>(Collections.nCopies(n, null));
+        n = 0;
+        for (int i = 0; i < code.size(); n++) {
+            first[n] = i;
+            RepeatList.Block<Instruction> b = p.repeatAt(i);
+            if (b == null) {
+                lines[n] = code.get(i++);
+            } else {
+                blocks.set(n, b);
+                i += (int) b.lines();
+            }
+        }
+        first[n] = code.size();
+        this.entries = n;
+        this.firstLine = first;
+        this.line = lines;
+        this.block = blocks;
+        this.labels = LabelIndex.build(p);
+        this.budget = 16L * n + (1 << 20);
+    }
+
+    /** r with the z's above keepZ renumbered; r itself if nothing changes. */
+    static ExpandedProgramResult compact(ExpandedProgramResult r, int keepZ) {
+        ZCompaction c = new ZCompaction(r.program(), keepZ);
+        Map<Var, Var> to = c.renaming();
+        return to.isEmpty() ? r : new ExpandedProgramResult(c.rename(to), r.originTree());
+    }
+
+    /** The new name of every z above keepZ that p uses; empty if nothing changes. */
+    static Map<Var, Var> renaming(Program p, int keepZ) {
+        return new ZCompaction(p, keepZ).renaming();
+    }
+
+    /** ins with its z's renamed as in to (see {@link #renaming}); ins itself if it uses none of them. */
+    static Instruction renamed(Instruction ins, Map<Var, Var> to) {
+        for (Var v : ins.variablesUsed()) {
+            if (to.containsKey(v)) return ((Remappable) ins).remap(x -> to.getOrDefault(x, x), UnaryOperator.identity());
+        }
+        return ins;     // nothing to rename: the same line is kept
+    }
+
+    private Map<Var, Var> renaming() {
+        if (!collectUses()) return Map.of();
+
+        int[] colour = new int[temps];
+        Arrays.fill(colour, -1);
+        int colours = 0;
+
+        // GOTO counters: one name for all of them
+        int counters = -1;
+        int[] paired = countedPairs();
+        for (int t = 0; t < temps; t++) {
+            if (useCount[t] > 0 && paired[t] == useCount[t]) {
+                if (counters < 0) counters = colours++;
+                colour[t] = counters;
+            }
+        }
+
+        // the others: first fit, in the order their slots start
+        List<int[]> slots = new ArrayList<>();         // per temp: sorted runs {from, to, from, to, ...}
+        List<Integer> order = new ArrayList<>();
+        int[] mark = new int[entries];
+        for (int t = 0; t < temps; t++) {
+            if (useCount[t] == 0 || colour[t] >= 0) {
+                slots.add(null);
+                continue;
+            }
+            int[] runs = slotOf(t, mark);
+            slots.add(runs);
+            if (runs == null) colour[t] = colours++;   // too far to follow: a name of its own
+            else order.add(t);
+        }
+        order.sort((a, b) -> Integer.compare(slots.get(a)[0], slots.get(b)[0]));
+        List<TreeMap<Integer, Integer>> taken = new ArrayList<>();
+        List<Integer> takenColour = new ArrayList<>();
+        for (int t : order) {
+            int[] runs = slots.get(t);
+            int k = 0;
+            while (k < taken.size() && overlaps(taken.get(k), runs)) k++;
+            if (k == taken.size()) {
+                taken.add(new TreeMap<>());
+                takenColour.add(colours++);
+            }
+            for (int i = 0; i < runs.length; i += 2) taken.get(k).put(runs[i], runs[i + 1]);
+            colour[t] = takenColour.get(k);
+        }
+        int used = 0;
+        for (int t = 0; t < temps; t++) if (useCount[t] > 0) used++;
+        if (colours >= used) return Map.of();         // no two share a name
+
+        return names(colour, colours);
+    }
+
+    // uses of every temp; false if there is nothing to do, or a line this cannot rename (or follow)
+    private boolean collectUses() {
+        int maxZ = keepZ;
+        for (int e = 0; e < entries; e++) {
+            for (Instruction ins : body(e)) {
+                if ((line[e] == null && ins instanceof IfGoto) || ins.labelTargets().size() > MAX_TARGETS) return false;
+                for (Var v : ins.variablesUsed()) {
+                    if (v.isZ() && v.index() > keepZ) {
+                        if (!(ins instanceof Remappable)) return false;
+                        maxZ = Math.max(maxZ, v.index());
+                    }
+                }
+            }
+        }
+        temps = maxZ - keepZ;
+        if (temps < 2) return false;
+        useCount = new int[temps];
+        uses = new int[temps][];
+        for (int e = 0; e < entries; e++) {
+            for (Instruction ins : body(e)) {
+                for (Var v : ins.variablesUsed()) {
+                    int t = temp(v);
+                    if (t < 0) continue;
+                    if (uses[t] == null) uses[t] = new int[4];
+                    else if (useCount[t] == uses[t].length) uses[t] = Arrays.copyOf(uses[t], useCount[t] * 2);
+                    uses[t][useCount[t]++] = e;
+                }
+            }
+        }
+        return true;
+    }
+
+    // per temp, how many of its uses are "tmp <- tmp + 1" right before an unlabeled "IF tmp != 0"
+    private int[] countedPairs() {
+        int[] paired = new int[temps];
+        for (int e = 0; e + 1 < entries; e++) {
+            if (line[e] instanceof Inc inc && line[e + 1] instanceof IfGoto jnz
+                    && jnz.v().equals(inc.v()) && jnz.labelId() == Labels.NONE) {
+                int t = temp(inc.v());
+                if (t >= 0) paired[t] += 2;
+            }
+        }
+        return paired;
+    }
+
+    /**
+     * Where temp t holds its slot, as sorted {from, to} runs of entries: the entries that use it and
+     * every entry it may reach non-zero. Null if that is more than MAX_WALK entries (or the budget is gone).
+     */
+    private int[] slotOf(int t, int[] mark) {
+        int stamp = t + 1;
+        int[] held = new int[useCount[t] + 16];
+        int size = 0;
+        int[] stack = new int[16];
+        int top = 0;
+        int[] next = new int[1 + MAX_TARGETS];
+
+        for (int u = 0; u < useCount[t]; u++) {
+            int e = uses[t][u];
+            if (size == held.length) held = Arrays.copyOf(held, size * 2);
+            held[size++] = e;
+            if (!writes(e)) continue;
+            for (int s = 0, n = successors(e, t, next); s < n; s++) {
+                if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = next[s];
+            }
+        }
+        while (top > 0) {
+            int e = stack[--top];
+            if (e >= entries || mark[e] == stamp) continue;
+            mark[e] = stamp;
+            if (size - useCount[t] >= MAX_WALK || --budget < 0) return null;
+            if (size == held.length) held = Arrays.copyOf(held, size * 2);
+            held[size++] = e;
+            for (int s = 0, n = successors(e, t, next); s < n; s++) {
+                if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                stack[top++] = next[s];
+            }
+        }
+
+        Arrays.sort(held, 0, size);
+        int[] runs = new int[2 * size];
+        int r = 0;
+        for (int i = 0; i < size; i++) {
+            if (r > 0 && held[i] <= runs[r - 1] + 1) {
+                runs[r - 1] = Math.max(runs[r - 1], held[i]);
+            } else {
+                runs[r++] = held[i];
+                runs[r++] = held[i];
+            }
+        }
+        return Arrays.copyOf(runs, r);
+    }
+
+    private static boolean overlaps(TreeMap<Integer, Integer> taken, int[] runs) {
+        for (int i = 0; i < runs.length; i += 2) {
+            Map.Entry<Integer, Integer> before = taken.floorEntry(runs[i + 1]);
+            if (before != null && before.getValue() >= runs[i]) return true;
+        }
+        return false;
+    }
+
+    // false only for lines that read a z and leave it as it is
+    private boolean writes(int e) {
+        Instruction ins = line[e];
+        return !(ins instanceof IfGoto || ins instanceof JumpZero || ins instanceof Nop);
+    }
+
+    /**
+     * Entries control may go to after entry e while temp t may be non-zero, into next; returns how
+     * many. Edges only taken with t at 0 are left out. entries stands for the end of the program.
+     */
+    private int successors(int e, int t, int[] next) {
+        Instruction ins = line[e];
+        if (ins == null) {
+            next[0] = e + 1;                             // a block of basics runs through (no jumps, see collectUses)
+            return 1;
+        }
+        return switch (ins) {
+            case IfGoto g -> {
+                next[0] = target(g.targetId());
+                if (temp(g.v()) == t) yield 1;          // falls through only at 0
+                next[1] = e + 1;
+                yield 2;
+            }
+            case JumpZero j -> {
+                next[0] = e + 1;
+                if (temp(j.v()) == t) yield 1;          // jumps only at 0
+                next[1] = target(j.targetId());
+                yield 2;
+            }
+            case ZeroVariable z -> {
+                if (temp(z.v()) == t) yield 0;
+                next[0] = e + 1;
+                yield 1;
+            }
+            case GotoLabel g -> {
+                next[0] = target(g.targetId());
+                yield 1;
+            }
+            default -> {
+                int n = 0;
+                next[n++] = e + 1;
+                for (String to : ins.labelTargets()) next[n++] = target(Labels.id(to));
+                yield n;
+            }
+        };
+    }
+
+    // the entry holding the line a label is on; the end for EXIT and labels not in the program
+    private int target(int labelId) {
+        int pc = labels.resolve(labelId);
+        if (pc == JumpResolver.EXIT || pc == JumpResolver.NOT_FOUND) return entries;
+        int i = Arrays.binarySearch(firstLine, 0, entries, pc);
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    private int temp(Var v) {
+        return (v != null && v.isZ() && v.index() > keepZ) ? v.index() - keepZ - 1 : -1;
+    }
+
+    private List<Instruction> body(int e) {
+        return (line[e] != null) ? List.of(line[e]) : block.get(e).body();
+    }
+
+    // colours numbered in the order they first come up, so the names read top down
+    private Map<Var, Var> names(int[] colour, int colours) {
+        int[] name = new int[colours];
+        Arrays.fill(name, -1);
+        int next = keepZ + 1;
+        Map<Var, Var> to = new HashMap<>();
+        for (int e = 0; e < entries; e++) {
+            for (Instruction ins : body(e)) {
+                for (Var v : ins.variablesUsed()) {
+                    int t = temp(v);
+                    if (t < 0 || to.containsKey(v)) continue;
+                    if (name[colour[t]] < 0) name[colour[t]] = next++;
+                    to.put(v, Var.z(name[colour[t]]));
+                }
+            }
+        }
+        return to;
+    }
+
+    private Program rename(Map<Var, Var> to) {
+        Program out = new Program(p.name());
+        for (int e = 0; e < entries; e++) {
+            if (line[e] != null) {
+                out.add(renamed(line[e], to));
+                continue;
+            }
+            List<Instruction> body = new ArrayList<>(block.get(e).body().size());
+            for (Instruction ins : block.get(e).body()) body.add(renamed(ins, to));
+            out.addRepeated(body, block.get(e).count());
+        }
+        return out;
+    }
+}
@@ -2,59 +2,64 @@ package system.core.expand.helpers;
 
 import system.core.model.Program;
 import system.core.model.Instruction;
+import system.core.model.Labels;
 import system.core.model.Var;
 
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 public final class FreshNames {
-    private static final String AUTO_LABEL_PREFIX = "L";
+    private static final int DENSE_LABELS = 1 << 24;   // L<n> numbers kept in the bit set, bigger ones in a set
 
     private int nextLabelId = 1;
     private int nextZ;
-    private final Set<String> usedLabels = new HashSet<>();
+    // only labels of the form L<n> can clash with nextLabel(), so only their numbers (= Labels ids) are remembered
+    private final BitSet usedLabels;
+    private final Set<Integer> usedFarLabels;
 
     public FreshNames(Program base) {
-        int maxZ = 0;
+        this(scan(base));
+    }
 
-        if (base != null) {
-            for (Instruction ins : base.instructions()) {
-                // collect existing labels
-                String lab = ins.label();
-                if (lab != null && !lab.isEmpty()) {
-                    usedLabels.add(lab);
-                }
-
-                // collect used z-k indices
-                List<Var> vars = ins.variablesUsed(); // Instruction should expose this
-                if (vars != null) {
-                    for (Var v : vars) {
-                        if (v.isZ()) {
-                            if (v.index() > maxZ) maxZ = v.index();
-                        }
-                    }
-                }
-            }
-        }
+    /** Fresh names for a program that was only streamed through a {@link Scan} (lazy expansion). */
+    public FreshNames(Scan base) {
+        this.usedLabels = (BitSet) base.usedLabels.clone();
+        this.usedFarLabels = new HashSet<>(base.usedFarLabels);
 
         // start temp z's after the highest used one (at least z1)
-        this.nextZ = Math.max(1, maxZ + 1);
+        this.nextZ = Math.max(1, base.maxZ + 1);
 
         // if user(the one who give me the xml) already used some L$N labels, skip ahead to a free id
-        while (usedLabels.contains(AUTO_LABEL_PREFIX + nextLabelId)) {
+        while (isUsed(nextLabelId)) {
             nextLabelId++;
         }
     }
 
+    // a FreshNames further on in the same round, sharing the used labels
+    private FreshNames(FreshNames from, int nextLabelId, int nextZ) {
+        this.usedLabels = from.usedLabels;
+        this.usedFarLabels = from.usedFarLabels;
+        this.nextLabelId = nextLabelId;
+        this.nextZ = nextZ;
+    }
+
+    public static Scan scan(Program base) {
+        Scan s = new Scan();
+        if (base != null) {
+            base.forEachDistinct((ins, i) -> s.add(ins));
+        }
+        return s;
+    }
+
     /** Returns a fresh label guaranteed not to clash with existing labels. so we know we are good */
     public String nextLabel() {
-        String lab;
+        int n;
         do {
-            lab = AUTO_LABEL_PREFIX + nextLabelId++;
-        } while (usedLabels.contains(lab));
-        usedLabels.add(lab);
-        return lab;
+            n = nextLabelId++;
+        } while (isUsed(n));
+        return Labels.name(n);   // nextLabelId only goes up, so n is never handed out again
     }
 
     /** Returns a fresh temporary z variable: z{n}, starting at maxZ+1. */
@@ -62,10 +67,73 @@ public final class FreshNames {
         return Var.z(nextZ++);
     }
 
+    /** Reserves n fresh z's in a row (what n calls of tempZ() would give): returns the index of the first. */
+    public int tempZs(int n) {
+        int first = nextZ;
+        nextZ += n;
+        return first;
+    }
+
+    /**
+     * The names this one would hand out after labels more nextLabel() and zs more z's, without
+     * taking them: a round split in pieces gives every piece its own range up front. The used labels
+     * are shared from then on, so markLabelUsed() no longer belongs on either.
+     */
+    public FreshNames after(long labels, long zs) {
+        int n = nextLabelId;
+        for (long k = 0; k < labels; k++) {
+            while (isUsed(n)) n++;
+            n++;
+        }
+        return new FreshNames(this, n, Math.toIntExact(nextZ + zs));
+    }
+
+    /** True if this one is where other starts: the same next label and next z. */
+    public boolean isAt(FreshNames other) {
+        return nextLabelId == other.nextLabelId && nextZ == other.nextZ;
+    }
+
     /** Optional: mark an externally created label as used. (propbably will need it later) */
     public void markLabelUsed(String label) {
-        if (label != null && !label.isEmpty()) {
-            usedLabels.add(label);
+        int n = Labels.autoNumber(label);
+        if (n > 0) markUsed(n, usedLabels, usedFarLabels);
+    }
+
+    private boolean isUsed(int n) {
+        return n < DENSE_LABELS ? usedLabels.get(n) : usedFarLabels.contains(n);
+    }
+
+    private static void markUsed(int n, BitSet dense, Set<Integer> far) {
+        if (n < DENSE_LABELS) dense.set(n);
+        else far.add(n);
+    }
+
+    /**
+     * What fresh names need to know about a program: its highest z index and the L<n> labels it uses.
+     * Collected one instruction at a time, so a program can be looked at without keeping it.
+     */
+    public static final class Scan {
+        private int maxZ = 0;
+        private final BitSet usedLabels = new BitSet();
+        private final Set<Integer> usedFarLabels = new HashSet<>();
+
+        /** Highest z index seen (0 if none): fresh z's start right after it. */
+        public int maxZ() { return maxZ; }
+
+        public void add(Instruction ins) {
+            // collect existing labels
+            int n = ins.labelId();
+            if (n > 0) markUsed(n, usedLabels, usedFarLabels);
+
+            // collect used z-k indices
+            List<Var> vars = ins.variablesUsed(); // Instruction should expose this
+            if (vars != null) {
+                for (Var v : vars) {
+                    if (v.isZ()) {
+                        if (v.index() > maxZ) maxZ = v.index();
+                    }
+                }
+            }
         }
     }
 }
@@ -0,0 +1,89 @@
+package system.core.expand.helpers;
+
+import system.core.model.Instruction;
+import system.core.model.Program;
+import system.core.model.Remappable;
+import system.core.model.Var;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * What QUOTE needs to inline a function, worked out once per function and FunctionEnv (see
+ * {@link system.core.exec.FunctionEnv#inlineTemplate}): the highest x / z its body uses, the labels
+ * it defines or jumps to, and the body itself.
+ *
+ * Inlining one call is then a relocation: the body's variables move to one run of fresh z's
+ * (y first, then x1..x{xSlots}, then z1..z{maxZ}) and its labels, in {@link #labels()} order, to
+ * fresh labels; EXIT goes to the call's end label.
+ */
+public final class InlineTemplate {
+    private final int maxX;
+    private final int maxZ;
+    private final List<String> labels;               // defined or jumped to, first use first, no EXIT
+    private final Map<String, Integer> labelIds;     // label -> position in labels
+    private final List<Instruction> body;
+
+    private InlineTemplate(int maxX, int maxZ, List<String> labels, List<Instruction> body) {
+        this.maxX = maxX;
+        this.maxZ = maxZ;
+        this.labels = List.copyOf(labels);
+        this.labelIds = new HashMap<>();
+        for (int i = 0; i < labels.size(); i++) labelIds.put(labels.get(i), i);
+        this.body = body;
+    }
+
+    public static InlineTemplate of(Program function) {
+        int[] max = {0, 0};                                    // x, z
+        Set<String> labels = new LinkedHashSet<>();
+        function.forEachDistinct((ins, i) -> {
+            for (Var v : ins.variablesUsed()) {
+                if (v.isX()) max[0] = Math.max(max[0], v.index());
+                if (v.isZ()) max[1] = Math.max(max[1], v.index());
+            }
+            if (ins.label() != null && !ins.label().isEmpty()) labels.add(ins.label());
+            for (String t : ins.labelTargets()) if (!"EXIT".equals(t)) labels.add(t);
+        });
+        return new InlineTemplate(max[0], max[1], new ArrayList<>(labels), function.instructions());
+    }
+
+    public int maxX() { return maxX; }
+    public int maxZ() { return maxZ; }
+    public List<String> labels() { return labels; }
+
+    /** x's a call with argCount arguments needs: every argument gets one, even if the body never reads it. */
+    public int xSlots(int argCount) { return Math.max(maxX, argCount); }
+
+    /** z's one call takes: y, the x slots and the body's own z's. */
+    public int zCount(int xSlots) { return 1 + xSlots + maxZ; }
+
+    /** The z's of one call, from base on: [0] stands for y, [i] for x_i, [xSlots + j] for z_j. */
+    public Var[] slots(int base, int xSlots) {
+        Var[] slots = new Var[zCount(xSlots)];
+        for (int i = 0; i < slots.length; i++) slots[i] = Var.z(base + i);
+        return slots;
+    }
+
+    /** Emits the body for one call: variables to slots (see {@link #slots}), labels()[k] -> freshLabels[k], EXIT -> end. */
+    public void relocate(Var[] slots, int xSlots, String[] freshLabels, String end, Consumer<Instruction> out) {
+        UnaryOperator<Var> vm = v -> {
+            if (v.isX()) return slots[v.index()];
+            if (v.isZ()) return slots[xSlots + v.index()];
+            if (v.isY()) return slots[0];
+            return v;
+        };
+        UnaryOperator<String> lm = lab -> {
+            if (lab == null || lab.isEmpty()) return lab;
+            if ("EXIT".equals(lab)) return end;
+            Integer id = labelIds.get(lab);
+            return id == null ? lab : freshLabels[id];
+        };
+        for (Instruction ins : body) out.accept(((Remappable) ins).remap(vm, lm));
+    }
+}
@@ -1,15 +1,29 @@
 package system.core.model;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 public abstract non-sealed class BasicInstruction implements Instruction {
-    protected final String label;
+    // pinned to the uid from before labelId(), so states saved by older versions still load
+    private static final long serialVersionUID = 5506181535365311527L;
+    protected String label;
     protected final int cycles;
+    private transient int labelId;     // Labels.id(label), ours while we hold the interned label; only the name is saved
 
     protected BasicInstruction(String label, int cycles) {
-        this.label = (label == null ? "" : label);
+        this.label = (label == null ? "" : Labels.intern(label));
         this.cycles = cycles;
+        this.labelId = Labels.id(this.label);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        label = Labels.intern(label);
+        labelId = Labels.id(label);
     }
 
     @Override public String label()   { return label; }
+    @Override public int labelId()    { return labelId; }
     @Override public int cycles()     { return cycles; }
     @Override public boolean isBasic(){ return true; }
 }
@@ -1,5 +1,6 @@
 package system.core.model;
 
+import system.core.expand.ExpansionCost;
 import system.core.expand.helpers.FreshNames;
 import java.util.List;
 import java.io.Serializable;
@@ -11,12 +12,39 @@ public sealed interface Instruction
         permits BasicInstruction, SyntheticInstruction  {
 
     String label();
+
+    /** {@link Labels} id of label(). */
+    default int labelId() { return Labels.id(label()); }
+
     int cycles();
     boolean isBasic();
     String asText();
 
     default List<Var> variablesUsed() { return List.of(); }
 
+    /**
+     * Number of expansion rounds until nothing synthetic is left of this instruction (0 = basic).
+     * Instructions that call functions look them up in FunctionEnv.current().
+     */
+    default int expansionDepth() { return 0; }
+
+    /**
+     * Fresh names one expandTo() takes from its FreshNames: nextLabel() calls and z's (tempZ() /
+     * tempZs()). Lets a round hand out disjoint ranges up front and expand in parallel (see
+     * system.core.expand.ParallelRound), so it has to match expandTo() exactly.
+     */
+    default int freshLabels() { return 0; }
+    default int freshZs() { return 0; }
+
+    /**
+     * Lines, stored entries and fresh names this instruction comes to after degree >= 1 rounds (see
+     * ExpansionCost). The default expands it once into a scratch program; an instruction whose
+     * expansion is costly to build works it out instead.
+     */
+    default ExpansionCost.Size expandedSize(int degree, ExpansionCost cost) {
+        return cost.byExpanding(this, degree);
+    }
+
     /** Label targets referenced by this instruction (default: none). */
     default List<String> labelTargets() { return List.of(); }
 
@@ -0,0 +1,143 @@
+package system.core.model;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Label names as ints, so instructions can carry their label and jump target as a number and a
+ * {@link system.core.exec.LabelIndex} can find a label's line by array index.
+ *
+ *   NONE (0)   no label ("")
+ *   EXIT       the EXIT pseudo label
+ *   n > 0      L<n> (no leading zeros), the form {@link system.core.expand.helpers.FreshNames} makes labels in:
+ *              the id is the number itself, nothing is stored for it
+ *   n < 0      any other name, interned on first sight (the lowest of -1, -2, ... not in use)
+ *
+ * Ids are the same in every program; only the names are serialized, the ids are worked out again
+ * when an instruction is read back. Interned names are held weakly: whoever keeps the id of a name
+ * keeps the String {@link #intern} gave for it too (every instruction does, for its label and
+ * target), and once nobody does the name is dropped and its id can go to another name. So the
+ * table holds the names of the programs still around, not every name the JVM ever saw.
+ *
+ * The table is one for all programs, not one per program, because instructions are shared between
+ * programs: an expansion round puts the basic lines and repeat blocks of the program before it into
+ * the new one as they are, and FunctionEnv's inlining templates hand the same lines to every caller.
+ * The id an instruction carries has to mean the same in each of them. A {@link
+ * system.core.exec.LabelIndex} is what belongs to one program: where its labels are, by id.
+ */
+public final class Labels {
+    public static final int NONE = 0;
+    public static final int EXIT = Integer.MIN_VALUE;
+
+    public static final String AUTO_PREFIX = "L";
+
+    // key and value are the same Name; looked up with a Lookup
+    private static final Map<Object, Name> named = new ConcurrentHashMap<>();
+    private static final ReferenceQueue<String> dropped = new ReferenceQueue<>();
+    private static volatile Name[] names = new Name[64];       // -id -> name, [0] unused
+    private static final BitSet free = new BitSet();           // ids of dropped names; guarded by Labels.class
+    private static int namedCount;                              // guarded by Labels.class
+
+    private Labels() {}
+
+    /** Id of a label name; null and "" are NONE. */
+    public static int id(String label) {
+        if (label == null || label.isEmpty()) return NONE;
+        if ("EXIT".equals(label)) return EXIT;
+        int n = autoNumber(label);
+        if (n > 0) return n;
+        Name known = named.get(new Lookup(label));
+        return known != null ? known.id : entry(label).id;
+    }
+
+    /**
+     * The String to keep for a label name, so its id stays taken: the same one for equal names
+     * (label itself for "", EXIT and L<n>, which have no entry).
+     */
+    public static String intern(String label) {
+        if (label == null || label.isEmpty() || "EXIT".equals(label) || autoNumber(label) > 0) return label;
+        for (;;) {                     // again if the entry found is dropped before we hold its String
+            Name known = named.get(new Lookup(label));
+            String kept = (known != null ? known : entry(label)).get();
+            if (kept != null) return kept;
+        }
+    }
+
+    /** Name of a label id, for views: "" for NONE. */
+    public static String name(int id) {
+        if (id == NONE) return "";
+        if (id == EXIT) return "EXIT";
+        if (id > 0) return AUTO_PREFIX + id;
+        Name n = names[-id];
+        return (n != null) ? n.get() : null;
+    }
+
+    /** n for a label written exactly as L<n> (n >= 1, no leading zeros), -1 for any other label. */
+    public static int autoNumber(String label) {
+        if (label == null || label.length() < 2 || label.length() > 11 || !label.startsWith(AUTO_PREFIX)) return -1;
+        if (label.charAt(1) == '0') return -1;
+        long n = 0;
+        for (int i = 1; i < label.length(); i++) {
+            char c = label.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            n = n * 10 + (c - '0');
+        }
+        return n <= Integer.MAX_VALUE ? (int) n : -1;
+    }
+
+    // the entry of label, made if it is not there (or being dropped); its String is label then
+    private static synchronized Name entry(String label) {
+        for (Reference<? extends String> r; (r = dropped.poll()) != null; ) {
+            Name gone = (Name) r;
+            named.remove(gone);
+            names[-gone.id] = null;
+            free.set(-gone.id);
+        }
+        Name known = named.get(new Lookup(label));
+        if (known != null && known.get() != null) return known;
+
+        int k = free.nextSetBit(1);
+        if (k > 0) free.clear(k);
+        else k = ++namedCount;
+        Name n = new Name(label, k);
+        Name[] table = names;
+        if (k >= table.length) table = Arrays.copyOf(table, table.length * 2);
+        table[k] = n;
+        names = table;                 // published before the id is, so name(id) always finds it
+        named.put(n, n);
+        return n;
+    }
+
+    /** An interned name; equal to a Lookup of the same name while the name is held. */
+    private static final class Name extends WeakReference<String> {
+        final int id;                  // negative
+        private final int hash;
+
+        Name(String name, int k) {
+            super(name, dropped);
+            this.id = -k;
+            this.hash = name.hashCode();
+        }
+
+        @Override public int hashCode() { return hash; }
+
+        @Override public boolean equals(Object o) {
+            if (o == this) return true;
+            String s = get();
+            return s != null && o instanceof Lookup l && s.equals(l.name);
+        }
+    }
+
+    private record Lookup(String name) {
+        @Override public int hashCode() { return name.hashCode(); }
+
+        @Override public boolean equals(Object o) {
+            return o instanceof Name n && name.equals(n.get());
+        }
+    }
+}
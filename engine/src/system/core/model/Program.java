@@ -7,11 +7,18 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.io.Serializable;
+import java.util.function.ObjIntConsumer;
 
 public final class Program implements Serializable {
+    // same as before repeat blocks were added, so saved engine states still load
+    private static final long serialVersionUID = 5534494414118104360L;
+
+    /** Repeats shorter than this are added line by line, so small programs look exactly as before. */
+    public static final int REPEAT_MIN_LINES = 256;
+
     private final String name;
     private final String userString;
-    private final List<Instruction> instructions;
+    private final List<Instruction> instructions;   // a RepeatList
 
     //Constructor for a fresh program
     public Program(String name) {
@@ -23,7 +30,9 @@ public final class Program implements Serializable {
     public Program(String name,String userString, List<Instruction> instructions) {
         this.name = Objects.requireNonNull(name, "name");
         this.userString =(userString == null ? "" : userString);
-        this.instructions = new ArrayList<>(Objects.requireNonNull(instructions, "instructions"));
+        RepeatList<Instruction> list = new RepeatList<>();
+        list.addAll(Objects.requireNonNull(instructions, "instructions"));
+        this.instructions = list;
     }
 
     public String name() { return name; }
@@ -42,6 +51,58 @@ public final class Program implements Serializable {
         instructions.add(Objects.requireNonNull(ins));
     }
 
+    /**
+     * Adds body count times in a row. Long repeats (the INCs of a big constant) are kept as one
+     * {@link RepeatList.Block}: {@link #instructions()} still shows every line, but they take no room.
+     */
+    public void addRepeated(List<Instruction> body, long count) {
+        if (count <= 0 || body.isEmpty()) return;
+        if (count < REPEAT_MIN_LINES && count * body.size() < REPEAT_MIN_LINES) {
+            for (long i = 0; i < count; i++) {
+                for (Instruction ins : body) add(ins);
+            }
+            return;
+        }
+        for (Instruction ins : body) Objects.requireNonNull(ins);
+        lines().addRepeated(body, count);
+    }
+
+    /**
+     * The repeat block whose first line is at index, or null (a plain line, or inside a block).
+     * Lets expanders, views etc. handle a block once instead of line by line.
+     */
+    public RepeatList.Block<Instruction> repeatAt(int index) {
+        return lines().blockAt(index);
+    }
+
+    /**
+     * Every distinct line with its index: plain lines one by one, a repeat block's body only once
+     * (at the indexes of its first round). Enough for whoever collects labels, variables or depths.
+     */
+    public void forEachDistinct(ObjIntConsumer<Instruction> action) {
+        RepeatList<Instruction> list = lines();
+        for (int i = 0; i < list.size(); ) {
+            RepeatList.Block<Instruction> block = list.blockAt(i);
+            if (block == null) {
+                action.accept(list.get(i), i);
+                i++;
+                continue;
+            }
+            for (int j = 0; j < block.body().size(); j++) action.accept(block.body().get(j), i + j);
+            i += (int) block.lines();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private RepeatList<Instruction> lines() {
+        return (RepeatList<Instruction>) instructions;
+    }
+
+    // states saved before repeat blocks hold a plain list
+    private Object readResolve() {
+        return (instructions instanceof RepeatList) ? this : new Program(name, userString, instructions);
+    }
+
 
 
 }
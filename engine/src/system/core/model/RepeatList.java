@@ -0,0 +1,98 @@
+package system.core.model;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+
+/**
+ * A list that stores "body repeated count times" as one {@link Block} instead of body.size() * count
+ * elements, so the k INCs of x <- k take the same memory for k = 5 and k = 10^6.
+ * Reading it is an ordinary list: get(i) of a line inside a block is the body element it repeats.
+ *
+ * Appends only (see {@link #add} / {@link #addRepeated}); size is an int like any list.
+ */
+public final class RepeatList<T> extends AbstractList<T> implements RandomAccess, Serializable {
+
+    /** body, count times in a row. */
+    public record Block<T>(List<T> body, long count) implements Serializable {
+        public Block {
+            body = Collections.unmodifiableList(new ArrayList<>(body));   // may hold nulls
+            if (body.isEmpty() || count < 1) throw new IllegalArgumentException("empty repeat block");
+        }
+
+        /** Number of lines the block stands for. */
+        public long lines() { return body.size() * count; }
+
+        /** The element at offset (0-based) from the start of the block. */
+        public T line(long offset) { return body.get((int) (offset % body.size())); }
+    }
+
+    // a block and where it sits: first index in the list, number of plain elements before it
+    private record Placed<T>(int start, int itemsBefore, Block<T> block) implements Serializable {}
+
+    private final ArrayList<T> items = new ArrayList<>();          // elements not in a block, in order
+    private final ArrayList<Placed<T>> blocks = new ArrayList<>(); // by start
+    private int size;
+
+    @Override
+    public T get(int index) {
+        Objects.checkIndex(index, size);
+        int b = blockBefore(index);
+        if (b < 0) return items.get(index);
+        Placed<T> p = blocks.get(b);
+        long offset = (long) index - p.start;
+        if (offset < p.block.lines()) return p.block.line(offset);
+        return items.get(p.itemsBefore + (int) (offset - p.block.lines()));
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public boolean add(T e) {
+        grow(1);
+        items.add(e);
+        return true;
+    }
+
+    /** Appends body count times, as one block. */
+    public void addRepeated(List<T> body, long count) {
+        Block<T> block = new Block<>(body, count);
+        int start = size;
+        grow(block.lines());
+        blocks.add(new Placed<>(start, items.size(), block));
+    }
+
+    /** The block starting at index, or null if index is not the first line of a block. */
+    public Block<T> blockAt(int index) {
+        int b = blockBefore(index);
+        if (b < 0) return null;
+        Placed<T> p = blocks.get(b);
+        return p.start == index ? p.block : null;
+    }
+
+    /** True if some lines are stored as blocks. */
+    public boolean hasBlocks() { return !blocks.isEmpty(); }
+
+    private void grow(long lines) {
+        if (size + lines > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Program too large: more than " + Integer.MAX_VALUE + " instructions");
+        }
+        size += (int) lines;
+    }
+
+    /** Index in blocks of the last block starting at or before index, -1 if none. */
+    private int blockBefore(int index) {
+        int lo = 0, hi = blocks.size() - 1, found = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (blocks.get(mid).start <= index) { found = mid; lo = mid + 1; }
+            else hi = mid - 1;
+        }
+        return found;
+    }
+}
@@ -2,16 +2,38 @@ package system.core.model;
 
 import system.core.expand.helpers.FreshNames;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+
 public abstract non-sealed class SyntheticInstruction implements Instruction {
-    protected final String label;
+    // the synthetic instructions pin the serialVersionUID they had before expansionDepth() was added,
+    // so states saved by older versions still load
+    private static final long serialVersionUID = 7999960056408064834L;
+    protected String label;
+    private transient int labelId;     // Labels.id(label), ours while we hold the interned label; only the name is saved
 
     protected SyntheticInstruction(String label) {
-        this.label = (label == null ? "" : label);
+        this.label = (label == null ? "" : Labels.intern(label));
+        this.labelId = Labels.id(this.label);
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        label = Labels.intern(label);
+        labelId = Labels.id(label);
     }
 
     @Override public String label()   { return label; }
+    @Override public int labelId()    { return labelId; }
     @Override public boolean isBasic(){ return false; }
 
+    // every synthetic instruction knows how deep its expansion goes (see ExpanderImpl#maxDegree)
+    @Override public abstract int expansionDepth();
+
+    // ... and how many fresh labels / z's that expansion takes (see Instruction#freshLabels)
+    @Override public abstract int freshLabels();
+    @Override public abstract int freshZs();
+
     // expandTo() is overridden by each concrete synthetic instruction so no need here
     // cycles(), asText() are provided by each concrete synthetic instruction so no need here
     // variablesUsed() defaults to Instruction#variablesUsed unless overridden so also no need here
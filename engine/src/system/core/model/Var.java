@@ -1,10 +1,26 @@
 package system.core.model;
 import java.io.Serializable;
+import java.util.Arrays;
 
 
+/**
+ * A variable. x's and z's below MAX_CACHED are interned (one Var per name, shared by every program),
+ * so x(i) / z(i) do not allocate once a name has been seen; equals / hashCode go by name anyway,
+ * for the bigger ones. The cache is never emptied, which is why it stops at MAX_CACHED: past that a
+ * name costs an allocation per call, not memory for good (compacted expansions stay far below it).
+ */
 public final class Var implements Serializable  {
+    // the uid Var had before it was interned, so states saved by older versions still load
+    private static final long serialVersionUID = 5407572575584818490L;
+
     public enum Type { X, Z, Y }   // the variable family we use Enum here cuz its small
 
+    private static final int MAX_CACHED = 1 << 16;     // per family: at most 2 * 2^16 Vars kept
+    private static final Var Y = new Var(Type.Y, 0);
+    // index -> Var, grown under the class lock; a racy read that misses just takes the lock
+    private static volatile Var[] xs = new Var[64];
+    private static volatile Var[] zs = new Var[1024];
+
     private final Type type;       // X, Z, or Y
     private final int index;       // X/Z: 1.. ; Y: 0
 
@@ -13,9 +29,37 @@ public final class Var implements Serializable  {
         this.index = index;
     }
 
-    public static Var x(int i) { if (i < 1) throw new IllegalArgumentException("x index >= 1"); return new Var(Type.X, i); }
-    public static Var z(int i) { if (i < 1) throw new IllegalArgumentException("z index >= 1"); return new Var(Type.Z, i); }
-    public static Var y()      { return new Var(Type.Y, 0); }
+    public static Var x(int i) { if (i < 1) throw new IllegalArgumentException("x index >= 1"); return cached(xs, Type.X, i); }
+    public static Var z(int i) { if (i < 1) throw new IllegalArgumentException("z index >= 1"); return cached(zs, Type.Z, i); }
+    public static Var y()      { return Y; }
+
+    private static Var cached(Var[] cache, Type type, int i) {
+        if (i < cache.length) {
+            Var v = cache[i];
+            if (v != null) return v;
+        }
+        return i < MAX_CACHED ? intern(type, i) : new Var(type, i);
+    }
+
+    private static synchronized Var intern(Type type, int i) {
+        Var[] cache = type == Type.X ? xs : zs;
+        if (i >= cache.length) {
+            cache = Arrays.copyOf(cache, Math.min(MAX_CACHED, Math.max(i + 1, cache.length * 2)));
+            if (type == Type.X) xs = cache; else zs = cache;
+        }
+        Var v = cache[i];
+        if (v == null) cache[i] = v = new Var(type, i);
+        return v;
+    }
+
+    // a Var read back from a saved state becomes the interned one
+    private Object readResolve() {
+        return switch (type) {
+            case X -> x(index);
+            case Z -> z(index);
+            case Y -> Y;
+        };
+    }
 
     public Type type() { return type; }
     public int index() { return index; }
@@ -27,6 +71,12 @@ public final class Var implements Serializable  {
     /** For display: 'x', 'z', or 'y'. (we can change in the future for more characters */
     public char symbol() { return type == Type.X ? 'x' : (type == Type.Z ? 'z' : 'y'); }
 
+    @Override public boolean equals(Object o) {
+        return this == o || (o instanceof Var v && v.type == type && v.index == index);
+    }
+
+    @Override public int hashCode() { return 31 * type.ordinal() + index; }
+
     @Override public String toString() {
         return isY() ? "y" : (symbol() + Integer.toString(index));
     }
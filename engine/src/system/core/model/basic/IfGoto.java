@@ -3,8 +3,11 @@ package system.core.model.basic;
 import system.core.model.Instruction;
 import system.core.model.BasicInstruction;
 import system.core.model.Remappable;
+import system.core.model.Labels;
 import system.core.model.Var;
 import system.core.io.LoaderUtil;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Map;
 
 
@@ -12,19 +15,24 @@ import java.util.List;
 import java.util.function.UnaryOperator;
 
 public final class IfGoto extends BasicInstruction implements Remappable {
+    // pinned to the uid from before targetId(), so states saved by older versions still load
+    private static final long serialVersionUID = -2056714729615556964L;
     private final Var v;
-    private final String target;
+    private String target;
+    private transient int targetId;        // Labels.id(target), ours while we hold the interned target; only the name is saved
 
 
 
     public IfGoto(String label, Var v, String target, int cycles) {
         super(label, cycles);                  // cycles should be 2 for JNZ
         this.v = v;
-        this.target = target == null ? "" : target;
+        this.target = Labels.intern(target == null ? "" : target);
+        this.targetId = Labels.id(this.target);
     }
 
     public Var v()          { return v; }
     public String target()  { return target; }
+    public int targetId()   { return targetId; }
 
     @Override
     public String asText() { return "IF " + v + " != 0 GOTO " + target; }
@@ -52,4 +60,9 @@ public final class IfGoto extends BasicInstruction implements Remappable {
         return new IfGoto(lm.apply(label()), vm.apply(v),lm.apply(target),this.cycles());
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        target = Labels.intern(target);
+        targetId = Labels.id(target);
+    }
 }
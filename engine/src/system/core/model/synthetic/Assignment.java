@@ -11,6 +11,10 @@ import java.util.function.UnaryOperator;
 
 
 public final class Assignment extends SyntheticInstruction implements Remappable {
+    private static final long serialVersionUID = 5235694042234614821L;
+    // expansion depth: one round to basic + ZERO_VARIABLE, then ZERO_VARIABLE's
+    public static final int DEPTH = 1 + ZeroVariable.DEPTH;
+    public static final int CYCLES = 4;
     private final Var v;     // destination
     private final Var src;   // source
 
@@ -24,7 +28,10 @@ public final class Assignment extends SyntheticInstruction implements Remappable
     public Var v()   { return v; }
     public Var src() { return src; }
 
-    @Override public int cycles() { return 4; }
+    @Override public int cycles() { return CYCLES; }
+    @Override public int expansionDepth() { return DEPTH; }
+    @Override public int freshLabels() { return 3; }
+    @Override public int freshZs() { return 1; }
     @Override public String asText() { return v + " <- " + src; }
     @Override public List<Var> variablesUsed() { return List.of(v, src); }
 
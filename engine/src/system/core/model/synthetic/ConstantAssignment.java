@@ -10,6 +10,9 @@ import java.util.List;
 import java.util.function.UnaryOperator;
 
 public final class ConstantAssignment extends SyntheticInstruction implements Remappable {
+    private static final long serialVersionUID = -8751917289243018515L;
+    // expansion depth: ZERO_VARIABLE + INCs, then ZERO_VARIABLE's
+    public static final int DEPTH = 1 + ZeroVariable.DEPTH;
     private final Var v;
     private final long k;
 
@@ -23,15 +26,16 @@ public final class ConstantAssignment extends SyntheticInstruction implements Re
     public long k() { return k; }
 
     @Override public int cycles() { return 2; }
+    @Override public int expansionDepth() { return DEPTH; }
+    @Override public int freshLabels() { return 0; }
+    @Override public int freshZs() { return 0; }
     @Override public String asText() { return v + " <- " + k; }
     @Override public List<Var> variablesUsed() { return java.util.List.of(v); }
 
     @Override
     public void expandTo(Program out, FreshNames fresh) {
         out.add(new ZeroVariable(label(), v));
-        for (long i = 0; i < k; i++) {
-            out.add(new Inc("", v, 1));
-        }
+        out.addRepeated(List.of(new Inc("", v, 1)), k);   // one block however big k is
     }
 
     public static Instruction fromXml(String label, String varToken, Map<String,String> args, List<String> errs) {
@@ -5,19 +5,30 @@ import system.core.model.*;
 import system.core.model.basic.IfGoto;
 import system.core.model.basic.Inc;
 import system.core.io.LoaderUtil;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Map;
 import java.util.List;
 import java.util.function.UnaryOperator;
 
 public final class GotoLabel extends SyntheticInstruction implements Remappable {
-    private final String target;
+    private static final long serialVersionUID = -1758607984266367506L;
+    // expansion depth: INC / IF are basic already
+    public static final int DEPTH = 1;
+    public static final int CYCLES = 1;
+    private String target;
+    private transient int targetId;        // Labels.id(target), ours while we hold the interned target; only the name is saved
 
 
 
-    public GotoLabel(String label, String target) { super(label); this.target = target; }
+    public GotoLabel(String label, String target) { super(label); this.target = Labels.intern(target); this.targetId = Labels.id(target); }
     public String target() { return target; }
+    public int targetId() { return targetId; }
 
-    @Override public int cycles() { return 1; }
+    @Override public int cycles() { return CYCLES; }
+    @Override public int expansionDepth() { return DEPTH; }
+    @Override public int freshLabels() { return 0; }
+    @Override public int freshZs() { return 1; }
     @Override public String asText() { return "GOTO " + target; }
 
     @Override public List<String> labelTargets() {
@@ -41,5 +52,9 @@ public final class GotoLabel extends SyntheticInstruction implements Remappable
         return new GotoLabel(lm.apply(label()), lm.apply(target));
     }
 
-
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        target = Labels.intern(target);
+        targetId = Labels.id(target);
+    }
 }
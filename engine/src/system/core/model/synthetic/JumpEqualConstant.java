@@ -8,28 +8,40 @@ import system.core.model.synthetic.GotoLabel;
 
 import system.core.model.basic.*;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.function.UnaryOperator;
 
 public final class JumpEqualConstant extends SyntheticInstruction implements Remappable {
+    private static final long serialVersionUID = -904904651908658847L;
+    // expansion depth: the working copy ASSIGNMENT (or a JUMP_ZERO) is the deepest part
+    public static final int DEPTH = 1 + Math.max(Assignment.DEPTH, Math.max(JumpZero.DEPTH, GotoLabel.DEPTH));
+    public static final int CYCLES = 2;
     private final Var v;
     private final long k;
-    private final String target;
+    private String target;
+    private transient int targetId;        // Labels.id(target), ours while we hold the interned target; only the name is saved
 
 
     public JumpEqualConstant(String label, Var v, long k, String target) {
         super(label);
         this.v = v;
         this.k = k;
-        this.target = (target == null ? "" : target);
+        this.target = Labels.intern((target == null ? "" : target));
+        this.targetId = Labels.id(this.target);
     }
 
     public Var v()        { return v; }
     public long k()       { return k; }
     public String target(){ return target; }
+    public int targetId(){ return targetId; }
 
-    @Override public int cycles() { return 2; }  // per spec
+    @Override public int cycles() { return CYCLES; }  // per spec
+    @Override public int expansionDepth() { return DEPTH; }
+    @Override public int freshLabels() { return 1; }
+    @Override public int freshZs() { return 1; }
     @Override public String asText() { return "IF " + v + " = " + k + " GOTO " + target; }
     @Override public List<Var> variablesUsed() { return List.of(v); }
 
@@ -49,10 +61,9 @@ public final class JumpEqualConstant extends SyntheticInstruction implements Rem
         // Do this k times:
         // Implement "IF z1 = 0 GOTO NOT" using our primitive "IF z1 != 0 GOTO CONT"
         // and put the CONT label directly on the DEC (no extra NOP line).
-        for (long i = 0; i < k; i++) {
-            out.add(new JumpZero(null,z1,L1));
-            out.add(new Dec(null, z1, 1));         // CONT: z1 <- z1 - 1
-        }
+        out.addRepeated(List.of(
+                new JumpZero(null,z1,L1),
+                new Dec(null, z1, 1)), k);         // CONT: z1 <- z1 - 1
         out.add(new IfGoto(null, z1, L1,2));
         out.add(new GotoLabel(null, target));      // z1 == k, so jump to target
         out.add(new Nop(L1, v, 0));              // L1:
@@ -75,4 +86,9 @@ public final class JumpEqualConstant extends SyntheticInstruction implements Rem
 
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        target = Labels.intern(target);
+        targetId = Labels.id(target);
+    }
 }
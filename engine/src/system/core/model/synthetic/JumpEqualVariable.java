@@ -5,28 +5,40 @@ import system.core.model.basic.*;
 import system.core.expand.helpers.FreshNames;
 import system.core.io.LoaderUtil;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Map;
 import java.util.List;
 import java.util.function.UnaryOperator;
 
 public final class JumpEqualVariable extends SyntheticInstruction implements Remappable {
+    private static final long serialVersionUID = 1979129904638141713L;
+    // expansion depth: the two ASSIGNMENTs (or the JUMP_ZEROs) are the deepest part
+    public static final int DEPTH = 1 + Math.max(Assignment.DEPTH, Math.max(JumpZero.DEPTH, GotoLabel.DEPTH));
+    public static final int CYCLES = 2;
     private final Var a;
     private final Var b;
-    private final String target;
+    private String target;
+    private transient int targetId;        // Labels.id(target), ours while we hold the interned target; only the name is saved
 
 
     public JumpEqualVariable(String label, Var a, Var b, String target) {
         super(label);
         this.a = a;
         this.b = b;
-        this.target = (target == null ? "" : target);
+        this.target = Labels.intern((target == null ? "" : target));
+        this.targetId = Labels.id(this.target);
     }
 
     public Var a() { return a; }
     public Var b() { return b; }
     public String target() { return target; }
+    public int targetId() { return targetId; }
 
-    @Override public int cycles() { return 2; }  // per spec
+    @Override public int cycles() { return CYCLES; }  // per spec
+    @Override public int expansionDepth() { return DEPTH; }
+    @Override public int freshLabels() { return 3; }
+    @Override public int freshZs() { return 2; }
     @Override public String asText() { return "IF " + a + " = " + b + " GOTO " + target; }
     @Override public List<Var> variablesUsed() { return List.of(a, b); }
 
@@ -79,5 +91,9 @@ public final class JumpEqualVariable extends SyntheticInstruction implements Rem
         return new JumpEqualVariable(lm.apply(label()),vm.apply(a),vm.apply(b), lm.apply(target));
     }
 
-
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        target = Labels.intern(target);
+        targetId = Labels.id(target);
+    }
 }
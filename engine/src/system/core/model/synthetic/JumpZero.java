@@ -4,24 +4,40 @@ import system.core.model.*;
 import system.core.model.basic.*;
 import system.core.expand.helpers.FreshNames;
 import system.core.io.LoaderUtil;
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.Map;
 import java.util.List;
 import java.util.function.UnaryOperator;
 
 
 public final class JumpZero extends SyntheticInstruction implements Remappable {
+    private static final long serialVersionUID = -8261379162274163801L;
+    // expansion depth: IF / NOP + GOTO_LABEL, then GOTO_LABEL's
+    public static final int DEPTH = 1 + GotoLabel.DEPTH;
+    public static final int CYCLES = 2;
     private final Var v;
-    private final String target;
+    private String target;
+    private transient int targetId;        // Labels.id(target), ours while we hold the interned target; only the name is saved
 
 
 
 
-    public JumpZero(String label, Var v, String target) { super(label); this.v = v; this.target = target; }
+    public JumpZero(String label, Var v, String target) {
+        super(label);
+        this.v = v;
+        this.target = Labels.intern(target);
+        this.targetId = Labels.id(target);
+    }
     public Var v() { return v; }
     public String target() { return target; }
+    public int targetId() { return targetId; }
 
 
-    @Override public int cycles() { return 2; }
+    @Override public int cycles() { return CYCLES; }
+    @Override public int expansionDepth() { return DEPTH; }
+    @Override public int freshLabels() { return 1; }
+    @Override public int freshZs() { return 0; }
     @Override public String asText() { return "IF " + v + " = 0 GOTO " + target; }
     @Override public List<Var> variablesUsed() { return java.util.List.of(v); }
 
@@ -51,7 +67,9 @@ public final class JumpZero extends SyntheticInstruction implements Remappable {
         return new JumpZero(lm.apply(label()), vm.apply(v), lm.apply(target));
     }
 
-
-
-
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        target = Labels.intern(target);
+        targetId = Labels.id(target);
+    }
 }
@@ -10,6 +10,10 @@ import java.util.function.UnaryOperator;
 
 
 public final class ZeroVariable extends SyntheticInstruction implements Remappable {
+    private static final long serialVersionUID = -6794344355110727815L;
+    // expansion depth: DEC / IF are basic already
+    public static final int DEPTH = 1;
+    public static final int CYCLES = 1;
     private final Var v;
 
 
@@ -17,7 +21,10 @@ public final class ZeroVariable extends SyntheticInstruction implements Remappab
     public ZeroVariable(String label, Var v) { super(label); this.v = v; }
     public Var v() { return v; }
 
-    @Override public int cycles() { return 1; }
+    @Override public int cycles() { return CYCLES; }
+    @Override public int expansionDepth() { return DEPTH; }
+    @Override public int freshLabels() { return label().isBlank() ? 1 : 0; }
+    @Override public int freshZs() { return 0; }
     @Override public String asText() { return v + " <- 0"; }
     @Override public java.util.List<Var> variablesUsed() { return java.util.List.of(v); }
 
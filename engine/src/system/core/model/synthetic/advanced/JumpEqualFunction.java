@@ -7,6 +7,8 @@ import system.core.model.*;
 import system.core.model.synthetic.JumpEqualVariable;
 import system.core.model.synthetic.advanced.helpers.CallSyntax;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -32,12 +34,19 @@ import java.util.function.UnaryOperator;
  */
 public final class JumpEqualFunction extends SyntheticInstruction
         implements Remappable, SelfExecutable {
+    private static final long serialVersionUID = -2381153765965098242L;
 
     private final Var v;                   // V
     private final String functionName;     // Q
     /** Inner arguments list (no surrounding parentheses) for Q. */
     private final String functionArguments;
-    private final String targetLabel;      // L
+    private String targetLabel;            // L
+    private transient int targetId;        // Labels.id(targetLabel), ours while we hold the interned targetLabel; only the name is saved
+
+    // functionArguments parsed once (private transient: saved states keep their format, re-parsed on first use)
+    private transient List<CallSyntax.Arg> args;
+    // the same tree with the Programs resolved in the FunctionEnv of the last run
+    private transient volatile CallSyntax.Binding binding;
 
     public JumpEqualFunction(String label,
                              Var v,
@@ -48,17 +57,55 @@ public final class JumpEqualFunction extends SyntheticInstruction
         this.v = v;
         this.functionName = functionName;
         this.functionArguments = (functionArguments == null) ? "" : functionArguments.trim();
-        this.targetLabel = (targetLabel == null) ? "" : targetLabel.trim();
+        this.targetLabel = Labels.intern((targetLabel == null) ? "" : targetLabel.trim());
+        this.targetId = Labels.id(this.targetLabel);
+        try {
+            this.args = CallSyntax.parseArgs(this.functionArguments);
+        } catch (IllegalArgumentException bad) {
+            this.args = null;   // reported by args() when the instruction is actually used, as before
+        }
+    }
+
+    public Var v() { return v; }
+    public String functionName() { return functionName; }
+    /** The parsed argument tree. */
+    public List<CallSyntax.Arg> arguments() { return args(); }
+
+    /** {@link Labels} id of the jump target. */
+    public int targetId() { return targetId; }
+
+    private List<CallSyntax.Arg> args() {
+        List<CallSyntax.Arg> a = args;
+        if (a == null) args = a = CallSyntax.parseArgs(functionArguments);
+        return a;
+    }
+
+    private CallSyntax.Binding bound() {
+        FunctionEnv env = FunctionEnv.current();
+        CallSyntax.Binding b = binding;
+        if (b == null || !b.isFor(env)) binding = b = CallSyntax.bind(functionName, args(), env);
+        return b;
     }
 
     @Override public int cycles() { return 6; }
 
+    // expands to a QUOTE of the same call and a JUMP_EQUAL_VARIABLE
+    @Override
+    public int expansionDepth() {
+        int inner = Math.max(Quote.depthOf(functionName, args(), FunctionEnv.current()), JumpEqualVariable.DEPTH);
+        return Math.min(FunctionEnv.MAX_DEPTH, 1 + inner);
+    }
+
+    // the z that holds Q(...); the QUOTE takes its own names when it expands, a round later
+    @Override public int freshLabels() { return 0; }
+    @Override public int freshZs() { return 1; }
+
     @Override
     public String asText() {
         var namer = CallSyntax.envNamerOrIdentity();
         String fnShown = namer.apply(functionName);
         String inner   = CallSyntax.renderInnerArgsPretty(
-                CallSyntax.parseArgs(functionArguments),
+                args(),
                 namer
         );
         String args = inner.isEmpty() ? "" : "," + inner;
@@ -67,7 +114,14 @@ public final class JumpEqualFunction extends SyntheticInstruction
 
 
 
-    @Override public List<Var> variablesUsed() { return List.of(v); }
+    // v and what the argument expressions read (an expansion must not take those for fresh z's)
+    @Override
+    public List<Var> variablesUsed() {
+        List<Var> used = new ArrayList<>();
+        used.add(v);
+        for (CallSyntax.Arg a : args()) Quote.collectVars(a, used);
+        return used;
+    }
 
     @Override public List<String> labelTargets() {
         if (targetLabel.isBlank() || "EXIT".equals(targetLabel)) return List.of();
@@ -78,19 +132,20 @@ public final class JumpEqualFunction extends SyntheticInstruction
     // ---------- degree 0: execute directly (evaluate Q(...) then compare) ----------
     @Override
     public void executeSelf(MachineState s, JumpResolver jr) {
-        Program prog = FunctionEnv.current().get(functionName);
+        CallSyntax.Binding b = bound();
+        Program prog = b.function();
         if (prog == null) throw new IllegalStateException("Function '" + functionName + "' not found");
 
-        List<Long> xs = new ArrayList<>();
-        for (CallSyntax.Arg a : CallSyntax.parseArgs(functionArguments)) xs.add(evalArg(a, s));
-        MachineState sub = new Executor().run(prog, xs);
+        List<Long> xs = new ArrayList<>(b.args().size());
+        for (CallSyntax.Bound a : b.args()) xs.add(evalArg(a, s, b.env()));
+        FunctionMemo.Result sub = FunctionMemo.shared().call(b.env(), prog, xs, s.cycles() + cycles());
 
         s.addCycles(this.cycles());
         s.addCycles((int) Math.min(Integer.MAX_VALUE, sub.cycles()));
 
         if (s.get(v) == sub.y()) {
             // Adjust if your JumpResolver API differs.
-            int dest =jr.resolve(targetLabel);
+            int dest =jr.resolve(targetId);
             if(dest == JumpResolver.EXIT) {
                 s.halt();
                 return;
@@ -110,15 +165,15 @@ public final class JumpEqualFunction extends SyntheticInstruction
 
     }
 
-    private long evalArg(CallSyntax.Arg a, MachineState s) {
+    private long evalArg(CallSyntax.Bound a, MachineState s, FunctionEnv env) {
         return switch (a) {
-            case CallSyntax.VarRef vr -> s.get(vr.v());
-            case CallSyntax.Call call -> {
-                List<Long> xs = new ArrayList<>();
-                for (CallSyntax.Arg sub : call.args()) xs.add(evalArg(sub, s));
-                Program subProg = FunctionEnv.current().get(call.name());
+            case CallSyntax.BoundVar vr -> s.get(vr.v());
+            case CallSyntax.BoundCall call -> {
+                List<Long> xs = new ArrayList<>(call.args().size());
+                for (CallSyntax.Bound sub : call.args()) xs.add(evalArg(sub, s, env));
+                Program subProg = call.program();
                 if (subProg == null) throw new IllegalStateException("Function '" + call.name() + "' not found");
-                MachineState sub = new Executor().run(subProg, xs);
+                FunctionMemo.Result sub = FunctionMemo.shared().call(env, subProg, xs, s.cycles() + cycles());
                 yield sub.y();
             }
         };
@@ -153,8 +208,14 @@ public final class JumpEqualFunction extends SyntheticInstruction
                 lm.apply(label()),
                 vm.apply(v),
                 functionName,
-                functionArguments,
+                CallSyntax.renderInnerArgs(Quote.remapArgs(args(), vm)),   // the arguments move with the body too
                 lm.apply(targetLabel)
         );
     }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        targetLabel = Labels.intern(targetLabel);
+        targetId = Labels.id(targetLabel);
+    }
 }
@@ -1,7 +1,9 @@
 package system.core.model.synthetic.advanced;
 
 import system.core.exec.*;
+import system.core.expand.ExpansionCost;
 import system.core.expand.helpers.FreshNames;
+import system.core.expand.helpers.InlineTemplate;
 import system.core.io.LoaderUtil;
 import system.core.model.*;
 import system.core.model.basic.Nop;
@@ -13,27 +15,120 @@ import java.util.function.UnaryOperator;
 
 public final class Quote extends SyntheticInstruction
         implements Remappable, SelfExecutable {
+    private static final long serialVersionUID = -947321167425039054L;
+    public static final int CYCLES = 5;
 
     private final Var target;
     private final String functionName;
     /** Inner arguments list, no surrounding parentheses. Examples: "", "x1,y", "x1,(+,y)". */
     private final String functionArguments;
 
+    // functionArguments parsed once (private transient: saved states keep their format, re-parsed on first use)
+    private transient List<CallSyntax.Arg> args;
+    // the same tree with the Programs resolved in the FunctionEnv of the last run
+    private transient volatile CallSyntax.Binding binding;
+
     public Quote(String label, Var target, String functionName, String functionArguments) {
         super(label);
         this.target = Objects.requireNonNull(target);
         this.functionName = Objects.requireNonNull(functionName);
         this.functionArguments = (functionArguments == null) ? "" : functionArguments.trim();
+        try {
+            this.args = CallSyntax.parseArgs(this.functionArguments);
+        } catch (IllegalArgumentException bad) {
+            this.args = null;   // reported by args() when the instruction is actually used, as before
+        }
+    }
+
+    /** From an already parsed argument tree (remap / nested calls), nothing to parse again. */
+    private Quote(String label, Var target, String functionName, List<CallSyntax.Arg> args) {
+        super(label);
+        this.target = Objects.requireNonNull(target);
+        this.functionName = Objects.requireNonNull(functionName);
+        this.functionArguments = CallSyntax.renderInnerArgs(args);
+        this.args = args;
+    }
+
+    public Var target() { return target; }
+    public String functionName() { return functionName; }
+    /** The parsed argument tree. */
+    public List<CallSyntax.Arg> arguments() { return args(); }
+
+    private List<CallSyntax.Arg> args() {
+        List<CallSyntax.Arg> a = args;
+        if (a == null) args = a = CallSyntax.parseArgs(functionArguments);
+        return a;
+    }
+
+    private CallSyntax.Binding bound() {
+        FunctionEnv env = FunctionEnv.current();
+        CallSyntax.Binding b = binding;
+        if (b == null || !b.isFor(env)) binding = b = CallSyntax.bind(functionName, args(), env);
+        return b;
+    }
+
+    @Override public int cycles() { return CYCLES; }
+
+    @Override
+    public int expansionDepth() {
+        return depthOf(functionName, args(), FunctionEnv.current());
+    }
+
+    // labels: one per label of the callee and the end label; z's: the callee's y, x slots and z's
+    @Override
+    public int freshLabels() {
+        return FunctionEnv.current().inlineTemplate(functionName).labels().size() + 1;
+    }
+
+    @Override
+    public int freshZs() {
+        InlineTemplate q = FunctionEnv.current().inlineTemplate(functionName);
+        return q.zCount(q.xSlots(args().size()));
+    }
+
+    // a closing ASSIGNMENT (labeled Lend) and an argument's ASSIGNMENT (no label): their zeroing differs
+    private static final Instruction CLOSE = new Assignment("L1", Var.z(1), Var.z(2));
+    private static final Instruction ARG = new Assignment("", Var.z(1), Var.z(2));
+
+    /** Sized from the callee's body instead of inlining it (see ExpansionCost). */
+    @Override
+    public ExpansionCost.Size expandedSize(int degree, ExpansionCost cost) {
+        return sizeOf(functionName, args(), degree, cost);
+    }
+
+    // what expandTo() emits: the NOP, the argument code, the callee's body and the closing ASSIGNMENT
+    private static ExpansionCost.Size sizeOf(String fn, List<CallSyntax.Arg> args, int degree, ExpansionCost cost) {
+        if (degree <= 0) return ExpansionCost.Size.LINE;
+        InlineTemplate q = FunctionEnv.current().inlineTemplate(fn);
+        int rest = degree - 1;
+        ExpansionCost.Size s = ExpansionCost.Size.fresh(q.zCount(q.xSlots(args.size())), q.labels().size() + 1)
+                .plus(ExpansionCost.Size.LINE)
+                .plus(cost.function(fn, rest))
+                .plus(cost.of(CLOSE, rest));
+        for (CallSyntax.Arg a : args) {
+            s = s.plus(a instanceof CallSyntax.Call c ? sizeOf(c.name(), c.args(), rest, cost) : cost.of(ARG, rest));
+        }
+        return s;
     }
 
-    @Override public int cycles() { return 5; }
+    /**
+     * A QUOTE expands to its argument code (ASSIGNMENTs, nested calls as QUOTEs), the callee's body
+     * and a closing ASSIGNMENT, so it takes one round more than the deepest of those.
+     */
+    static int depthOf(String fn, List<CallSyntax.Arg> args, FunctionEnv env) {
+        int d = Math.max(Assignment.DEPTH, env.expansionDepth(fn));
+        for (CallSyntax.Arg a : args) {
+            if (a instanceof CallSyntax.Call c) d = Math.max(d, depthOf(c.name(), c.args(), env));
+        }
+        return Math.min(FunctionEnv.MAX_DEPTH, 1 + d);
+    }
 
     @Override
     public String asText() {
         var namer = CallSyntax.envNamerOrIdentity();
         String fnShown = namer.apply(functionName);
         String inner   = CallSyntax.renderInnerArgsPretty(
-                CallSyntax.parseArgs(functionArguments),
+                args(),
                 namer
         );
         String args = inner.isEmpty() ? "" : "," + inner;
@@ -42,30 +137,30 @@ public final class Quote extends SyntheticInstruction
 
     @Override
     public List<Var> variablesUsed() {
-        // The target is written; reads come from the argument expressions. take notice
+        // the target (written) and what the argument expressions read; the target has to be here or
+        // an expansion could pick it as a fresh z
         List<Var> used = new ArrayList<>();
-        for (CallSyntax.Arg a : CallSyntax.parseArgs(functionArguments)) collectVars(a, used);
+        used.add(target);
+        for (CallSyntax.Arg a : args()) collectVars(a, used);
         return used;
     }
 
     @Override
     public Instruction remap(UnaryOperator<Var> vm, UnaryOperator<String> lm) {
-        // Remap vars inside the argument AST too, then re-render inner-args.
-        List<CallSyntax.Arg> ast = CallSyntax.parseArgs(functionArguments);
-        List<CallSyntax.Arg> remapped = remapArgs(ast, vm);
-        String newInner = CallSyntax.renderInnerArgs(remapped);
-        return new Quote(lm.apply(label()), vm.apply(target), functionName, newInner);
+        // Remap vars inside the argument AST too (the new Quote re-renders its inner-args).
+        List<CallSyntax.Arg> remapped = remapArgs(args(), vm);
+        return new Quote(lm.apply(label()), vm.apply(target), functionName, remapped);
     }
 
 
     // ---------- run-time (SelfExecutable) ----------
     @Override
     public void executeSelf(MachineState s, JumpResolver jr) {
-        List<Long> xs = new ArrayList<>();
-        for (CallSyntax.Arg a : CallSyntax.parseArgs(functionArguments)) xs.add(evalArg(a, s));
-        Program q = requireFunction(functionName);
-        Executor ex = new Executor();
-        MachineState sub = ex.run(q, xs);
+        CallSyntax.Binding b = bound();
+        List<Long> xs = new ArrayList<>(b.args().size());
+        for (CallSyntax.Bound a : b.args()) xs.add(evalArg(a, s, b.env()));
+        Program q = require(b.function(), functionName);
+        FunctionMemo.Result sub = FunctionMemo.shared().call(b.env(), q, xs, s.cycles() + cycles());
 
         s.addCycles(this.cycles());
         s.addCycles((int)Math.min(Integer.MAX_VALUE, sub.cycles()));
@@ -73,14 +168,14 @@ public final class Quote extends SyntheticInstruction
         s.advance();
     }
 
-    private long evalArg(CallSyntax.Arg a, MachineState s) {
+    private long evalArg(CallSyntax.Bound a, MachineState s, FunctionEnv env) {
         return switch (a) {
-            case CallSyntax.VarRef vr -> s.get(vr.v());
-            case CallSyntax.Call call -> {
-                List<Long> xs = new ArrayList<>();
-                for (CallSyntax.Arg sub : call.args()) xs.add(evalArg(sub, s));
-                // recursive call uses FunctonEnv to find the function by name
-                // and Executor to run it with the given arguments
+            case CallSyntax.BoundVar vr -> s.get(vr.v());
+            case CallSyntax.BoundCall call -> {
+                List<Long> xs = new ArrayList<>(call.args().size());
+                for (CallSyntax.Bound sub : call.args()) xs.add(evalArg(sub, s, env));
+                // the function was looked up in the FunctionEnv once, when this Quote got bound to it,
+                // and it runs with the given arguments (FunctionMemo: at most once per argument tuple)
                 // then returns the resulting y value
                 // (this is a direct eval, not an expansion)
                 // (note: this can recurse arbitrarily deep)
@@ -89,9 +184,8 @@ public final class Quote extends SyntheticInstruction
                 // (also note: if the function is not found, an exception is thrown)
                 // (also note: cycles from the nested call are added to the current state)
                 //  yes there are many notes, deal with it
-                Program subProg = requireFunction(call.name());
-                Executor ex = new Executor();
-                MachineState sub = ex.run(subProg, xs);
+                Program subProg = require(call.program(), call.name());
+                FunctionMemo.Result sub = FunctionMemo.shared().call(env, subProg, xs, s.cycles() + cycles());
 
 
                 // add the cycles from the sub-call to the current state
@@ -102,8 +196,7 @@ public final class Quote extends SyntheticInstruction
         };
     }
 
-    private static Program requireFunction(String name) {
-        Program p = FunctionEnv.current().get(name);
+    private static Program require(Program p, String name) {
         if (p == null) throw new IllegalStateException("Function '" + name + "' not found");
         return p;
     }
@@ -111,64 +204,35 @@ public final class Quote extends SyntheticInstruction
     // ---------- expansion ----------
     @Override
     public void expandTo(Program out, FreshNames fresh) {
-        Program q = requireFunction(functionName);
-        List<Instruction> qBody = q.instructions();
+        // footprint and body of the callee come analysed once per FunctionEnv
+        InlineTemplate q = FunctionEnv.current().inlineTemplate(functionName);
 
-        List<CallSyntax.Arg> args = CallSyntax.parseArgs(functionArguments);
+        List<CallSyntax.Arg> args = args();
 
-        Map<Integer,Var> xToZ = new HashMap<>();
-        Map<Integer,Var> zToZ = new HashMap<>();
-        Var zy = fresh.tempZ();
-        Set<String> qLabels = new LinkedHashSet<>();
+        // one run of fresh z's: the callee's y, its x's (our arguments) and its own z's
+        int xSlots = q.xSlots(args.size());
+        Var[] slots = q.slots(fresh.tempZs(q.zCount(xSlots)), xSlots);
+        Var zy = slots[0];
 
-        int maxQz = 0, maxQx = 0;
-        for (Instruction ins : qBody) {
-            for (Var v : ins.variablesUsed()) {
-                if (v.isX()) maxQx = Math.max(maxQx, v.index());
-                if (v.isZ()) maxQz = Math.max(maxQz, v.index());
-            }
-            if (ins.label() != null && !ins.label().isEmpty()) qLabels.add(ins.label());
-            for (String t : ins.labelTargets()) if (!"EXIT".equals(t)) qLabels.add(t);
-        }
-
-        int needX = Math.max(maxQx, args.size());
-        for (int i = 1; i <= needX; i++) xToZ.put(i, fresh.tempZ());
-        for (int j = 1; j <= maxQz; j++) zToZ.put(j, fresh.tempZ());
-
-        Map<String,String> labMap = new HashMap<>();
-        for (String L : qLabels) labMap.put(L, fresh.nextLabel());
+        String[] labMap = new String[q.labels().size()];
+        for (int i = 0; i < labMap.length; i++) labMap[i] = fresh.nextLabel();
         final String Lend = fresh.nextLabel();
 
-        List<Instruction> seq = new ArrayList<>();
-
         // keep the QUOTE's original label (blue bar)
-        seq.add(new Nop(label(), Var.y(), 0));
+        out.add(new Nop(label(), Var.y(), 0));
 
-        // compute each argument into xToZ[i]
+        // compute each argument into x_i's slot
+        List<Instruction> seq = new ArrayList<>();
         for (int i = 0; i < args.size(); i++) {
-            Var dst = xToZ.get(i + 1);
-            compileArg(args.get(i), dst, seq, fresh);
+            compileArg(args.get(i), slots[i + 1], seq, fresh);
         }
+        seq.forEach(out::add);
 
-        // remap Q body: x_i -> xToZ[i], z_j -> fresh z, y -> zy, labels -> fresh (EXIT -> Lend)
-        UnaryOperator<Var> vm = v -> {
-            if (v.isX()) return xToZ.getOrDefault(v.index(), v);
-            if (v.isZ()) return zToZ.getOrDefault(v.index(), v);
-            if (v.isY()) return zy;
-            return v;
-        };
-        UnaryOperator<String> lm = lab -> {
-            if (lab == null || lab.isEmpty()) return lab;
-            return "EXIT".equals(lab) ? Lend : labMap.getOrDefault(lab, lab);
-        };
-        for (Instruction ins : qBody) {
-            seq.add(((Remappable)ins).remap(vm, lm));
-        }
+        // Q body: x_i -> its slot, z_j -> fresh z, y -> zy, labels -> fresh (EXIT -> Lend)
+        q.relocate(slots, xSlots, labMap, Lend, out::add);
 
         // Lend: target <- zy
-        seq.add(new Assignment(Lend, target, zy));
-
-        seq.forEach(out::add);
+        out.add(new Assignment(Lend, target, zy));
     }
 
     private static String renderArgsOnly(List<CallSyntax.Arg> args) {
@@ -181,8 +245,7 @@ public final class Quote extends SyntheticInstruction
             out.add(new Assignment("", dst, vr.v()));
         } else {
             CallSyntax.Call call = (CallSyntax.Call) a;
-            String fargs = CallSyntax.renderInnerArgs(call.args());
-            out.add(new Quote("", dst, call.name(), fargs));
+            out.add(new Quote("", dst, call.name(), call.args()));
         }
     }
 
@@ -200,7 +263,7 @@ public final class Quote extends SyntheticInstruction
     //helpers
 
 
-    private static void collectVars(CallSyntax.Arg a, List<Var> out) {
+    static void collectVars(CallSyntax.Arg a, List<Var> out) {
         if (a instanceof CallSyntax.VarRef vr) out.add(vr.v());
         else {
             CallSyntax.Call c = (CallSyntax.Call) a;
@@ -208,7 +271,7 @@ public final class Quote extends SyntheticInstruction
         }
     }
 
-    private static List<CallSyntax.Arg> remapArgs(List<CallSyntax.Arg> args, java.util.function.UnaryOperator<Var> vm) {
+    static List<CallSyntax.Arg> remapArgs(List<CallSyntax.Arg> args, java.util.function.UnaryOperator<Var> vm) {
         List<CallSyntax.Arg> out = new ArrayList<>(args.size());
         for (CallSyntax.Arg a : args) {
             if (a instanceof CallSyntax.VarRef vr) {
@@ -1,5 +1,6 @@
 package system.core.model.synthetic.advanced.helpers;
 
+import system.core.model.Program;
 import system.core.model.Var;
 
 import java.util.ArrayList;
@@ -28,10 +29,39 @@ public final class CallSyntax {
     private CallSyntax() {}
 
 
-    // ---- AST
+    // ---- AST (immutable, so an instruction can parse once and share the tree)
     public sealed interface Arg permits VarRef, Call {}
     public static record VarRef(Var v) implements Arg {}
-    public static record Call(String name, List<Arg> args) implements Arg {}
+    public static record Call(String name, List<Arg> args) implements Arg {
+        public Call { args = List.copyOf(args); }
+    }
+
+    // ---- Bound AST: same tree, with every call's Program looked up once in one FunctionEnv
+    public sealed interface Bound permits BoundVar, BoundCall {}
+    public static record BoundVar(Var v) implements Bound {}
+    /** program is null if the env has no such function; evaluation reports it when it gets there. */
+    public static record BoundCall(String name, Program program, List<Bound> args) implements Bound {}
+
+    /** A call site (function + argument tree) bound to the FunctionEnv it was resolved in. */
+    public static record Binding(FunctionEnv env, Program function, List<Bound> args) {
+        public boolean isFor(FunctionEnv e) { return env == e; }
+    }
+
+    public static Binding bind(String functionName, List<Arg> args, FunctionEnv env) {
+        return new Binding(env, env.get(functionName), bindArgs(args, env));
+    }
+
+    private static List<Bound> bindArgs(List<Arg> args, FunctionEnv env) {
+        List<Bound> out = new ArrayList<>(args.size());
+        for (Arg a : args) {
+            if (a instanceof VarRef vr) out.add(new BoundVar(vr.v()));
+            else {
+                Call c = (Call) a;
+                out.add(new BoundCall(c.name(), env.get(c.name()), bindArgs(c.args(), env)));
+            }
+        }
+        return List.copyOf(out);
+    }
 
     /** Render a single Arg back to the textual form used by our XML syntax. */
     public static String render(Arg a) {
@@ -81,7 +111,7 @@ public final class CallSyntax {
             Parser p = new Parser(t);
             out.add(p.parseArg());
         }
-        return out;
+        return List.copyOf(out);
     }
 
 
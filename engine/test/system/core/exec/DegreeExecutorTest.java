@@ -0,0 +1,62 @@
+package system.core.exec;
+
+import system.core.expand.ExpanderImpl;
+import system.core.expand.helpers.FreshNames;
+import system.core.model.Program;
+import system.core.model.RandomPrograms;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Running at a degree on the degree-0 program comes to what running the expanded program does: for
+ * random programs at every degree, the same y, cycles, x's and z's of the program itself (the z's
+ * an expansion makes up are its own business).
+ *
+ *   javac -cp "lib/*" -d build/test $(find engine/src engine/test -name '*.java')
+ *   java -cp "build/test:lib/*" system.core.exec.DegreeExecutorTest
+ */
+public final class DegreeExecutorTest {
+    private static final long CAP = 2_000_000;
+
+    public static void main(String[] args) {
+        FunctionEnv env = new FunctionEnv(RandomPrograms.functions());
+        int checked = 0;
+        for (long seed = 0; seed < 100; seed++) {
+            RandomPrograms gen = new RandomPrograms(seed);
+            Program p = gen.program("P" + seed, 12, seed % 3 != 0);
+            int ownZ = FreshNames.scan(p).maxZ();
+            int max = FunctionEnv.with(env, () -> new ExpanderImpl().maxDegree(p));
+            for (int t = 0; t < 3; t++) {
+                List<Long> inputs = gen.inputs(3, 4);
+                for (int d = 0; d <= max; d++) {
+                    int degree = d;
+                    MachineState real;
+                    try {
+                        real = FunctionEnv.with(env, () -> RunBudget.with(RunBudget.cycles(CAP),
+                                () -> new Executor().run(new ExpanderImpl().expandToDegree(p, degree), inputs)));
+                    } catch (RuntimeException tooLongOrBroken) {
+                        continue;                           // nothing to compare with
+                    }
+                    MachineState atDegree = FunctionEnv.with(env, () -> RunBudget.with(RunBudget.cycles(CAP),
+                            () -> new DegreeExecutor().run(p, degree, inputs)));
+                    String want = seen(real, ownZ), got = seen(atDegree, ownZ);
+                    if (!want.equals(got)) {
+                        throw new AssertionError("seed " + seed + ", degree " + d + ", inputs " + inputs
+                                + "\n  expanded:  " + want + "\n  at degree: " + got);
+                    }
+                    checked++;
+                }
+            }
+        }
+        if (checked == 0) throw new AssertionError("nothing checked");
+        System.out.println("DegreeExecutorTest ok (" + checked + " runs)");
+    }
+
+    private static String seen(MachineState st, int ownZ) {
+        Map<Integer, Long> z = new TreeMap<>(st.snapshotZ());
+        z.keySet().removeIf(i -> i > ownZ);
+        return "y=" + st.y() + " cycles=" + st.cycles() + " x=" + new TreeMap<>(st.snapshotX()) + " z=" + z;
+    }
+}
@@ -0,0 +1,29 @@
+package system.core.exec;
+
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+
+/**
+ * What a run came to, as a string two ways of running one program can be compared by: registers,
+ * cycles, pc and whether it halted; for a run a {@link RunBudget} stopped, the state it stopped in
+ * and why; for a run that threw, the message.
+ */
+public final class RunOutcome {
+    private RunOutcome() {}
+
+    /** The outcome of run under budget (null: none). */
+    public static String of(RunBudget budget, Callable<MachineState> run) {
+        try {
+            return describe(RunBudget.with(budget, run));
+        } catch (BudgetExhaustedException e) {
+            return describe(e.state()) + " stopped by " + e.reason();
+        } catch (RuntimeException e) {
+            return "threw " + e.getMessage();
+        }
+    }
+
+    public static String describe(MachineState st) {
+        return "y=" + st.y() + " cycles=" + st.cycles() + " pc=" + st.getPc() + " halted=" + st.isHalted()
+                + " x=" + new TreeMap<>(st.snapshotX()) + " z=" + new TreeMap<>(st.snapshotZ());
+    }
+}
@@ -0,0 +1,113 @@
+package system.core.exec.compiled;
+
+import system.core.exec.Executor;
+import system.core.exec.FunctionEnv;
+import system.core.exec.RunBudget;
+import system.core.exec.RunOutcome;
+import system.core.expand.ExpanderImpl;
+import system.core.model.Program;
+import system.core.model.RandomPrograms;
+import system.core.model.Var;
+import system.core.model.basic.IfGoto;
+import system.core.model.basic.Inc;
+import system.core.model.basic.Nop;
+
+import java.util.List;
+
+/**
+ * Fused ops run as the ops they stand for: random programs at every degree, and a few sequences
+ * built to be fused (one jumped into halfway, one at the largest value), end or stop in the same
+ * state with the same cycles and pc run fused, unfused and on the Executor, under cycle budgets
+ * that run out before, inside and after a fused sequence.
+ *
+ *   javac -cp "lib/*" -d build/test $(find engine/src engine/test -name '*.java')
+ *   java -cp "build/test:lib/*" system.core.exec.compiled.FusionTest
+ */
+public final class FusionTest {
+    private static final long CAP = 200_000;
+
+    public static void main(String[] args) {
+        FunctionEnv env = new FunctionEnv(RandomPrograms.functions());
+        int fused = 0, runs = 0;
+        for (long seed = 0; seed < 150; seed++) {
+            RandomPrograms gen = new RandomPrograms(seed);
+            Program p = gen.program("P" + seed, 10, seed % 3 == 0);
+            List<Long> inputs = gen.inputs(2, 5);
+            for (int d = 0; d <= 3; d++) {
+                int degree = d;
+                Program e = FunctionEnv.with(env, () -> new ExpanderImpl().expandToDegree(p, degree));
+                CompiledProgram cp = ProgramCompiler.compile(e);
+                fused += fusedOps(cp.fused());
+                long full = FunctionEnv.with(env, () -> cyclesOf(e, inputs));
+                for (long b : new long[]{0, 1, 2, 3, 4, full / 5, full / 3, full / 2, full - 2, full - 1, full, CAP}) {
+                    RunBudget budget = RunBudget.cycles(Math.max(0, b));
+                    String where = "seed " + seed + ", degree " + d + ", budget " + budget.maxCycles();
+                    FunctionEnv.with(env, () -> {
+                        same(where, e, cp, inputs, budget);
+                        return null;
+                    });
+                    runs++;
+                }
+            }
+        }
+
+        // built to be fused: INC+IF at the top, a jump into the middle of IF+IF, an INC at the largest value
+        List<Program> edges = List.of(
+                new Program("A", "", List.of(
+                        new Inc("", Var.x(1), 1),
+                        new IfGoto("", Var.x(1), "EXIT", 2),
+                        new Inc("", Var.y(), 1))),
+                new Program("B", "", List.of(
+                        new IfGoto("", Var.x(2), "S", 2),
+                        new Inc("", Var.x(1), 1),
+                        new IfGoto("", Var.x(1), "EXIT", 2),
+                        new Nop("S", Var.y(), 0),
+                        new Inc("", Var.y(), 1))),
+                new Program("C", "", List.of(
+                        new IfGoto("", Var.x(2), "EXIT", 2),
+                        new IfGoto("", Var.x(1), "EXIT", 3),
+                        new Inc("", Var.y(), 1))));
+        for (Program p : edges) {
+            CompiledProgram cp = ProgramCompiler.compile(p);
+            if (fusedOps(cp.fused()) == 0) throw new AssertionError(p.name() + " is not fused");
+            fused += fusedOps(cp.fused());
+            for (long x1 : new long[]{0, 1, Long.MAX_VALUE}) {
+                for (long x2 : new long[]{0, 1}) {
+                    for (long b = 0; b <= 8; b++) {
+                        same(p.name() + " " + x1 + "," + x2 + ", budget " + b, p, cp, List.of(x1, x2), RunBudget.cycles(b));
+                        runs++;
+                    }
+                }
+            }
+        }
+        if (fused == 0) throw new AssertionError("nothing fused");
+        System.out.println("FusionTest ok (" + runs + " runs, " + fused + " fused ops)");
+    }
+
+    private static void same(String where, Program p, CompiledProgram cp, List<Long> inputs, RunBudget budget) {
+        String stepped = RunOutcome.of(budget, () -> new Executor().run(p, inputs));
+        String unfused = RunOutcome.of(budget, () -> new CompiledExecutor(true, false).run(cp, inputs));
+        String fused = RunOutcome.of(budget, () -> new CompiledExecutor(true, true).run(cp, inputs));
+        if (!stepped.equals(unfused) || !unfused.equals(fused)) {
+            throw new AssertionError(where + "\n  executor: " + stepped + "\n  unfused:  " + unfused + "\n  fused:    " + fused);
+        }
+    }
+
+    private static int fusedOps(CompiledProgram cp) {
+        int n = 0;
+        for (int pc = 0; pc < cp.size(); pc++) {
+            int op = cp.opAt(pc);
+            if (op == CompiledProgram.OP_INC_JNZ || op == CompiledProgram.OP_JZ_VIA || op == CompiledProgram.OP_JNZ_JNZ) n++;
+        }
+        return n;
+    }
+
+    // cycles of the whole run, or CAP if it goes on longer (or throws)
+    private static long cyclesOf(Program e, List<Long> inputs) {
+        try {
+            return RunBudget.with(RunBudget.cycles(CAP), () -> new Executor().run(e, inputs)).cycles();
+        } catch (RuntimeException stopped) {
+            return CAP;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package system.core.exec.compiled;
+
+import system.core.exec.Executor;
+import system.core.exec.FunctionEnv;
+import system.core.exec.RunBudget;
+import system.core.exec.RunOutcome;
+import system.core.expand.ExpanderImpl;
+import system.core.model.Program;
+import system.core.model.RandomPrograms;
+import system.core.model.Var;
+import system.core.model.basic.Inc;
+import system.core.model.synthetic.GotoLabel;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * The JIT stops where the interpreter does: random programs at every degree, under cycle budgets
+ * from 0 to past what the run needs, end (or stop) in the same state with the same cycles on both.
+ * A loop that never ends stops at its deadline.
+ *
+ *   javac -cp "lib/*" -d build/test $(find engine/src engine/test -name '*.java')
+ *   java -cp "build/test:lib/*" system.core.exec.compiled.JitBudgetTest
+ */
+public final class JitBudgetTest {
+    private static final long CAP = 200_000;       // for the programs that loop: the reference run stops there
+
+    public static void main(String[] args) {
+        FunctionEnv env = new FunctionEnv(RandomPrograms.functions());
+        int compiled = 0, stopped = 0;
+        for (long seed = 0; seed < 150; seed++) {
+            RandomPrograms gen = new RandomPrograms(seed);
+            Program p = gen.program("P" + seed, 10, seed % 3 == 0);
+            List<Long> inputs = gen.inputs(2, 5);
+            for (int d = 0; d <= 3; d++) {
+                int degree = d;
+                Program e = FunctionEnv.with(env, () -> new ExpanderImpl().expandToDegree(p, degree));
+                JitProgram jit = JitCompiler.compile(e);
+                if (jit == null) continue;
+                compiled++;
+
+                long full = FunctionEnv.with(env, () -> cyclesOf(e, inputs));
+                for (long b : new long[]{0, 1, 2, 3, full / 7, full / 3, full / 2, full - 1, full, full + 7}) {
+                    RunBudget budget = RunBudget.cycles(Math.max(0, b));
+                    String interpreted = FunctionEnv.with(env, () -> RunOutcome.of(budget, () -> new Executor().run(e, inputs)));
+                    String jitted = FunctionEnv.with(env, () -> RunOutcome.of(budget, () -> jit.run(inputs)));
+                    if (!interpreted.equals(jitted)) {
+                        throw new AssertionError("seed " + seed + ", degree " + d + ", budget " + b
+                                + "\n  interpreter: " + interpreted + "\n  jit:         " + jitted);
+                    }
+                    if (interpreted.contains("stopped by")) stopped++;
+                }
+            }
+        }
+        if (compiled == 0 || stopped == 0) throw new AssertionError("nothing checked: " + compiled + " compiled, " + stopped + " stopped");
+
+        // z1 <- z1 + 1 forever: only the clock stops it
+        Program forever = new Program("Forever", "", List.of(
+                new Inc("L", Var.z(1), 1),
+                new GotoLabel("", "L")));
+        JitProgram jit = JitCompiler.compile(forever);
+        long start = System.nanoTime();
+        String out = RunOutcome.of(RunBudget.of(Long.MAX_VALUE, Duration.ofMillis(100)), () -> jit.run(List.of()));
+        long ms = (System.nanoTime() - start) / 1_000_000;
+        if (!out.endsWith("stopped by TIME") || ms > 5_000) throw new AssertionError("deadline: " + out + " after " + ms + " ms");
+
+        System.out.println("JitBudgetTest ok (" + compiled + " programs, " + stopped + " stopped runs)");
+    }
+
+    // cycles of the whole run, or CAP if it goes on longer (or throws)
+    private static long cyclesOf(Program e, List<Long> inputs) {
+        try {
+            return RunBudget.with(RunBudget.cycles(CAP), () -> new Executor().run(e, inputs)).cycles();
+        } catch (RuntimeException stopped) {
+            return CAP;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package system.core.exec.trace;
+
+import system.core.exec.ExecutionManager;
+import system.core.exec.FunctionEnv;
+import system.core.exec.FunctionMemo;
+import system.core.exec.MachineState;
+import system.core.model.Program;
+import system.core.model.Var;
+import system.core.model.basic.Inc;
+import system.core.model.synthetic.Assignment;
+import system.core.model.synthetic.advanced.JumpEqualFunction;
+import system.core.model.synthetic.advanced.Quote;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A trace of a program that calls functions replays to the states of the real run: every call is
+ * one step of the caller, whether the call runs or comes from the FunctionMemo. A step's cycles
+ * are kept whole, even past what an int holds.
+ *
+ *   javac -cp "lib/*" -d build/test $(find engine/src engine/test -name '*.java')
+ *   java -cp "build/test:lib/*" system.core.exec.trace.TraceReplayTest
+ */
+public final class TraceReplayTest {
+
+    public static void main(String[] args) throws Exception {
+        // Succ(x1) = x1 + 1
+        Program succ = new Program("Succ", "", List.of(
+                new Assignment("", Var.y(), Var.x(1)),
+                new Inc("", Var.y(), 1)));
+        // z1 <- (Succ,x1); y <- z1; IF y = (Succ,(Succ,x1)) GOTO EXIT; y <- y + 1
+        Program p = new Program("P", "", List.of(
+                new Quote("", Var.z(1), "Succ", "x1"),
+                new Assignment("", Var.y(), Var.z(1)),
+                new JumpEqualFunction("", Var.y(), "Succ", "(Succ,x1)", "EXIT"),
+                new Inc("", Var.y(), 1)));
+        FunctionEnv env = new FunctionEnv(Map.of("Succ", succ));
+        List<Long> inputs = List.of(5L);
+
+        Path file = Files.createTempFile("trace", ".bin");
+        try {
+            FunctionMemo.shared().clear();
+            check("calls run", env, p, inputs, file);
+            check("calls remembered", env, p, inputs, file);
+            checkBigSteps(file);
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        System.out.println("TraceReplayTest ok");
+    }
+
+    private static void check(String what, FunctionEnv env, Program p, List<Long> inputs, Path file) throws Exception {
+        MachineState run;
+        try (TraceRecorder trace = TraceRecorder.create(file, inputs)) {
+            run = FunctionEnv.with(env, () -> ExecutionManager.shared().runTraced(p, inputs, null, trace));
+        }
+        try (TraceReader r = TraceReader.open(file)) {
+            expect(what + ": steps", 4, r.steps());
+
+            TraceReader.Step call = r.step(0);
+            expect(what + ": step 0 pc", 0, call.pc());
+            expect(what + ": step 0 writes", Var.z(1), call.register());
+            expect(what + ": step 0 value", 6, call.value());
+            expect(what + ": step 0 cycles", Quote.CYCLES + 5, call.cycles());
+
+            MachineState afterCall = r.stateAt(1);
+            expect(what + ": z1 after the call", 6, afterCall.get(Var.z(1)));
+            expect(what + ": y after the call", 0, afterCall.get(Var.y()));
+            expect(what + ": pc after the call", 1, afterCall.getPc());
+
+            MachineState end = r.stateAt(r.steps());
+            expect(what + ": y", run.y(), end.y());
+            expect(what + ": cycles", run.cycles(), end.cycles());
+            expect(what + ": z1", run.get(Var.z(1)), end.get(Var.z(1)));
+            expect(what + ": x1", run.get(Var.x(1)), end.get(Var.x(1)));
+        }
+    }
+
+    private static void checkBigSteps(Path file) throws Exception {
+        long big = 3L << 31;                           // a call that long does not fit an int
+        try (TraceRecorder trace = TraceRecorder.create(file, List.of())) {
+            trace.record(0, TraceRecorder.code(Var.y()), 1, big);
+            trace.record(1, -1, 0, 1);
+        }
+        try (TraceReader r = TraceReader.open(file)) {
+            expect("big step: cycles", big, r.step(0).cycles());
+            expect("big step: cycles after it", big, r.stateAt(1).cycles());
+            expect("big step: cycles at the end", big + 1, r.stateAt(2).cycles());
+        }
+    }
+
+    private static void expect(String what, Object expected, Object actual) {
+        if (expected instanceof Integer i && actual instanceof Long) expected = i.longValue();
+        if (!expected.equals(actual)) throw new AssertionError(what + ": expected " + expected + ", got " + actual);
+    }
+}
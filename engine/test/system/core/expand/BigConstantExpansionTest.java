@@ -0,0 +1,56 @@
+package system.core.expand;
+
+import system.core.model.Program;
+import system.core.model.Var;
+import system.core.model.basic.Inc;
+import system.core.model.synthetic.Assignment;
+import system.core.model.synthetic.ConstantAssignment;
+import system.core.model.synthetic.GotoLabel;
+import system.core.model.synthetic.JumpEqualConstant;
+import system.core.model.synthetic.ZeroVariable;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Expanding a big constant costs what the expansion stores, not the lines it stands for: y <- k
+ * with k near the most lines a program can have expands (eagerly and lazily, z's compacted every
+ * round) in a few MB. Anything that walks or sizes by line on the way runs out of heap here.
+ *
+ *   javac -cp "lib/*" -d build/test $(find engine/src engine/test -name '*.java')
+ *   java -Xmx256m -cp "build/test:lib/*" system.core.expand.BigConstantExpansionTest
+ */
+public final class BigConstantExpansionTest {
+    private static final long K = 2_000_000_000L;
+    private static final int MAX_STORED = 10_000;
+
+    public static void main(String[] args) {
+        // y <- K; z1 <- y; GOTO A; A: y <- y + 1; IF y = 3 GOTO EXIT; z1 <- 0
+        Program p = new Program("Big", "", List.of(
+                new ConstantAssignment("", Var.y(), K),
+                new Assignment("", Var.z(1), Var.y()),
+                new GotoLabel("", "A"),
+                new Inc("A", Var.y(), 1),
+                new JumpEqualConstant("", Var.y(), 3, "EXIT"),
+                new ZeroVariable("", Var.z(1))));
+        ExpanderImpl ex = new ExpanderImpl();
+
+        ExpandedProgramResult eager = new ExpandedProgramResult(p, List.of());
+        for (int d = 1; d <= 4; d++) {
+            eager = ex.expandNext(eager);
+            Program got = eager.program();
+            long lines = got.instructions().size();
+            if (lines < K) throw new AssertionError("degree " + d + ": " + lines + " lines");
+            int[] stored = {0};
+            got.forEachDistinct((ins, pc) -> stored[0]++);
+            if (stored[0] > MAX_STORED) throw new AssertionError("degree " + d + ": " + stored[0] + " lines stored");
+
+            long lazy = 0;
+            for (Iterator<LazyExpansion.Piece> it = LazyExpansion.stream(p, d, true); it.hasNext(); ) {
+                lazy += it.next().lines();
+            }
+            if (lazy != lines) throw new AssertionError("degree " + d + ": lazy " + lazy + " lines, eager " + lines);
+        }
+        System.out.println("BigConstantExpansionTest ok");
+    }
+}
@@ -0,0 +1,114 @@
+package system.core.expand;
+
+import system.core.exec.Executor;
+import system.core.exec.FunctionEnv;
+import system.core.exec.MachineState;
+import system.core.exec.RunBudget;
+import system.core.expand.helpers.FreshNames;
+import system.core.model.Instruction;
+import system.core.model.Program;
+import system.core.model.RandomPrograms;
+import system.core.model.Var;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Giving a round's z's shared names changes nothing a run can see: for random programs, every round
+ * run as expanded and as compacted ends with the same y, cycles, pc, x's and z's from before the
+ * round, the compacted round has the same lines with the same labels, and the lazy expansion makes
+ * the very lines the eager one does.
+ *
+ *   javac -cp "lib/*" -d build/test $(find engine/src engine/test -name '*.java')
+ *   java -cp "build/test:lib/*" system.core.expand.ZCompactionTest
+ */
+public final class ZCompactionTest {
+    private static final long CAP = 2_000_000;
+
+    public static void main(String[] args) {
+        FunctionEnv env = new FunctionEnv(RandomPrograms.functions());
+        int checked = 0, zsBefore = 0, zsAfter = 0;
+        for (long seed = 0; seed < 100; seed++) {
+            RandomPrograms gen = new RandomPrograms(seed);
+            Program p = gen.program("P" + seed, 12, seed % 3 != 0);
+            List<List<Long>> inputs = List.of(gen.inputs(3, 4), gen.inputs(3, 4));
+            Program cur = p;
+            for (int round = 1; round <= 4; round++) {
+                Program before = cur;
+                FreshNames.Scan scan = FreshNames.scan(before);
+                Program plain = new Program(before.name());
+                FunctionEnv.with(env, () -> {
+                    ExpanderImpl.expandRange(before, null, 0, before.instructions().size(), new FreshNames(scan), plain, null);
+                    return null;
+                });
+                Program compacted = ZCompaction.compact(new ExpandedProgramResult(plain, List.of()), scan.maxZ()).program();
+
+                String where = "seed " + seed + ", round " + round;
+                sameLines(where, plain, compacted);
+                for (List<Long> in : inputs) {
+                    String want = FunctionEnv.with(env, () -> outcome(plain, in, scan.maxZ()));
+                    String got = FunctionEnv.with(env, () -> outcome(compacted, in, scan.maxZ()));
+                    if (!want.equals(got)) {
+                        throw new AssertionError(where + ", inputs " + in + "\n  expanded:  " + want + "\n  compacted: " + got);
+                    }
+                    checked++;
+                }
+                zsBefore += tempZs(plain, scan.maxZ());
+                zsAfter += tempZs(compacted, scan.maxZ());
+
+                int degree = round;
+                Program eager = FunctionEnv.with(env, () -> new ExpanderImpl().expandToDegree(p, degree));
+                LazyExpansion lazy = FunctionEnv.with(env, () -> LazyExpansion.of(p, degree, false));
+                int n = FunctionEnv.with(env, lazy::size);
+                if (n != eager.instructions().size()) throw new AssertionError(where + ": lazy " + n + " lines, eager " + eager.instructions().size());
+                for (int i = 0; i < n; i++) {
+                    String e = text(eager.instructions().get(i)), l = text(lazy.get(i));
+                    if (!e.equals(l)) throw new AssertionError(where + ", line " + (i + 1) + ": eager " + e + ", lazy " + l);
+                }
+                cur = compacted;
+            }
+        }
+        if (checked == 0 || zsAfter >= zsBefore) {
+            throw new AssertionError("nothing compacted: " + checked + " runs, z's " + zsBefore + " -> " + zsAfter);
+        }
+        System.out.println("ZCompactionTest ok (" + checked + " runs, round z's " + zsBefore + " -> " + zsAfter + ")");
+    }
+
+    private static void sameLines(String where, Program a, Program b) {
+        if (a.instructions().size() != b.instructions().size()) throw new AssertionError(where + ": line count changed");
+        for (int i = 0; i < a.instructions().size(); i++) {
+            Instruction x = a.instructions().get(i), y = b.instructions().get(i);
+            if (x.getClass() != y.getClass() || !x.label().equals(y.label())) {
+                throw new AssertionError(where + ", line " + (i + 1) + ": " + text(x) + " became " + text(y));
+            }
+        }
+    }
+
+    // what a run shows: the round's own z's (above keepZ) are not compared, their names are what changed
+    private static String outcome(Program p, List<Long> in, int keepZ) {
+        try {
+            MachineState st = RunBudget.with(RunBudget.cycles(CAP), () -> new Executor().run(p, in));
+            Map<Integer, Long> z = new TreeMap<>(st.snapshotZ());
+            z.keySet().removeIf(i -> i > keepZ);
+            return "y=" + st.y() + " cycles=" + st.cycles() + " pc=" + st.getPc() + " halted=" + st.isHalted()
+                    + " x=" + new TreeMap<>(st.snapshotX()) + " z=" + z;
+        } catch (RuntimeException e) {
+            return "threw " + e.getMessage();
+        }
+    }
+
+    private static int tempZs(Program p, int keepZ) {
+        Set<Var> zs = new HashSet<>();
+        p.forEachDistinct((ins, i) -> {
+            for (Var v : ins.variablesUsed()) if (v.isZ() && v.index() > keepZ) zs.add(v);
+        });
+        return zs.size();
+    }
+
+    private static String text(Instruction ins) {
+        return ins.label() + ": " + ins.asText();
+    }
+}
@@ -0,0 +1,115 @@
+package system.core.model;
+
+import system.core.model.basic.Dec;
+import system.core.model.basic.IfGoto;
+import system.core.model.basic.Inc;
+import system.core.model.basic.Nop;
+import system.core.model.synthetic.Assignment;
+import system.core.model.synthetic.ConstantAssignment;
+import system.core.model.synthetic.GotoLabel;
+import system.core.model.synthetic.JumpEqualConstant;
+import system.core.model.synthetic.JumpEqualVariable;
+import system.core.model.synthetic.JumpZero;
+import system.core.model.synthetic.ZeroVariable;
+import system.core.model.synthetic.advanced.JumpEqualFunction;
+import system.core.model.synthetic.advanced.Quote;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Random programs for the tests that run one program two ways and compare: every instruction kind,
+ * labels jumped to from before and after, x1..x3 / z1..z3 / y, calls of {@link #functions()} when
+ * asked for. Jumps mostly go forward and the loops are the canonical transfer / clear ones, so most
+ * programs end within a few thousand cycles; a test gives the rest a cycle budget.
+ */
+public final class RandomPrograms {
+    private final Random r;
+
+    public RandomPrograms(long seed) {
+        this.r = new Random(seed);
+    }
+
+    /** Succ(x1) = x1 + 1, Add(x1, x2) and Dbl(x1) = (Add,x1,x1). */
+    public static Map<String, Program> functions() {
+        Map<String, Program> m = new LinkedHashMap<>();
+        m.put("Succ", new Program("Succ", "", List.of(
+                new Assignment("", Var.y(), Var.x(1)),
+                new Inc("", Var.y(), 1))));
+        m.put("Add", new Program("Add", "", List.of(
+                new Assignment("", Var.y(), Var.x(1)),
+                new Assignment("", Var.z(1), Var.x(2)),
+                new JumpZero("B1", Var.z(1), "EXIT"),
+                new Dec("", Var.z(1), 1),
+                new Inc("", Var.y(), 1),
+                new GotoLabel("", "B1"))));
+        m.put("Dbl", new Program("Dbl", "", List.of(
+                new Quote("", Var.y(), "Add", "x1,x1"))));
+        return m;
+    }
+
+    /** n random lines, calling functions() if calls, maybe followed by a transfer loop and a clear loop. */
+    public Program program(String name, int n, boolean calls) {
+        List<String> fns = new ArrayList<>(functions().keySet());
+        List<Instruction> out = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            String label = r.nextInt(3) == 0 ? "A" + i : "";
+            String to = r.nextInt(5) == 0 ? "EXIT" : "A" + (i + 1 + r.nextInt(Math.max(1, n - i)));
+            if (r.nextInt(8) == 0) to = "A" + r.nextInt(i + 1);        // now and then a jump back
+            out.add(switch (r.nextInt(calls ? 13 : 11)) {
+                case 0 -> new Inc(label, var(), 1);
+                case 1 -> new Dec(label, var(), 1);
+                case 2 -> new Nop(label, var(), 0);
+                case 3 -> new IfGoto(label, var(), to, 2);
+                case 4 -> new ZeroVariable(label, var());
+                case 5 -> new GotoLabel(label, to);
+                case 6 -> new Assignment(label, var(), var());
+                case 7 -> new ConstantAssignment(label, var(), r.nextInt(4));
+                case 8 -> new JumpZero(label, var(), to);
+                case 9 -> new JumpEqualConstant(label, var(), r.nextInt(3), to);
+                case 10 -> new JumpEqualVariable(label, var(), var(), to);
+                case 11 -> new Quote(label, var(), fns.get(r.nextInt(fns.size())), args(fns));
+                default -> new JumpEqualFunction(label, var(), fns.get(r.nextInt(fns.size())), args(fns), to);
+            });
+        }
+        if (r.nextBoolean()) {
+            out.add(new Dec("TL", Var.x(1), 1));
+            out.add(new Inc("", Var.y(), 1));
+            out.add(new IfGoto("", Var.x(1), "TL", 2));
+        }
+        if (r.nextBoolean()) {
+            out.add(new Dec("CL", Var.z(2), 1));
+            out.add(new IfGoto("", Var.z(2), "CL", 2));
+        }
+        return new Program(name, "", out);
+    }
+
+    /** count inputs, each 0..max. */
+    public List<Long> inputs(int count, int max) {
+        List<Long> in = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) in.add((long) r.nextInt(max + 1));
+        return in;
+    }
+
+    private Var var() {
+        return switch (r.nextInt(3)) {
+            case 0 -> Var.x(1 + r.nextInt(3));
+            case 1 -> Var.z(1 + r.nextInt(3));
+            default -> Var.y();
+        };
+    }
+
+    private String args(List<String> fns) {
+        int n = r.nextInt(3);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            if (i > 0) sb.append(',');
+            if (r.nextInt(4) == 0) sb.append('(').append(fns.get(0)).append(",x1)");
+            else sb.append(var());
+        }
+        return sb.toString();
+    }
+}
@@ -194,6 +194,30 @@ abstract class BaseApiServlet extends HttpServlet {
         return out;
     }
 
+    /** Array of number arrays, e.g. "inputs":[[1,2],[3],[]] -> [[1,2],[3],[]]. */
+    protected static List<List<Long>> jLongLists(String json, String key) {
+        String k = "\"" + key + "\"";
+        int i = json.indexOf(k); if (i < 0) return List.of();
+        int c = json.indexOf(':', i + k.length()); if (c < 0) return List.of();
+        int outer = json.indexOf('[', c + 1); if (outer < 0) return List.of();
+        List<List<Long>> out = new java.util.ArrayList<>();
+        int p = outer + 1;
+        while (p < json.length()) {
+            char ch = json.charAt(p);
+            if (ch == ']') break;                       // end of the outer array
+            if (ch != '[') { p++; continue; }
+            int close = json.indexOf(']', p + 1); if (close < 0) break;
+            List<Long> row = new java.util.ArrayList<>();
+            for (String s : json.substring(p + 1, close).split(",")) {
+                s = s.trim();
+                if (!s.isEmpty()) try { row.add(Long.parseLong(s)); } catch (Exception ignore) {}
+            }
+            out.add(row);
+            p = close + 1;
+        }
+        return out;
+    }
+
     protected static boolean jBool(String json, String key, boolean def) {
         if (json == null) return def;
         String token = "\"" + key + "\"";
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import server_core.util.Credits;
+import server_core.util.ExpansionLimits;
 import server_core.util.DebugSession;
 
 @WebServlet(name = "DebugServlet", urlPatterns = {"/api/debug/*"}, loadOnStartup = 1)
@@ -95,26 +96,22 @@ public class DebugServlet extends BaseApiServlet {
                     return;
                 }
                 dbg = FunctionEnv.with(new FunctionEnv(fnMap), () -> {
-                    int max = system.core.exec.FunctionEnv.with(new system.core.exec.FunctionEnv(fnMap), () -> {
-                        final int CAP = 1000;
-                        int d = 0;
-                        system.core.model.Program cur = fnBody;
-                        while (d < CAP && containsSynthetic(cur)) {
-                            cur = new system.core.expand.ExpanderImpl().expandToDegree(cur, 1);
-                            d++;
-                        }
-                        return d;
-                    });
+                    int max = new system.core.expand.ExpanderImpl().maxDegree(fnBody);
                     int use = Math.max(0, Math.min(degree, max));
-                    final system.core.model.Program programToDebug = (use == 0)
-                            ? fnBody
-                            : new system.core.expand.ExpanderImpl().expandToDegree(fnBody, use);
                     Debugger dbgInstance = new Debugger();
-                    dbgInstance.init(programToDebug, inputs, fnMap);
+                    if (use == 0) {
+                        dbgInstance.init(fnBody, inputs, fnMap,
+                                new system.core.exec.ExecutionManager.Key(meta.engine, function, meta.engine.getVersion(), use));
+                    } else {
+                        // expanded as the session steps into it, not up front
+                        dbgInstance.init(system.core.expand.LazyExpansion.of(fnBody, use, false), inputs, fnMap);
+                    }
                     return dbgInstance;
                 });
             } else {
-                dbg = meta.engine.startDebug(degree, inputs);
+                // too big to build up front: the session expands what it steps into instead
+                boolean whole = ExpansionLimits.admits(ExpansionLimits.estimate(meta, null, degree));
+                dbg = whole ? meta.engine.startDebug(degree, inputs) : meta.engine.startLazyDebug(degree, inputs);
                 if (dbg == null) throw new IllegalStateException("Debugger initialization failed");
             }
         } catch (Exception ex) {
@@ -137,14 +134,6 @@ public class DebugServlet extends BaseApiServlet {
                 + "}");
     }
 
-    // Helper for synthetic detection
-    private static boolean containsSynthetic(system.core.model.Program p) {
-        for (system.core.model.Instruction ins : p.instructions()) {
-            if (!ins.isBasic()) return true;
-        }
-        return false;
-    }
-
     // ---------- POST /api/debug/step ----------
     private void step(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         doAdvance(req, resp, Mode.STEP);
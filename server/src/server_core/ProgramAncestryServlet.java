@@ -4,7 +4,8 @@ import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import system.core.exec.FunctionEnv;
-import system.core.expand.ExpanderImpl;
+import system.core.expand.LazyExpansion;
+import system.core.expand.Origin;
 import system.core.io.ProgramMapper;
 import system.core.model.Program;
 
@@ -64,10 +65,9 @@ public class ProgramAncestryServlet extends BaseApiServlet {
                 if (useDegree == 0) {
                     return "";
                 } else {
-                    var res = new ExpanderImpl().expandToDegreeWithOrigins(base, useDegree);
-                    int z = index1 - 1;
-                    if (z < 0 || z >= res.origins().size()) return "";
-                    return res.origins().get(z);
+                    // expands only up to the line asked for, then walks up its origins
+                    Origin origin = LazyExpansion.of(base, useDegree, true).originNode(index1 - 1);
+                    return Origin.chainOf(origin);
                 }
             });
 
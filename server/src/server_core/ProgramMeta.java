@@ -1,9 +1,12 @@
 package server_core;
 
 import system.core.EmulatorEngineImpl;
+import system.core.expand.ExpansionCost;
 import system.core.model.Program;
 
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 
 public final class ProgramMeta {
@@ -23,6 +26,9 @@ public final class ProgramMeta {
     // Engine instance ready to run this program
     public final EmulatorEngineImpl engine;
 
+    // expansion size by degree, estimated the first time a degree is asked for
+    private final Map<Integer, ExpansionCost.Estimate> estimates = new ConcurrentHashMap<>();
+
     public ProgramMeta(String name, String ownerUser,
                        Set<String> providesFunctions, Program mainProgram,
                        int instrCountDeg0, int maxDegree,
@@ -35,4 +41,10 @@ public final class ProgramMeta {
         this.maxDegree = maxDegree;
         this.engine = engine;
     }
+
+    /** How big the main program is at a degree (clamped to 0..maxDegree), without expanding it. */
+    public ExpansionCost.Estimate estimate(int degree) {
+        int d = Math.max(0, Math.min(degree, maxDegree));
+        return estimates.computeIfAbsent(d, engine::estimateExpansion);
+    }
 }
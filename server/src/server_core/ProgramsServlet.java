@@ -4,17 +4,20 @@ import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import system.api.view.IngestReport;
-import system.api.view.ProgramView;
 import system.core.EmulatorEngineImpl;
 import system.core.exec.FunctionEnv;
-import system.core.expand.ExpanderImpl;
+import system.core.expand.ExpansionCost;
+import system.core.expand.LazyExpansion;
+import system.core.expand.Origin;
 import system.core.io.ArchTierMap;
-import system.core.io.ProgramMapper;
 import system.core.model.Instruction;
 import system.core.model.Program;
+import system.core.model.RepeatList;
 import server_core.util.CommonUtils;
+import server_core.util.ExpansionLimits;
 
 import java.io.IOException;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -233,27 +236,59 @@ public class ProgramsServlet extends BaseApiServlet {
 
         boolean withOrigins = Boolean.parseBoolean(req.getParameter("withOrigins"));
 
-        // Expand program to the requested degree and map to a view
-        ProgramView view;
-        Program p;
+        // Optional paging: offset (0-based) and limit; without them the whole program is returned,
+        // with repeat blocks (the lines of a big constant) written once instead of line by line
+        int offsetQ = Math.max(0, parseIntOr(req.getParameter("offset"), 0));
+        int limitQ = parseIntOr(req.getParameter("limit"), -1);
+        boolean pagedQ = req.getParameter("offset") != null || limitQ >= 0;
+
+        // A whole program too big to send at once is cut to its first page (the client pages on with "more")
+        ExpansionCost.Estimate estimate = estimateBody(meta, base, fnMap, useDegree);
+        final boolean degraded = !pagedQ && !ExpansionLimits.admits(estimate);
+        if (degraded) {
+            offsetQ = 0;
+            limitQ = ExpansionLimits.VIEW_PAGE_LINES;
+            pagedQ = true;
+        }
+        final int offset = offsetQ;
+        final int limit = limitQ;
+        final boolean paged = pagedQ;
+
+        // Expand the program as the lines are written out: only lines up to the requested page are
+        // expanded and nothing is kept once written (degree 0 just walks the program)
+        StringBuilder lines = new StringBuilder();
+        boolean more;
         try {
-            Object[] result = FunctionEnv.with(new FunctionEnv(fnMap), () -> {
-                Program program;
-                ProgramView pv;
-                if (useDegree == 0) {
-                    // Degree 0: no expansion
-                    program = base;
-                    pv = ProgramMapper.toView(base);
-                } else {
-                    // Expand the program to the given degree, with origin tracking
-                    var res = new ExpanderImpl().expandToDegreeWithOrigins(base, useDegree);
-                    program = res.program();
-                    pv = ProgramMapper.toView(program, withOrigins ? res.origins() : null);
+            more = FunctionEnv.with(new FunctionEnv(fnMap), () -> {
+                Iterator<LazyExpansion.Piece> it = LazyExpansion.stream(base, useDegree, withOrigins);
+                long end = (limit < 0) ? Long.MAX_VALUE : (long) offset + limit;
+                long i = 0;                                   // index of the next line
+                int n = 0;                                    // entries written
+                while (i < end && it.hasNext()) {
+                    LazyExpansion.Piece piece = it.next();
+                    long from = i;
+                    i += piece.lines();
+                    if (i <= offset) continue;                // before the page: a block is skipped whole
+                    String origin = withOrigins ? Origin.chainOf(piece.origin()) : "";   // built for this line only
+                    switch (piece) {
+                        case LazyExpansion.Line line -> appendLine(lines, n++, line.instruction(), from, origin, null);
+                        case LazyExpansion.Repeat rep when limit < 0 -> {
+                            // no page asked for: the block's body once, each line marked with the repeat count
+                            List<Instruction> body = rep.block().body();
+                            for (int j = 0; j < body.size(); j++) {
+                                appendLine(lines, n++, body.get(j), from + j, origin, rep.block());
+                            }
+                        }
+                        case LazyExpansion.Repeat rep -> {
+                            // paging into a block: its lines one by one, only those on the page
+                            for (long k = Math.max(from, offset); k < Math.min(i, end); k++) {
+                                appendLine(lines, n++, rep.block().line(k - from), k, origin, null);
+                            }
+                        }
+                    }
                 }
-                return new Object[]{program, pv};
+                return i > end || it.hasNext();
             });
-            p = (Program) result[0];
-            view = (ProgramView) result[1];
         } catch (Exception e) {
             json(resp, 500, "{\"error\":\"expand_failed\",\"degree\":" + useDegree + "}");
             return;
@@ -264,26 +299,11 @@ public class ProgramsServlet extends BaseApiServlet {
         resp.setCharacterEncoding("UTF-8");
         var out = resp.getWriter();
 
-        out.print("{\"degree\":" + useDegree + ",\"maxDegree\":" + maxDegree + ",\"instructions\":[");
-
-
-        List<Instruction> insns = p.instructions();
-        List<system.api.view.CommandView> cmds = view.commands();
-
-        for (int i = 0; i < insns.size(); i++) {
-            if (i > 0) out.print(",");
-            var ins = insns.get(i);
-            var cv = cmds.get(i);
-
-            out.print("{\"index\":" + (i + 1));
-            out.print(",\"op\":\"" + esc(ins.asText()) + "\"");
-            out.print(",\"level\":\"" + CommonUtils.toRoman(ArchTierMap.tierOf(ins.getClass())) + "\"");
-            out.print(",\"bs\":\"" + (ins.isBasic() ? "B" : "S") + "\"");
-            out.print(",\"label\":\"" + esc(nullToEmpty(cv.labelOrEmpty())) + "\"");
-            out.print(",\"cycles\":" + Math.max(0, cv.cycles()));
-            out.print(",\"originChain\":\"" + esc(withOrigins ? nullToEmpty(cv.originChain()) : "") + "\"}");
-        }
-
+        out.print("{\"degree\":" + useDegree + ",\"maxDegree\":" + maxDegree);
+        if (paged) out.print(",\"offset\":" + offset + ",\"more\":" + more);
+        if (degraded) out.print(",\"degraded\":true,\"estimatedLines\":" + estimate.lines());
+        out.print(",\"instructions\":[");
+        out.print(lines);
         out.print("]}");
         out.flush();
     }
@@ -291,9 +311,36 @@ public class ProgramsServlet extends BaseApiServlet {
 
     // --- Helpers ---
 
+    /** Size of the body at degree, or null if it cannot be worked out (the expansion then reports why). */
+    private static ExpansionCost.Estimate estimateBody(ProgramMeta meta, Program base, Map<String, Program> fnMap, int degree) {
+        try {
+            return (meta != null) ? meta.estimate(degree) : ExpansionLimits.ofFunction(fnMap, base, degree);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** One line of a program body; a line standing for a repeat block also gets "repeat" and "period". */
+    private static void appendLine(StringBuilder sb, int n, Instruction ins, long index, String origin,
+                                   RepeatList.Block<Instruction> block) {
+        if (n > 0) sb.append(',');
+        sb.append("{\"index\":").append(index + 1)
+                .append(",\"op\":\"").append(esc(ins.asText())).append('"')
+                .append(",\"level\":\"").append(CommonUtils.toRoman(ArchTierMap.tierOf(ins.getClass()))).append('"')
+                .append(",\"bs\":\"").append(ins.isBasic() ? "B" : "S").append('"')
+                .append(",\"label\":\"").append(esc(nullToEmpty(ins.label()))).append('"')
+                .append(",\"cycles\":").append(Math.max(0, ins.cycles()));
+        if (block != null) sb.append(",\"repeat\":").append(block.count()).append(",\"period\":").append(block.body().size());
+        sb.append(",\"originChain\":\"").append(esc(origin)).append("\"}");
+    }
+
     private static String nullToEmpty(String s) {
         return s == null ? "" : s;
     }
+    private static int parseIntOr(String q, int def) {
+        if (q == null || q.isBlank()) return def;
+        try { return Integer.parseInt(q.trim()); } catch (NumberFormatException e) { return def; }
+    }
     private static String deepestMessage(Throwable t) {
         Throwable cur = t;
         while (cur.getCause() != null) cur = cur.getCause();
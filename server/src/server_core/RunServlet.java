@@ -5,22 +5,94 @@ import jakarta.servlet.annotation.WebServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import server_core.util.Credits;
+import server_core.util.ExpansionLimits;
+import system.api.view.LineProfile;
+import system.api.view.ProfileView;
+import system.core.exec.DegreeExecutor;
+import system.core.exec.ExecutionManager;
 import system.core.exec.FunctionEnv;
+import system.core.exec.FunctionMemo;
+import system.core.exec.MachineState;
+import system.core.exec.RunBudget;
+import system.core.exec.RunProfile;
+import system.core.expand.ExpansionCost;
 
 @WebServlet(name = "RunServlet", urlPatterns = {"/api/run/*"}, loadOnStartup = 1)
 public class RunServlet extends BaseApiServlet {
 
+    /** Wall clock limit of one run (the clients give up on /start after 10 seconds). */
+    private static final Duration RUN_DEADLINE = Duration.ofSeconds(8);
+    /** Wall clock limit of a whole /batch request. */
+    private static final Duration BATCH_DEADLINE = Duration.ofSeconds(60);
+
     @Override
     protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         switch (subPath(req)) {
-            case "/start" -> handleRunStart(req, resp);
+            case "/start" -> handleRunStart(req, resp, false);
+            case "/profile" -> handleRunStart(req, resp, true);
+            case "/batch" -> handleRunBatch(req, resp);
             case "/inputs" -> handleInputsRequest(req, resp);
             default -> json(resp, 404, "{\"error\":\"not_found\",\"path\":\"" + esc(subPath(req)) + "\"}");
         }
     }
 
+    @Override
+    protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        if ("/tiers".equals(subPath(req))) handleTiers(req, resp);
+        else if ("/memo".equals(subPath(req))) handleMemo(req, resp);
+        else json(resp, 404, "{\"error\":\"not_found\",\"path\":\"" + esc(subPath(req)) + "\"}");
+    }
+
+    /** Promotion thresholds and per tier hit counters of the shared ExecutionManager. */
+    private void handleTiers(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        User u = requireUser(req, resp);
+        if (u == null) return;
+
+        var stats = ExecutionManager.shared().stats();
+        var t = stats.thresholds();
+        StringBuilder sb = new StringBuilder("{\"ok\":true,");
+        sb.append("\"thresholds\":{")
+                .append("\"compileRuns\":").append(t.compileRuns()).append(",")
+                .append("\"compileCycles\":").append(t.compileCycles()).append(",")
+                .append("\"jitRuns\":").append(t.jitRuns()).append(",")
+                .append("\"jitCycles\":").append(t.jitCycles()).append("},");
+        sb.append("\"hits\":{");
+        boolean first = true;
+        for (var e : stats.hits().entrySet()) {
+            if (!first) sb.append(",");
+            first = false;
+            sb.append("\"").append(e.getKey().name()).append("\":").append(e.getValue());
+        }
+        sb.append("},");
+        sb.append("\"programs\":").append(stats.programs()).append(",");
+        sb.append("\"promotions\":").append(stats.promotions()).append("}");
+        json(resp, 200, sb.toString());
+    }
+
+    /** Counters of the function call memo shared by every engine and user. */
+    private void handleMemo(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        User u = requireUser(req, resp);
+        if (u == null) return;
+
+        var m = FunctionMemo.shared().stats();
+        json(resp, 200, "{\"ok\":true,"
+                + "\"hits\":" + m.hits() + ","
+                + "\"misses\":" + m.misses() + ","
+                + "\"evictions\":" + m.evictions() + ","
+                + "\"size\":" + m.size() + ","
+                + "\"capacity\":" + m.capacity()
+                + "}");
+    }
+
     private void handleInputsRequest(HttpServletRequest req, HttpServletResponse resp) throws IOException {
         User u = requireUser(req, resp);
         if (u == null) return;
@@ -87,7 +159,14 @@ public class RunServlet extends BaseApiServlet {
         json(resp, 200, sb.toString());
     }
 
-    private void handleRunStart(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+    /**
+     * POST /api/run/start    {program, arch, degree, inputs, function?}
+     * POST /api/run/profile  same, and the answer (200 or a partial 409) has a "profile" as well:
+     *   {"name":..,"calls":..,"memoHits":..,"cycles":..,"lines":[[number,hits,cycles,callCycles],..],"functions":[..]}
+     * with one line per instruction of the program at that degree. A profiled run always runs the
+     * expansion on the interpreter, so a degree too big to expand gets a 413 instead.
+     */
+    private void handleRunStart(HttpServletRequest req, HttpServletResponse resp, boolean profiled) throws IOException {
         User u = requireUser(req, resp);
         if (u == null) return;
 
@@ -108,6 +187,14 @@ public class RunServlet extends BaseApiServlet {
             return;
         }
 
+        // an expansion too big to build is not built: the run is charged as it would run instead
+        ExpansionCost.Estimate size = ExpansionLimits.estimate(meta, function, degree);
+        boolean expand = ExpansionLimits.admits(size);
+        if (profiled && !expand) {
+            json(resp, 413, ExpansionLimits.tooLargeJson(size));
+            return;
+        }
+
         long requiredMin = Credits.minRequiredToStart(meta, arch);
         if (u.getCredits() < requiredMin) {
             json(resp, 402, "{\"error\":\"insufficient_credits\",\"required\":" + requiredMin + "}");
@@ -121,29 +208,46 @@ public class RunServlet extends BaseApiServlet {
         }
 
         List<Long> inputs = jLongList(body, "inputs");
+        // fuel: never run past what the user can pay for, nor hold the worker thread forever. The credits
+        // are taken up front (as /batch does), so a run of the user's going on meanwhile cannot spend
+        // them too; what this run leaves is given back when it is done
+        long reserved = Credits.reserveShare(u, 1);
+        RunBudget budget = RunBudget.of(reserved, RUN_DEADLINE);
         system.api.RunResult rr;
+        ProfileView[] profile = new ProfileView[1];
         try {
             System.out.println("RunServlet: function=" + function);
             if (function != null && !function.isBlank()) {
                 FunctionMeta fmeta = FUNCTIONS.get(function);
                 if (fmeta == null) {
-                    u.addCredits(archFixed);
+                    u.addCredits(archFixed + reserved);
                     json(resp, 404, "{\"error\":\"function_not_found\"}");
                     return;
                 }
                 var fnMap = meta.engine.getFunctions();
                 var fnBody = fnMap.get(function);
                 if (fnBody == null) {
-                    u.addCredits(archFixed);
+                    u.addCredits(archFixed + reserved);
                     json(resp, 404, "{\"error\":\"function_body_not_found\"}");
                     return;
                 }
                 rr = FunctionEnv.with(new FunctionEnv(fnMap), () -> {
-                    system.core.model.Program toRun = (degree == 0) ? fnBody
-                            : new system.core.expand.ExpanderImpl().expandToDegree(fnBody, degree);
-
-                    var exec = new system.core.exec.Executor();
-                    var st = exec.run(toRun, inputs);
+                    MachineState st;
+                    if (expand) {
+                        system.core.model.Program toRun = (degree == 0) ? fnBody
+                                : new system.core.expand.ExpanderImpl().expandToDegree(fnBody, degree);
+                        if (profiled) {
+                            RunProfile rp = new RunProfile(toRun);
+                            st = ExecutionManager.shared().runProfiled(toRun, inputs, budget, rp);
+                            profile[0] = rp.view();
+                        } else {
+                            var key = new ExecutionManager.Key(meta.engine, function, meta.engine.getVersion(), degree);
+                            st = ExecutionManager.shared().run(key, toRun, inputs, budget);
+                        }
+                    } else {
+                        int use = Math.max(0, Math.min(degree, new system.core.expand.ExpanderImpl().maxDegree(fnBody)));
+                        st = new DegreeExecutor().run(fnBody, use, inputs, budget);
+                    }
 
                     var vars = new java.util.LinkedHashMap<String, Long>();
                     vars.put("y", st.y());
@@ -152,30 +256,42 @@ public class RunServlet extends BaseApiServlet {
                     xs.forEach((i, v) -> vars.put("x" + i, v));
                     zs.forEach((i, v) -> vars.put("z" + i, v));
 
-                    return new system.api.RunResult(st.y(), st.cycles(), null, vars);
+                    return new system.api.RunResult(st.y(), st.cycles(), null, vars,
+                            system.core.EmulatorEngineImpl.statusOf(st));
                 });
+            } else if (profiled) {
+                system.api.ProfiledRun pr = meta.engine.profile(degree, inputs, budget);
+                rr = pr.result();
+                profile[0] = pr.profile();
             } else {
-                rr = meta.engine.run(degree, inputs);
+                rr = expand ? meta.engine.run(degree, inputs, budget)
+                            : meta.engine.runUnexpanded(degree, inputs, budget);
             }
         } catch (Exception e) {
-            u.addCredits(archFixed);
+            u.addCredits(archFixed + reserved);
             json(resp, 500, "{\"error\":\"engine_run_error\"}");
             return;
         }
 
         long cycles = rr.cycles();
         long y      = rr.y();
+        // the budget kept the run within what was reserved: keep its cycles, give back the rest
+        u.addCredits(reserved - cycles);
+        u.creditsSpent.addAndGet(archFixed + cycles);
 
-        if (!Credits.tryCharge(u, cycles)) {
-            long remaining = u.getCredits();
-            if (remaining > 0) {
-                Credits.tryCharge(u, remaining);
-            }
-            u.creditsSpent.addAndGet(archFixed + remaining);
-            json(resp, 409, "{\"error\":\"credit_exhausted\",\"charged\":" + (archFixed + remaining) + "}");
+        if (rr.isPartial()) {
+            boolean outOfCredits = rr.status() == system.api.RunResult.Status.BUDGET_EXHAUSTED;
+            json(resp, 409, "{"
+                    + "\"error\":\"" + (outOfCredits ? "credit_exhausted" : "deadline_exceeded") + "\","
+                    + "\"status\":\"" + rr.status().name().toLowerCase() + "\","
+                    + "\"charged\":" + (archFixed + cycles) + ","
+                    + "\"cycles\":" + cycles + ","
+                    + "\"y\":" + y + ","
+                    + "\"creditsLeft\":" + u.getCredits() + ","
+                    + "\"vars\":" + varsJson(rr.variablesOrdered())
+                    + (profile[0] != null ? ",\"profile\":" + profileJson(profile[0]) : "")
+                    + "}");
             return;
-        } else {
-            u.creditsSpent.addAndGet(archFixed + cycles);
         }
 
         u.runsCount.incrementAndGet();
@@ -209,14 +325,162 @@ public class RunServlet extends BaseApiServlet {
         sb.append("\"cycles\":").append(cycles).append(",");
         sb.append("\"y\":").append(y).append(",");
         sb.append("\"creditsLeft\":").append(u.getCredits()).append(",");
-        sb.append("\"vars\":{");
+        sb.append("\"vars\":").append(varsJson(vars));
+        if (profile[0] != null) sb.append(",\"profile\":").append(profileJson(profile[0]));
+        sb.append("}");
+        json(resp, 200, sb.toString());
+    }
+
+    /**
+     * POST /api/run/batch  {program, arch, degree, inputs:[[..],[..],..]}
+     *
+     * Runs the main program over every input vector (expanded and compiled once, in parallel) and
+     * streams one JSON line per run as soon as it finishes: {"index":i,"status":..,"y":..,"cycles":..,"vars":{..}}.
+     * The arch cost is charged once for the batch. Every run takes its share of the credits left as it
+     * starts (the balance split between the runs that can go at the same time), which is its budget;
+     * when it finishes its cycles are kept and the rest goes back. A run cut short by its share comes
+     * back as budget_exhausted, and once the credits run out the remaining runs get no budget.
+     * The last line is {"done":true,...}.
+     */
+    private void handleRunBatch(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+        User u = requireUser(req, resp);
+        if (u == null) return;
+
+        String body    = readBody(req);
+        String program = jStr(body, "program");
+        String arch    = jStr(body, "arch");
+        Long   degreeL = jLong(body, "degree");
+        int    degree  = (degreeL == null ? 0 : degreeL.intValue());
+        List<List<Long>> inputs = jLongLists(body, "inputs");
+
+        if ((program == null || program.isBlank()) || !Credits.validArch(arch) || inputs.isEmpty()) {
+            json(resp, 400, "{\"error\":\"bad_params\"}");
+            return;
+        }
+        ProgramMeta meta = PROGRAMS.get(program);
+        if (meta == null) {
+            json(resp, 404, "{\"error\":\"program_not_found\"}");
+            return;
+        }
+        ExpansionCost.Estimate size = ExpansionLimits.estimate(meta, null, degree);
+        if (!ExpansionLimits.admits(size)) {
+            json(resp, 413, ExpansionLimits.tooLargeJson(size));
+            return;
+        }
+        long requiredMin = Credits.minRequiredToStart(meta, arch);
+        if (u.getCredits() < requiredMin) {
+            json(resp, 402, "{\"error\":\"insufficient_credits\",\"required\":" + requiredMin + "}");
+            return;
+        }
+        long archFixed = Credits.archFixed(arch);
+        if (!Credits.tryCharge(u, archFixed)) {
+            json(resp, 402, "{\"error\":\"insufficient_credits\"}");
+            return;
+        }
+
+        resp.setStatus(200);
+        resp.setContentType("application/x-ndjson; charset=UTF-8");
+        PrintWriter out = resp.getWriter();
+
+        long batchEnd = System.nanoTime() + BATCH_DEADLINE.toNanos();
+        AtomicLong charged = new AtomicLong(archFixed);
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger started = new AtomicInteger();
+        int lanes = Math.max(1, ForkJoinPool.getCommonPoolParallelism());   // runBatch runs on the common pool
+        Map<Integer, Long> reserved = new ConcurrentHashMap<>();   // by run, until it is done
+
+        try {
+            meta.engine.runBatch(degree, inputs,
+                    i -> {
+                        int left = inputs.size() - started.getAndIncrement();   // this run and the ones after it
+                        long share = Credits.reserveShare(u, Math.min(lanes, left));
+                        reserved.put(i, share);
+                        return RunBudget.of(share, Duration.ofNanos(Math.max(0, batchEnd - System.nanoTime())));
+                    },
+                    (i, rr) -> {
+                        // the run stayed within its share: keep its cycles, give back the rest
+                        long cycles = rr.cycles();
+                        u.addCredits(reserved.remove(i) - cycles);
+                        String status = rr.status().name().toLowerCase();
+                        if (!rr.isPartial()) {
+                            completed.incrementAndGet();
+                            recordRun(u, meta, program, arch, degree, inputs.get(i), rr, archFixed);
+                        }
+                        charged.addAndGet(cycles);
+                        synchronized (out) {
+                            out.write("{\"index\":" + i
+                                    + ",\"status\":\"" + status + "\""
+                                    + ",\"y\":" + rr.y()
+                                    + ",\"cycles\":" + cycles
+                                    + ",\"vars\":" + varsJson(rr.variablesOrdered()) + "}\n");
+                            out.flush();
+                        }
+                    });
+        } catch (Exception e) {
+            // runBatch waits for the runs under way before it throws: the shares still held are of runs that failed
+            reserved.values().forEach(u::addCredits);
+            if (charged.get() == archFixed) {
+                u.addCredits(archFixed);
+                charged.set(0);
+            }
+            synchronized (out) {
+                out.write("{\"error\":\"engine_run_error\"}\n");
+            }
+        }
+        u.creditsSpent.addAndGet(charged.get());
+
+        synchronized (out) {
+            out.write("{\"done\":true"
+                    + ",\"count\":" + inputs.size()
+                    + ",\"completed\":" + completed.get()
+                    + ",\"charged\":" + charged.get()
+                    + ",\"creditsLeft\":" + u.getCredits() + "}\n");
+            out.flush();
+        }
+        out.close();
+    }
+
+    /** User history + program stats of one finished main program run of a batch. */
+    private static void recordRun(User u, ProgramMeta meta, String program, String arch, int degree,
+                                  List<Long> inputs, system.api.RunResult rr, long archFixed) {
+        long runNo = u.runsCount.incrementAndGet();
+        u.addRunRecord(new User.RunRecord(runNo, true, program, arch, degree,
+                rr.y(), rr.cycles(), inputs, rr.variablesOrdered()));
+        synchronized (meta) {
+            long newRunCount = meta.runsCount.incrementAndGet();
+            meta.avgCreditsCost = ((meta.avgCreditsCost * (newRunCount - 1)) + archFixed + rr.cycles()) / (double) newRunCount;
+        }
+    }
+
+    private static String varsJson(java.util.Map<String, Long> vars) {
+        StringBuilder sb = new StringBuilder("{");
         boolean first = true;
         for (var e : vars.entrySet()) {
             if (!first) sb.append(",");
             first = false;
             sb.append("\"").append(esc(e.getKey())).append("\":").append(e.getValue());
         }
-        sb.append("}}");
-        json(resp, 200, sb.toString());
+        return sb.append("}").toString();
+    }
+
+    private static String profileJson(ProfileView p) {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"name\":\"").append(esc(p.name())).append("\",");
+        sb.append("\"calls\":").append(p.calls()).append(",");
+        sb.append("\"memoHits\":").append(p.memoHits()).append(",");
+        sb.append("\"cycles\":").append(p.cycles()).append(",");
+        sb.append("\"lines\":[");
+        for (int i = 0; i < p.lines().size(); i++) {
+            LineProfile l = p.lines().get(i);
+            if (i > 0) sb.append(",");
+            sb.append("[").append(l.number()).append(",").append(l.hits()).append(",")
+                    .append(l.cycles()).append(",").append(l.callCycles()).append("]");
+        }
+        sb.append("],\"functions\":[");
+        for (int i = 0; i < p.functions().size(); i++) {
+            if (i > 0) sb.append(",");
+            sb.append(profileJson(p.functions().get(i)));
+        }
+        return sb.append("]}").toString();
     }
 }
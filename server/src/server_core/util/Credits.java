@@ -32,4 +32,17 @@ public final class Credits {
     public static boolean tryCharge(User u, long amount) {
         return u.tryCharge(amount);
     }
+
+    /**
+     * Deduct a ways-th of the user's balance (rounded up), for one of ways runs going at the same time;
+     * returns the amount taken (0 if there is nothing left). What the run does not use goes back with addCredits.
+     */
+    public static long reserveShare(User u, int ways) {
+        int n = Math.max(1, ways);
+        while (true) {
+            long share = (u.getCredits() + n - 1) / n;
+            if (share <= 0) return 0;
+            if (u.tryCharge(share)) return share;
+        }
+    }
 }
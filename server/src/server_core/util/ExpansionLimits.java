@@ -0,0 +1,53 @@
+package server_core.util;
+
+import server_core.ProgramMeta;
+import system.core.exec.FunctionEnv;
+import system.core.expand.ExpansionCost;
+import system.core.model.Program;
+
+import java.util.Map;
+
+/**
+ * How big an expansion the server agrees to build, checked against {@link ExpansionCost} estimates
+ * before anything is expanded. Set with system properties (e.g. in CATALINA_OPTS):
+ *   -Dsemulator.maxExpandedLines=N   entries an expansion may keep in memory for a run or debug session
+ *   -Dsemulator.viewPageLines=N      lines per page a program view over that limit is cut to
+ */
+public final class ExpansionLimits {
+    private ExpansionLimits() {}
+
+    public static final long MAX_STORED_LINES = Long.getLong("semulator.maxExpandedLines", 4_000_000L);
+    public static final int VIEW_PAGE_LINES = Integer.getInteger("semulator.viewPageLines", 2_000);
+
+    /** True if an expansion of that size may be built. */
+    public static boolean admits(ExpansionCost.Estimate e) {
+        return e == null || e.stored() <= MAX_STORED_LINES;
+    }
+
+    /** Size of a run / debug session of meta's program, or of its function if one is given; null if unknown. */
+    public static ExpansionCost.Estimate estimate(ProgramMeta meta, String function, int degree) {
+        try {
+            if (function == null || function.isBlank()) return meta.estimate(degree);
+            Map<String, Program> functions = meta.engine.getFunctions();
+            Program body = functions.get(function);
+            return (body == null) ? null : ofFunction(functions, body, degree);
+        } catch (RuntimeException e) {
+            return null;    // the run itself reports what is wrong
+        }
+    }
+
+    /** Estimate of a function body at a degree (clamped), in an env of the given functions. */
+    public static ExpansionCost.Estimate ofFunction(Map<String, Program> functions, Program body, int degree) {
+        return FunctionEnv.with(new FunctionEnv(functions), () -> new ExpansionCost().estimate(body, degree));
+    }
+
+    /** Error body of a request turned away: what it would have taken and the limit. */
+    public static String tooLargeJson(ExpansionCost.Estimate e) {
+        return "{\"error\":\"expansion_too_large\","
+                + "\"degree\":" + e.degree() + ","
+                + "\"estimatedLines\":" + e.lines() + ","
+                + "\"estimatedStored\":" + e.stored() + ","
+                + "\"limit\":" + MAX_STORED_LINES
+                + "}";
+    }
+}